@@ -0,0 +1,87 @@
+package modeling;
+
+import weka.classifiers.AbstractClassifier;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instance;
+
+/**
+ * The base of the Weka classifiers that train a {@link LinearModel} (a logistic regression oriented towards the
+ * private class) on numeric features and a binary class, e.g. {@link HogwildLogisticRegression}. The
+ * subclasses set {@link #model} and {@link #classIndex} when they are built; the instances are scored by the
+ * model over their non-zero values. The classifiers expect the features and the class only (e.g. inside a
+ * FilteredClassifier, see
+ * {@link ConstantsAndUtils#createFilteredClassifier(weka.classifiers.Classifier, weka.core.Instances, String)}).
+ */
+public abstract class AbstractLinearClassifier extends AbstractClassifier {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The trained model (without feature names), null if there is none. */
+	protected LinearModel model;
+	/** The class index of the training data. */
+	protected int classIndex;
+
+	/**
+	 * Returns the trained model (without feature names). Its columns are the attributes of the training data
+	 * except the class, in order.
+	 *
+	 * @return
+	 */
+	public LinearModel getModel() {
+		return model;
+	}
+
+	@Override
+	public Capabilities getCapabilities() {
+		Capabilities result = super.getCapabilities();
+		result.disableAll();
+		result.enable(Capability.NUMERIC_ATTRIBUTES);
+		result.enable(Capability.MISSING_VALUES);
+		result.enable(Capability.BINARY_CLASS);
+		result.enable(Capability.MISSING_CLASS_VALUES);
+		return result;
+	}
+
+	/**
+	 * Returns w*x + bias for the given instance (only its non-zero values are visited).
+	 *
+	 * @param instance
+	 * @return
+	 */
+	public double margin(Instance instance) {
+		double[] weights = model.getWeights();
+		double sum = model.getBias();
+		for (int k = 0; k < instance.numValues(); k++) {
+			int index = instance.index(k);
+			if (index != classIndex) {
+				double value = instance.valueSparse(k);
+				if (!Double.isNaN(value)) {
+					sum += weights[index < classIndex ? index : index - 1] * value;
+				}
+			}
+		}
+		return sum;
+	}
+
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		return distribution(margin(instance), instance.numClasses());
+	}
+
+	/**
+	 * Returns the class distribution of a logistic regression model oriented towards the private class.
+	 *
+	 * @param margin
+	 *            w*x + bias
+	 * @param numClasses
+	 * @return
+	 */
+	static double[] distribution(double margin, int numClasses) {
+		double p = 1.0 / (1.0 + Math.exp(-margin));
+		double[] dist = new double[numClasses];
+		dist[ConstantsAndUtils.privacyIndex] = p;
+		dist[1 - ConstantsAndUtils.privacyIndex] = 1 - p;
+		return dist;
+	}
+}
@@ -0,0 +1,166 @@
+package modeling;
+
+import weka.core.AbstractInstance;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Utils;
+
+/**
+ * A dense instance whose values are read from data that it does not own (e.g. another instance or a row of a
+ * matrix). Copying the instance (e.g. when it is added to Instances) copies only the view. The values are
+ * copied only when the instance is modified (copy-on-write, as in {@link DenseInstance}), so the viewed data
+ * are never changed.
+ */
+public abstract class AbstractViewInstance extends AbstractInstance {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param weight
+	 *            The weight of the instance.
+	 */
+	protected AbstractViewInstance(double weight) {
+		m_Weight = weight;
+		m_Dataset = null;
+	}
+
+	/**
+	 * Returns the value of the given attribute in the viewed data.
+	 */
+	protected abstract double viewedValue(int attIndex);
+
+	/**
+	 * Returns the number of attributes of the viewed data.
+	 */
+	protected abstract int numViewedAttributes();
+
+	/**
+	 * Returns a new view of the same data.
+	 */
+	protected abstract AbstractViewInstance newView();
+
+	@Override
+	public Object copy() {
+		if (m_AttValues != null) {
+			// the values have been modified, the copy shares them until one of the two is modified
+			DenseInstance result = new DenseInstance(m_Weight, m_AttValues);
+			result.setDataset(m_Dataset);
+			return result;
+		}
+		AbstractViewInstance result = newView();
+		result.m_Weight = m_Weight;
+		result.m_Dataset = m_Dataset;
+		return result;
+	}
+
+	@Override
+	public int index(int position) {
+		return position;
+	}
+
+	@Override
+	public Instance mergeInstance(Instance inst) {
+		double[] newVals = new double[numAttributes() + inst.numAttributes()];
+		int m = 0;
+		for (int j = 0; j < numAttributes(); j++, m++) {
+			newVals[m] = value(j);
+		}
+		for (int j = 0; j < inst.numAttributes(); j++, m++) {
+			newVals[m] = inst.value(j);
+		}
+		return new DenseInstance(1.0, newVals);
+	}
+
+	@Override
+	public int numAttributes() {
+		return m_AttValues != null ? m_AttValues.length : numViewedAttributes();
+	}
+
+	@Override
+	public int numValues() {
+		return numAttributes();
+	}
+
+	@Override
+	public void replaceMissingValues(double[] array) {
+		if (array == null || array.length != numAttributes()) {
+			throw new IllegalArgumentException("Unequal number of attributes!");
+		}
+		freshAttributeVector();
+		for (int i = 0; i < m_AttValues.length; i++) {
+			if (isMissing(i)) {
+				m_AttValues[i] = array[i];
+			}
+		}
+	}
+
+	@Override
+	public void setValue(int attIndex, double value) {
+		freshAttributeVector();
+		m_AttValues[attIndex] = value;
+	}
+
+	@Override
+	public void setValueSparse(int indexOfIndex, double value) {
+		freshAttributeVector();
+		m_AttValues[indexOfIndex] = value;
+	}
+
+	@Override
+	public double[] toDoubleArray() {
+		double[] newValues = new double[numAttributes()];
+		for (int i = 0; i < newValues.length; i++) {
+			newValues[i] = value(i);
+		}
+		return newValues;
+	}
+
+	@Override
+	public String toStringNoWeight() {
+		return toStringNoWeight(AbstractInstance.s_numericAfterDecimalPoint);
+	}
+
+	@Override
+	public String toStringNoWeight(int afterDecimalPoint) {
+		StringBuffer text = new StringBuffer();
+		for (int i = 0; i < numAttributes(); i++) {
+			if (i > 0) {
+				text.append(",");
+			}
+			text.append(toString(i, afterDecimalPoint));
+		}
+		return text.toString();
+	}
+
+	@Override
+	public double value(int attIndex) {
+		return m_AttValues != null ? m_AttValues[attIndex] : viewedValue(attIndex);
+	}
+
+	@Override
+	public double valueSparse(int indexOfIndex) {
+		return value(indexOfIndex);
+	}
+
+	@Override
+	protected void forceDeleteAttributeAt(int position) {
+		double[] values = toDoubleArray();
+		m_AttValues = new double[values.length - 1];
+		System.arraycopy(values, 0, m_AttValues, 0, position);
+		System.arraycopy(values, position + 1, m_AttValues, position, values.length - position - 1);
+	}
+
+	@Override
+	protected void forceInsertAttributeAt(int position) {
+		double[] values = toDoubleArray();
+		m_AttValues = new double[values.length + 1];
+		System.arraycopy(values, 0, m_AttValues, 0, position);
+		m_AttValues[position] = Utils.missingValue();
+		System.arraycopy(values, position, m_AttValues, position + 1, values.length - position);
+	}
+
+	/** Replaces the values by a private copy before they are modified. */
+	private void freshAttributeVector() {
+		m_AttValues = toDoubleArray();
+	}
+}
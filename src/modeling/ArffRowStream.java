@@ -0,0 +1,97 @@
+package modeling;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ArffLoader;
+
+/**
+ * Reads the rows of an arff file one example at a time with Weka's incremental ArffLoader. The class is the
+ * last attribute. Only the current example is held in memory (string values are not retained).
+ */
+public class ArffRowStream implements RowStream {
+
+	private final File arff;
+	private final int[] featureIndices;
+	private InputStream in;
+	private ArffLoader loader;
+	private Instances structure;
+	private long hash;
+	private long fingerprint;
+
+	/**
+	 * @param arffPath
+	 * @param indicesToIgnore
+	 *            The attributes that are not features, e.g. {@link ConstantsAndUtils#indicesToIgnore}.
+	 * @throws IOException
+	 */
+	public ArffRowStream(String arffPath, String indicesToIgnore) throws IOException {
+		arff = new File(arffPath);
+		open();
+		featureIndices = ConstantsAndUtils.featureIndices(structure, indicesToIgnore);
+	}
+
+	private void open() throws IOException {
+		in = new FileInputStream(arff);
+		loader = new ArffLoader();
+		loader.setSource(in);
+		structure = loader.getStructure();
+		structure.setClassIndex(structure.numAttributes() - 1);
+		// the fingerprint is computed as in ConstantsAndUtils.fingerprint during the first pass
+		hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < structure.numAttributes(); i++) {
+			hash = ConstantsAndUtils.fnv1a(hash, structure.attribute(i).name());
+		}
+	}
+
+	public Instances header() {
+		return structure;
+	}
+
+	public int numFeatures() {
+		return featureIndices.length;
+	}
+
+	public int read(double[] x, double[] y, double[] weights, int maxRows) throws IOException {
+		int numRead = 0;
+		int numFeatures = featureIndices.length;
+		while (numRead < maxRows) {
+			Instance instance = loader.getNextInstance(structure);
+			if (instance == null) {
+				if (fingerprint == 0) {
+					fingerprint = hash;
+				}
+				break;
+			}
+			hash = ConstantsAndUtils.fnv1a(hash, instance.stringValue(ConstantsAndUtils.idAttrIndex));
+			if (instance.classIsMissing()) {
+				continue;
+			}
+			int offset = numRead * numFeatures;
+			for (int j = 0; j < numFeatures; j++) {
+				x[offset + j] = instance.value(featureIndices[j]);
+			}
+			y[numRead] = instance.classValue();
+			weights[numRead] = instance.weight();
+			numRead++;
+		}
+		return numRead;
+	}
+
+	public void rewind() throws IOException {
+		in.close();
+		open();
+	}
+
+	public long fingerprint() {
+		return fingerprint;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
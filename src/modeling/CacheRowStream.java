@@ -0,0 +1,204 @@
+package modeling;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import weka.core.Instances;
+import weka.core.converters.ArffLoader;
+
+/**
+ * Reads the rows of the binary cache of an arff (written by
+ * {@link DenseMatrixDataset#loadOffHeap(String, String, DenseMatrixDataset.Precision, ExperimentScope)})
+ * sequentially, through buffers of a fixed number of rows, instead of mapping the whole block of features.
+ * Quantized features are dequantized as they are read. Only the header of the arff is parsed.
+ */
+public class CacheRowStream implements RowStream {
+
+	private final Instances header;
+	private final int numFeatures;
+	private final int numRows;
+	private final int elementSize;
+	private final double[] columnMin;
+	private final double[] columnStep;
+	private final FileInputStream featuresIn;
+	private final FileInputStream rowsIn;
+	private final FileChannel features;
+	private final FileChannel rows;
+	/** The position of the first row in the rows file. */
+	private final long rowsStart;
+	private int rowIndex;
+	private ByteBuffer featureBuffer;
+	private ByteBuffer rowBuffer;
+
+	/**
+	 * @param arffPath
+	 *            The arff whose cache is read.
+	 * @param indicesToIgnore
+	 *            The attributes that are not features, e.g. {@link ConstantsAndUtils#indicesToIgnore}.
+	 * @param precision
+	 *            The precision of the cache.
+	 * @throws IOException
+	 *             If there is no valid cache of the arff.
+	 */
+	public CacheRowStream(String arffPath, String indicesToIgnore, DenseMatrixDataset.Precision precision)
+			throws IOException {
+		File arff = new File(arffPath);
+		ArffLoader loader = new ArffLoader();
+		FileInputStream arffIn = new FileInputStream(arff);
+		try {
+			loader.setSource(arffIn);
+			header = loader.getStructure();
+		} finally {
+			arffIn.close();
+		}
+		header.setClassIndex(header.numAttributes() - 1);
+		String cachePrefix = DenseMatrixDataset.cachePrefix(arffPath, precision);
+		File featuresFile = new File(cachePrefix + ".features");
+		File rowsFile = new File(cachePrefix + ".rows");
+		if (!new File(cachePrefix + ".meta").exists() || !featuresFile.exists() || !rowsFile.exists()) {
+			throw new IOException("No feature cache of " + arffPath + " in " + precision + " precision!");
+		}
+		rowsIn = new FileInputStream(rowsFile);
+		rows = rowsIn.getChannel();
+		// the header of the rows file (see DenseMatrixDataset.writeRows)
+		ByteBuffer buffer = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(rows, buffer, 0);
+		int version = buffer.getInt();
+		long arffLength = buffer.getLong();
+		long arffLastModified = buffer.getLong();
+		int ignoredLength = buffer.getInt();
+		if (version != DenseMatrixDataset.CACHE_VERSION || arffLength != arff.length()
+				|| arffLastModified != arff.lastModified()) {
+			rowsIn.close();
+			throw new IOException("The feature cache of " + arffPath + " is out of date!");
+		}
+		buffer = ByteBuffer.allocate(ignoredLength + 12).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(rows, buffer, 24);
+		byte[] ignored = new byte[ignoredLength];
+		buffer.get(ignored);
+		numRows = buffer.getInt();
+		numFeatures = buffer.getInt();
+		elementSize = buffer.getInt();
+		if (!new String(ignored, LinearModelFile.UTF8).equals(indicesToIgnore)
+				|| numFeatures != ConstantsAndUtils.featureIndices(header, indicesToIgnore).length) {
+			rowsIn.close();
+			throw new IOException("The feature cache of " + arffPath + " has other features!");
+		}
+		long rangesStart = 24 + ignoredLength + 12;
+		buffer = ByteBuffer.allocate(16 * numFeatures).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(rows, buffer, rangesStart);
+		columnMin = new double[numFeatures];
+		columnStep = new double[numFeatures];
+		for (int j = 0; j < numFeatures; j++) {
+			columnMin[j] = buffer.getDouble();
+		}
+		for (int j = 0; j < numFeatures; j++) {
+			columnStep[j] = buffer.getDouble();
+		}
+		rowsStart = rangesStart + 16L * numFeatures;
+		featuresIn = new FileInputStream(featuresFile);
+		features = featuresIn.getChannel();
+	}
+
+	public Instances header() {
+		return header;
+	}
+
+	public int numFeatures() {
+		return numFeatures;
+	}
+
+	/**
+	 * Returns the number of rows of the cache (including those with a missing class).
+	 *
+	 * @return
+	 */
+	public int numRows() {
+		return numRows;
+	}
+
+	public int read(double[] x, double[] y, double[] weights, int maxRows) throws IOException {
+		int numRead = 0;
+		// a block of rows with missing classes only is skipped
+		while (numRead == 0 && rowIndex < numRows) {
+			numRead = readBlock(x, y, weights, Math.min(maxRows, numRows - rowIndex));
+		}
+		return numRead;
+	}
+
+	private int readBlock(double[] x, double[] y, double[] weights, int numToRead) throws IOException {
+		int rowBytes = numFeatures * elementSize;
+		if (featureBuffer == null || featureBuffer.capacity() < numToRead * rowBytes) {
+			ExperimentScope.free(featureBuffer);
+			featureBuffer = ByteBuffer.allocateDirect(numToRead * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+			rowBuffer = ByteBuffer.allocate(numToRead * 16).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		featureBuffer.clear().limit(numToRead * rowBytes);
+		rowBuffer.clear().limit(numToRead * 16);
+		readFully(features, featureBuffer, (long) rowIndex * rowBytes);
+		readFully(rows, rowBuffer, rowsStart + 16L * rowIndex);
+		rowIndex += numToRead;
+
+		int numRead = 0;
+		for (int r = 0; r < numToRead; r++) {
+			double classValue = rowBuffer.getDouble();
+			double weight = rowBuffer.getDouble();
+			if (Double.isNaN(classValue)) { // skipped
+				featureBuffer.position(featureBuffer.position() + rowBytes);
+				continue;
+			}
+			int offset = numRead * numFeatures;
+			switch (elementSize) {
+			case 8:
+				for (int j = 0; j < numFeatures; j++) {
+					x[offset + j] = featureBuffer.getDouble();
+				}
+				break;
+			case 4:
+				for (int j = 0; j < numFeatures; j++) {
+					x[offset + j] = featureBuffer.getFloat();
+				}
+				break;
+			default:
+				for (int j = 0; j < numFeatures; j++) {
+					x[offset + j] = columnMin[j] + columnStep[j] * (featureBuffer.get() + 128);
+				}
+			}
+			y[numRead] = classValue;
+			weights[numRead] = weight;
+			numRead++;
+		}
+		return numRead;
+	}
+
+	public void rewind() {
+		rowIndex = 0;
+	}
+
+	public long fingerprint() {
+		return 0;
+	}
+
+	public void close() throws IOException {
+		ExperimentScope.free(featureBuffer);
+		featureBuffer = null;
+		featuresIn.close();
+		rowsIn.close();
+	}
+
+	/**
+	 * Fills the buffer (up to its limit) from the given position of the channel and flips it.
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of the feature cache!");
+			}
+		}
+		buffer.flip();
+	}
+}
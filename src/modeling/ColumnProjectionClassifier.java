@@ -0,0 +1,129 @@
+package modeling;
+
+import java.util.Arrays;
+
+import weka.classifiers.meta.FilteredClassifier;
+import weka.core.Attribute;
+import weka.core.BatchPredictor;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Range;
+import weka.core.SparseInstance;
+import weka.filters.unsupervised.attribute.Remove;
+
+/**
+ * A FilteredClassifier with a Remove filter that does not copy the data. Instead of pushing every training and
+ * test instance through the filter, the attributes that the filter keeps are exposed through
+ * {@link ProjectedInstance} views of the original (dense) instances, or as SparseInstances built from the
+ * non-zero values of the original sparse instances. The filter is still configured with the input
+ * format (so its output format gives the attributes seen by the base classifier, see
+ * {@link ModelExtraction#extractLinearModel(weka.classifiers.Classifier)}), and the base classifier sees the
+ * same attributes and values as with the filter. Other filters, and formats where string or relational
+ * attributes are kept, are handled as in FilteredClassifier.
+ */
+public class ColumnProjectionClassifier extends FilteredClassifier {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The attribute of the original format at each attribute of the filtered format (null if not projected). */
+	private int[] columns;
+	/** The attribute of the filtered format at each attribute of the original format (-1 if removed). */
+	private int[] positionOf;
+
+	@Override
+	protected Instances setUp(Instances data) throws Exception {
+		if (m_Classifier == null) {
+			throw new Exception("No base classifiers have been set!");
+		}
+		columns = null;
+		if (!(m_Filter instanceof Remove)) {
+			return super.setUp(data);
+		}
+		int[] selected = selectedColumns((Remove) m_Filter, data);
+		for (int column : selected) {
+			Attribute attribute = data.attribute(column);
+			if (attribute.isString() || attribute.type() == Attribute.RELATIONAL) {
+				return super.setUp(data);
+			}
+		}
+		getCapabilities().testWithFail(data);
+		m_Filter.setInputFormat(data);
+		columns = selected;
+		positionOf = new int[data.numAttributes()];
+		Arrays.fill(positionOf, -1);
+		for (int j = 0; j < columns.length; j++) {
+			positionOf[columns[j]] = j;
+		}
+		Instances projected = new Instances(m_Filter.getOutputFormat(), data.numInstances());
+		for (int i = 0; i < data.numInstances(); i++) {
+			// the examples with a missing class are deleted, as in FilteredClassifier
+			if (!data.instance(i).classIsMissing()) {
+				projected.add(project(data.instance(i)));
+			}
+		}
+		getClassifier().getCapabilities().testWithFail(projected);
+		m_FilteredInstances = projected.stringFreeStructure();
+		return projected;
+	}
+
+	@Override
+	protected Instance filterInstance(Instance instance) throws Exception {
+		if (columns == null) {
+			return super.filterInstance(instance);
+		}
+		Instance projected = project(instance);
+		projected.setDataset(m_FilteredInstances);
+		return projected;
+	}
+
+	@Override
+	public double[][] distributionsForInstances(Instances insts) throws Exception {
+		if (columns == null || !(getClassifier() instanceof BatchPredictor)) {
+			return super.distributionsForInstances(insts);
+		}
+		Instances projected = new Instances(m_FilteredInstances, insts.numInstances());
+		for (int i = 0; i < insts.numInstances(); i++) {
+			projected.add(project(insts.instance(i)));
+		}
+		return ((BatchPredictor) getClassifier()).distributionsForInstances(projected);
+	}
+
+	/**
+	 * Returns the kept attributes of the given instance: a {@link ProjectedInstance} view of a dense instance,
+	 * or a SparseInstance with the kept non-zero values of a sparse instance. The values of a sparse instance
+	 * are visited once, through its non-zero values, so the cost is that of its non-zero values rather than
+	 * that of the attributes (as in Remove, which also returns a SparseInstance), and Weka's classifiers keep
+	 * their sparse code paths.
+	 */
+	private Instance project(Instance instance) {
+		if (!(instance instanceof SparseInstance)) {
+			return new ProjectedInstance(instance, columns);
+		}
+		int numValues = instance.numValues();
+		double[] values = new double[numValues];
+		int[] indices = new int[numValues];
+		int count = 0;
+		for (int k = 0; k < numValues; k++) {
+			int position = positionOf[instance.index(k)];
+			if (position >= 0) {
+				// the kept attributes are in the order of the original format
+				values[count] = instance.valueSparse(k);
+				indices[count] = position;
+				count++;
+			}
+		}
+		return new SparseInstance(instance.weight(), Arrays.copyOf(values, count), Arrays.copyOf(indices, count),
+				columns.length);
+	}
+
+	/**
+	 * Returns the attributes that the given Remove filter keeps from the given format, in the order of its
+	 * output format.
+	 */
+	private static int[] selectedColumns(Remove remove, Instances format) {
+		Range range = new Range(remove.getAttributeIndices());
+		range.setInvert(!remove.getInvertSelection());
+		range.setUpper(format.numAttributes() - 1);
+		return range.getSelection();
+	}
+}
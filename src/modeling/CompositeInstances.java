@@ -0,0 +1,247 @@
+package modeling;
+
+import de.bwaldvogel.liblinear.Feature;
+import de.bwaldvogel.liblinear.FeatureNode;
+import de.bwaldvogel.liblinear.Problem;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A read-only training set made of a shared base data set (e.g. the generic examples) followed by a small
+ * overlay (e.g. the user-specific examples of a fold), where each overlay example is repeated as many times as
+ * its weight. The examples are kept in the sparse row format of LibLinear, the rows of the base are converted
+ * once and shared by all composites derived from it, and the LibLinear problem of a composite only references
+ * them. The problem is the same as the one Weka's LibLINEAR wrapper builds (inside a FilteredClassifier that
+ * removes the ignored attributes) from the concatenated Instances, so the same models are trained.
+ */
+public class CompositeInstances {
+
+	private final Instances base;
+	private final Instances overlay;
+	private final int overlayWeight;
+	/** Maps each attribute index to a column of the problem (-1 if not a feature). */
+	private final int[] columnOf;
+	private final int numFeatures;
+	private final double bias;
+	private final Feature[][] baseRows;
+	private final double[] baseLabels;
+	private final Feature[][] overlayRows;
+	private final double[] overlayLabels;
+
+	private CompositeInstances(Instances base, Instances overlay, int overlayWeight, int[] columnOf,
+			int numFeatures, double bias, Feature[][] baseRows, double[] baseLabels, Feature[][] overlayRows,
+			double[] overlayLabels) {
+		this.base = base;
+		this.overlay = overlay;
+		this.overlayWeight = overlayWeight;
+		this.columnOf = columnOf;
+		this.numFeatures = numFeatures;
+		this.bias = bias;
+		this.baseRows = baseRows;
+		this.baseLabels = baseLabels;
+		this.overlayRows = overlayRows;
+		this.overlayLabels = overlayLabels;
+	}
+
+	/**
+	 * Creates a composite with the given base and no overlay, converting the rows of the base.
+	 *
+	 * @param base
+	 *            The base examples (must not be modified afterwards).
+	 * @param indicesToIgnore
+	 *            The attributes that are not features, e.g. {@link ConstantsAndUtils#indicesToIgnore}.
+	 * @param bias
+	 *            The value of the bias feature (LibLINEAR's bias, must be non-negative).
+	 * @return
+	 * @throws Exception
+	 */
+	public static CompositeInstances of(Instances base, String indicesToIgnore, double bias) throws Exception {
+		if (bias < 0) {
+			throw new IllegalArgumentException("Only problems with a bias feature are supported!");
+		}
+		if (base.classIndex() != base.numAttributes() - 1) {
+			throw new Exception("The class must be the last attribute!");
+		}
+		int[] featureIndices = ConstantsAndUtils.featureIndices(base, indicesToIgnore);
+		int[] columnOf = new int[base.numAttributes()];
+		for (int i = 0; i < columnOf.length; i++) {
+			columnOf[i] = -1;
+		}
+		for (int j = 0; j < featureIndices.length; j++) {
+			if (!base.attribute(featureIndices[j]).isNumeric()) {
+				throw new Exception("Only numeric features are supported!");
+			}
+			columnOf[featureIndices[j]] = j;
+		}
+		CompositeInstances composite = new CompositeInstances(base, null, 0, columnOf, featureIndices.length,
+				bias, new Feature[base.numInstances()][], new double[base.numInstances()], new Feature[0][],
+				new double[0]);
+		composite.convert(base, composite.baseRows, composite.baseLabels);
+		return composite;
+	}
+
+	/**
+	 * Returns a composite with the same base (whose rows are shared) and the given overlay.
+	 *
+	 * @param overlay
+	 *            The overlay examples, in the format of the base.
+	 * @param weight
+	 *            The number of times each overlay example is repeated.
+	 * @return
+	 * @throws Exception
+	 */
+	public CompositeInstances withOverlay(Instances overlay, int weight) throws Exception {
+		if (overlay.numAttributes() != base.numAttributes() || overlay.classIndex() != base.classIndex()) {
+			throw new Exception("The overlay has a different format than the base!");
+		}
+		if (weight < 0) {
+			throw new IllegalArgumentException("The weight must be non-negative!");
+		}
+		CompositeInstances composite = new CompositeInstances(base, overlay, weight, columnOf, numFeatures,
+				bias, baseRows, baseLabels, new Feature[overlay.numInstances()][],
+				new double[overlay.numInstances()]);
+		convert(overlay, composite.overlayRows, composite.overlayLabels);
+		return composite;
+	}
+
+	public Instances base() {
+		return base;
+	}
+
+	public int numFeatures() {
+		return numFeatures;
+	}
+
+	public double bias() {
+		return bias;
+	}
+
+	public int numInstances() {
+		return baseRows.length + overlayWeight * overlayRows.length;
+	}
+
+	/**
+	 * Returns the i-th example: the examples of the base come first, followed by each overlay example
+	 * repeated weight times.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public Instance instance(int i) {
+		if (i < baseRows.length) {
+			return base.instance(i);
+		}
+		return overlay.instance((i - baseRows.length) / overlayWeight);
+	}
+
+	/**
+	 * Copies the examples into new Instances, in the order of {@link #instance(int)}. This is what the
+	 * training path did before composites were introduced and is only needed for classifiers that require
+	 * Instances.
+	 *
+	 * @return
+	 */
+	public Instances toInstances() {
+		Instances data = new Instances(base, numInstances());
+		for (int i = 0; i < numInstances(); i++) {
+			data.add(instance(i));
+		}
+		return data;
+	}
+
+	/**
+	 * Returns the LibLinear problem of the examples. Its rows reference the cached rows of the base and the
+	 * overlay; the overlay rows are referenced weight times.
+	 *
+	 * @return
+	 */
+	public Problem toProblem() {
+		Problem problem = new Problem();
+		problem.l = numInstances();
+		// the class attribute keeps a (never used) column before the bias, as in Weka's LibLINEAR wrapper
+		problem.n = numFeatures + 2;
+		problem.bias = bias;
+		problem.x = new Feature[problem.l][];
+		problem.y = new double[problem.l];
+		System.arraycopy(baseRows, 0, problem.x, 0, baseRows.length);
+		System.arraycopy(baseLabels, 0, problem.y, 0, baseLabels.length);
+		int row = baseRows.length;
+		for (int i = 0; i < overlayRows.length; i++) {
+			for (int k = 0; k < overlayWeight; k++) {
+				problem.x[row] = overlayRows[i];
+				problem.y[row] = overlayLabels[i];
+				row++;
+			}
+		}
+		return problem;
+	}
+
+	/**
+	 * Returns the LibLinear problem of the distinct examples: unlike {@link #toProblem()}, each overlay row is
+	 * referenced once and its weight is given by {@link #rowWeights()}.
+	 *
+	 * @return
+	 */
+	public Problem toWeightedProblem() {
+		Problem problem = new Problem();
+		problem.l = baseRows.length + overlayRows.length;
+		problem.n = numFeatures + 2;
+		problem.bias = bias;
+		problem.x = new Feature[problem.l][];
+		problem.y = new double[problem.l];
+		System.arraycopy(baseRows, 0, problem.x, 0, baseRows.length);
+		System.arraycopy(baseLabels, 0, problem.y, 0, baseLabels.length);
+		System.arraycopy(overlayRows, 0, problem.x, baseRows.length, overlayRows.length);
+		System.arraycopy(overlayLabels, 0, problem.y, baseRows.length, overlayLabels.length);
+		return problem;
+	}
+
+	/**
+	 * Returns the weight of each row of {@link #toWeightedProblem()}: 1 for the base rows and the overlay weight
+	 * for the overlay rows.
+	 *
+	 * @return
+	 */
+	public double[] rowWeights() {
+		double[] weights = new double[baseRows.length + overlayRows.length];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = i < baseRows.length ? 1 : overlayWeight;
+		}
+		return weights;
+	}
+
+	/**
+	 * Converts the given examples to LibLinear rows: the non-zero features (1-based column indices) followed
+	 * by the bias feature.
+	 */
+	private void convert(Instances data, Feature[][] rows, double[] labels) throws Exception {
+		int biasIndex = numFeatures + 2;
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance instance = data.instance(i);
+			if (instance.classIsMissing()) {
+				throw new Exception("Examples with a missing class are not supported!");
+			}
+			int count = 0;
+			for (int k = 0; k < instance.numValues(); k++) {
+				if (columnOf[instance.index(k)] >= 0 && instance.valueSparse(k) != 0) {
+					count++;
+				}
+			}
+			Feature[] row = new Feature[count + 1];
+			count = 0;
+			for (int k = 0; k < instance.numValues(); k++) {
+				int column = columnOf[instance.index(k)];
+				double value = instance.valueSparse(k);
+				if (column >= 0 && value != 0) {
+					if (Double.isNaN(value)) {
+						throw new Exception("Missing feature values are not supported!");
+					}
+					row[count++] = new FeatureNode(column + 1, value);
+				}
+			}
+			row[count] = new FeatureNode(biasIndex, bias);
+			rows[i] = row;
+			labels[i] = instance.classValue();
+		}
+	}
+}
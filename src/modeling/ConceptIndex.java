@@ -0,0 +1,78 @@
+package modeling;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * An inverted index from each concept to the models where it is among the top public concepts. Models are
+ * identified by their index; when models are added in increasing index order (as in {@link ModelExtraction})
+ * the posting lists are sorted. It allows finding the models where a top private concept of a model is public
+ * without comparing every pair of models.
+ */
+public class ConceptIndex {
+
+	/** A growable list of model indices. */
+	private static class Postings {
+		int[] models = new int[4];
+		int size;
+
+		void add(int model) {
+			if (size > 0 && models[size - 1] == model) {
+				return; // the concept is already recorded for this model
+			}
+			if (size == models.length) {
+				models = Arrays.copyOf(models, 2 * size);
+			}
+			models[size++] = model;
+		}
+	}
+
+	private static final int[] EMPTY = new int[0];
+
+	private final HashMap<String, Postings> publicModels = new HashMap<String, Postings>();
+
+	/**
+	 * Records that the given concept is among the top public concepts of the given model.
+	 *
+	 * @param concept
+	 * @param model
+	 */
+	public void addPublic(String concept, int model) {
+		add(publicModels, concept, model);
+	}
+
+	/**
+	 * Returns the models where the given concept is among the top public concepts.
+	 *
+	 * @param concept
+	 * @return
+	 */
+	public int[] publicModels(String concept) {
+		return get(publicModels, concept);
+	}
+
+	/**
+	 * Returns the number of models where the given concept is among the top public concepts.
+	 *
+	 * @param concept
+	 * @return
+	 */
+	public int publicSupport(String concept) {
+		Postings postings = publicModels.get(concept);
+		return postings == null ? 0 : postings.size;
+	}
+
+	private static void add(HashMap<String, Postings> index, String concept, int model) {
+		Postings postings = index.get(concept);
+		if (postings == null) {
+			postings = new Postings();
+			index.put(concept, postings);
+		}
+		postings.add(model);
+	}
+
+	private static int[] get(HashMap<String, Postings> index, String concept) {
+		Postings postings = index.get(concept);
+		return postings == null ? EMPTY : Arrays.copyOf(postings.models, postings.size);
+	}
+}
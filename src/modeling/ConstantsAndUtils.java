@@ -6,6 +6,7 @@ import weka.classifiers.meta.FilteredClassifier;
 import weka.classifiers.meta.GridSearch9734Mod;
 import weka.classifiers.trees.J48;
 import weka.core.Instances;
+import weka.core.Range;
 import weka.core.SelectedTag;
 import weka.filters.AllFilter;
 import weka.filters.unsupervised.attribute.Remove;
@@ -40,14 +41,28 @@ public class ConstantsAndUtils {
 			lib.setProbabilityEstimates(true);
 			lib.setCost(1);
 			return lib;
-		} else if (choice.equals("liblinear-tuned")) {
+		} else if (choice.equalsIgnoreCase("liblinear-l1")) {
+			// L1-regularized logistic regression, whose models have few non-zero weights
+			LibLINEAR lib = new LibLINEAR();
+			lib.setSVMType(new SelectedTag(6, LibLINEAR.TAGS_SVMTYPE));
+			lib.setProbabilityEstimates(true);
+			lib.setCost(1);
+			return lib;
+		} else if (choice.equalsIgnoreCase("liblinear-tuned") || choice.equalsIgnoreCase("liblinear-l1-tuned")) {
+			// L2- (type 0) or L1-regularized (type 6) logistic regression
+			int svmType = choice.equalsIgnoreCase("liblinear-l1-tuned") ? 6 : 0;
 			LibLINEAR liblinear = new LibLINEAR();
-			liblinear.setSVMType(new SelectedTag(0, LibLINEAR.TAGS_SVMTYPE));
+			liblinear.setSVMType(new SelectedTag(svmType, LibLINEAR.TAGS_SVMTYPE));
 			liblinear.setProbabilityEstimates(true);
 
 			GridSearch9734Mod grid = initializeGridSearch();
 			grid.setFilter(new AllFilter()); // this filter is equal to not using a filter
 			grid.setClassifier(liblinear);
+			if (LibLinearTrainer.usesRandom(liblinear)) {
+				// the L1 solver draws from the global random generator of LibLinear, the setups are evaluated
+				// one at a time so that the search is deterministic
+				grid.setNumExecutionSlots(1);
+			}
 
 			grid.setYProperty("classifier.cost");
 			grid.setYMin(-2);
@@ -64,6 +79,25 @@ public class ConstantsAndUtils {
 			grid.setXExpression("I");
 
 			return grid;
+		} else if (choice.toLowerCase().startsWith("liblinear-pls")) {
+			// 'liblinear' on the first k partial least squares components, e.g. "liblinear-pls20"
+			PLSProjectionClassifier pls = new PLSProjectionClassifier();
+			pls.setClassifier(selectClassifier("liblinear"));
+			pls.setNumComponents(Integer.parseInt(choice.substring("liblinear-pls".length())));
+			return pls;
+		} else if (choice.equalsIgnoreCase("hogwild")) {
+			// lock-free parallel SGD with the cost of 'liblinear', for very sparse features (e.g. semfeat, bow)
+			HogwildLogisticRegression hogwild = new HogwildLogisticRegression();
+			hogwild.setCost(1);
+			return hogwild;
+		} else if (choice.equalsIgnoreCase("distributed-admm") || choice.equalsIgnoreCase("distributed-average")) {
+			// data-parallel training in local worker JVMs with the settings of 'liblinear'
+			ParameterAveragingLogisticRegression distributed = new ParameterAveragingLogisticRegression();
+			distributed.setMode(choice.substring(choice.indexOf('-') + 1).toLowerCase());
+			distributed.setCost(1);
+			distributed.setEps(new LibLINEAR().getEps());
+			distributed.setBias(new LibLINEAR().getBias());
+			return distributed;
 		} else {
 			throw new Exception("Wrong selection");
 		}
@@ -71,7 +105,42 @@ public class ConstantsAndUtils {
 	}
 
 	/**
-	 * Returns a FilteredClassifier that ignores specific attributes.
+	 * Returns the {@link LinearSolver} backend with the given name and the settings of the given classifier
+	 * (e.g. one returned by {@link #selectClassifier(String)}):
+	 * <ul>
+	 * <li>"tron": {@link TronLogisticRegression} (L2-regularized logistic regression only, can warm-start)</li>
+	 * <li>"liblinear": {@link LibLinearSolver}, i.e. de.bwaldvogel.liblinear.Linear.train called directly</li>
+	 * <li>"weka": null, i.e. the models are trained by the classifier itself (through Weka's wrapper)</li>
+	 * </ul>
+	 * 
+	 * @param backend
+	 * @param classifierSettings
+	 * @return
+	 * @throws Exception
+	 *             If the classifier is not supported by the backend.
+	 */
+	public static LinearSolver selectSolver(String backend, Classifier classifierSettings) throws Exception {
+		if (backend.equalsIgnoreCase("weka")) {
+			return null;
+		} else if (backend.equalsIgnoreCase("tron")) {
+			if (!TronLogisticRegression.supports(classifierSettings)) {
+				throw new Exception("The 'tron' solver supports only L2-regularized logistic regression!");
+			}
+			return TronLogisticRegression.of((LibLINEAR) classifierSettings);
+		} else if (backend.equalsIgnoreCase("liblinear")) {
+			if (!LibLinearTrainer.supports(classifierSettings)) {
+				throw new Exception("The 'liblinear' solver supports only LibLINEAR classifiers!");
+			}
+			return new LibLinearSolver((LibLINEAR) classifierSettings);
+		} else {
+			throw new Exception("Wrong selection");
+		}
+	}
+
+	/**
+	 * Returns a FilteredClassifier that ignores specific attributes. The attributes are ignored with a Remove
+	 * filter whose instances are projected views of the original ones (see {@link ColumnProjectionClassifier}),
+	 * so the data are not copied when training or predicting.
 	 * 
 	 * @param baseClassifier
 	 * @param inputFormat
@@ -81,7 +150,7 @@ public class ConstantsAndUtils {
 	 */
 	public static FilteredClassifier createFilteredClassifier(Classifier baseClassifier,
 			Instances inputFormat, String indicesToIgnore) throws Exception {
-		FilteredClassifier filteredClassifier = new FilteredClassifier();
+		FilteredClassifier filteredClassifier = new ColumnProjectionClassifier();
 		filteredClassifier.setClassifier(baseClassifier);
 		Remove rem = new Remove();
 		rem.setAttributeIndices(indicesToIgnore);
@@ -90,6 +159,61 @@ public class ConstantsAndUtils {
 		return filteredClassifier;
 	}
 
+	/**
+	 * Returns the indices of the attributes that are used as features, i.e. all attributes except the ignored
+	 * ones and the class, in the order in which they appear in the output of the Remove filter.
+	 * 
+	 * @param header
+	 * @param indicesToIgnore
+	 * @return
+	 */
+	public static int[] featureIndices(Instances header, String indicesToIgnore) {
+		Range ignored = new Range(indicesToIgnore);
+		ignored.setUpper(header.numAttributes() - 1);
+		int numFeatures = 0;
+		for (int i = 0; i < header.numAttributes(); i++) {
+			if (!ignored.isInRange(i) && i != header.classIndex()) {
+				numFeatures++;
+			}
+		}
+		int[] indices = new int[numFeatures];
+		int index = 0;
+		for (int i = 0; i < header.numAttributes(); i++) {
+			if (!ignored.isInRange(i) && i != header.classIndex()) {
+				indices[index++] = i;
+			}
+		}
+		return indices;
+	}
+
+	/**
+	 * Computes a 64-bit (FNV-1a) fingerprint of a data set from the names of its attributes and the ids of its
+	 * examples. It is used to tie exported models to the data they were trained on.
+	 * 
+	 * @param data
+	 * @return
+	 */
+	public static long fingerprint(Instances data) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < data.numAttributes(); i++) {
+			hash = fnv1a(hash, data.attribute(i).name());
+		}
+		for (int i = 0; i < data.numInstances(); i++) {
+			hash = fnv1a(hash, data.instance(i).stringValue(idAttrIndex));
+		}
+		return hash;
+	}
+
+	static long fnv1a(long hash, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			hash ^= s.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= 0xff; // separator
+		hash *= 0x100000001b3L;
+		return hash;
+	}
+
 	/**
 	 * Initializes GridSearch with options that are common among all tunable classifiers. This is a modified
 	 * version of Weka's GridSearch that allows setting the number of cv folds and does not repeat the tuning
@@ -0,0 +1,76 @@
+package modeling;
+
+/**
+ * A personal model expressed as a generic model plus a sparse delta. Since the personal models of the hybrid
+ * approaches are mostly the generic model plus small adjustments, the delta can be pruned aggressively (see
+ * {@link SparseLinearModel#difference(LinearModel, LinearModel, double)}). When many personal models share the
+ * same generic model, the generic margin of an example can be computed once and only the sparse corrections
+ * have to be added per user.
+ */
+public class DeltaLinearModel {
+
+	private final LinearModel generic;
+	private final SparseLinearModel delta;
+
+	public DeltaLinearModel(LinearModel generic, SparseLinearModel delta) {
+		if (generic.getWeights().length != delta.numFeatures()) {
+			throw new IllegalArgumentException("Generic model and delta have different dimensionality!");
+		}
+		this.generic = generic;
+		this.delta = delta;
+	}
+
+	/**
+	 * Creates a delta model that approximates the given personal model.
+	 *
+	 * @param generic
+	 * @param personal
+	 * @param threshold
+	 *            Differences whose magnitude is not larger than this threshold are pruned.
+	 * @return
+	 */
+	public static DeltaLinearModel of(LinearModel generic, LinearModel personal, double threshold) {
+		SparseLinearModel delta = SparseLinearModel.difference(personal, generic, threshold);
+		delta.setFingerprint(personal.getFingerprint());
+		return new DeltaLinearModel(generic, delta);
+	}
+
+	public LinearModel getGeneric() {
+		return generic;
+	}
+
+	public SparseLinearModel getDelta() {
+		return delta;
+	}
+
+	/**
+	 * Returns the margin of the personal model given the (already computed) margin of the generic model.
+	 *
+	 * @param genericMargin
+	 * @param x
+	 * @return
+	 */
+	public double margin(double genericMargin, double[] x) {
+		return genericMargin + delta.margin(x);
+	}
+
+	public double margin(double[] x) {
+		return margin(generic.margin(x), x);
+	}
+
+	public double probability(double[] x) {
+		return 1.0 / (1.0 + Math.exp(-margin(x)));
+	}
+
+	/**
+	 * Returns the (dense) personal model represented by this delta model.
+	 *
+	 * @return
+	 */
+	public LinearModel toLinearModel() {
+		double[] weights = generic.getWeights().clone();
+		delta.addTo(weights);
+		return new LinearModel(generic.getFeatures(), weights, generic.getBias() + delta.bias(),
+				generic.getLabels(), delta.fingerprint());
+	}
+}
@@ -0,0 +1,897 @@
+package modeling;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ArffLoader;
+
+/**
+ * A data set whose features are stored in one contiguous row-major block of doubles, with the other
+ * attributes (e.g. id, user, source and the class) and the instance weights stored as parallel primitive
+ * columns. It is meant for dense feature types (e.g. 'cnn' and 'vlad'), where Weka stores every example as a
+ * separate instance with its own array. Examples are read from the arff file one at a time, so the data set is
+ * never loaded as Instances. Subsets (e.g. a train/test split) are arrays of row indices, and models can be
+ * trained directly on the block (see {@link TronLogisticRegression#train(DenseMatrixDataset, int[], double,
+ * LinearModel)}). Where Weka APIs need Instances, rows are exposed as {@link MatrixRowInstance} views (see
+ * {@link #toInstances(int[])}).
+ * <p>
+ * The features can be stored in reduced precision (see {@link Precision}), in which case they are dequantized
+ * on the fly when they are read, including inside the products of {@link #rows(int[], double)}.
+ * <p>
+ * The features can also be stored off the heap (see {@link OffHeapFeatureBlock}), with only the other columns
+ * on the heap. An arff loaded off the heap is cached in files next to it ('[arff].[precision].features' with
+ * the block of the features, '[arff].[precision].rows' with the label and weight of each row, read sequentially
+ * by {@link CacheRowStream}, and '[arff].[precision].meta' with the rest), which are reused (the block is
+ * memory mapped) as long as the arff is not modified. The off-heap memory belongs to an {@link ExperimentScope}
+ * and the data set cannot be used after the scope is closed.
+ */
+public class DenseMatrixDataset {
+
+	/** The precision in which the features are stored. */
+	public enum Precision {
+		/** 8 bytes per feature, the values of the arff. */
+		DOUBLE,
+		/** 4 bytes per feature, the values of the arff rounded to float. */
+		FLOAT,
+		/**
+		 * 1 byte per feature, each column quantized uniformly to 256 levels between its minimum and maximum
+		 * value.
+		 */
+		INT8
+	}
+
+	/** The version of the format of the cache files. */
+	static final int CACHE_VERSION = 2;
+	/** The largest length of an array that the JVMs allow. */
+	static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+	/** The format of the examples, string values of the examples are stored in its string attributes. */
+	private final Instances header;
+	/** Maps each attribute index to a feature column (-1 if not a feature). */
+	private final int[] columnOf;
+	/** Maps each attribute index to a column of other values (-1 if a feature). */
+	private final int[] otherColumnOf;
+	private final int numFeatures;
+	private final Precision precision;
+	private int numRows;
+	/** The features, row by row, when stored off the heap (null if stored in one of the arrays below). */
+	private final OffHeapFeatureBlock offHeap;
+	/**
+	 * The features, row by row (only one of the three blocks is used, depending on the precision). A block
+	 * holds at most {@link #MAX_ARRAY_LENGTH} values (see {@link #allocate(int)}), so the offset row *
+	 * numFeatures of any row of the block fits in an int.
+	 */
+	private double[] features;
+	private float[] floatFeatures;
+	private byte[] quantizedFeatures;
+	/** The value of a quantized feature q of column j is columnMin[j] + columnStep[j] * (q + 128). */
+	private double[] columnMin;
+	private double[] columnStep;
+	/** The values of the attributes that are not features (Weka's internal values), column by column. */
+	private double[][] otherValues;
+	private double[] weights;
+
+	private DenseMatrixDataset(Instances header, String indicesToIgnore, Precision precision,
+			OffHeapFeatureBlock offHeap, int capacity) throws Exception {
+		this.header = header;
+		this.precision = precision;
+		this.offHeap = offHeap;
+		int[] featureIndices = ConstantsAndUtils.featureIndices(header, indicesToIgnore);
+		numFeatures = featureIndices.length;
+		columnOf = new int[header.numAttributes()];
+		otherColumnOf = new int[header.numAttributes()];
+		Arrays.fill(columnOf, -1);
+		for (int j = 0; j < featureIndices.length; j++) {
+			if (!header.attribute(featureIndices[j]).isNumeric()) {
+				throw new Exception("Only numeric features are supported!");
+			}
+			columnOf[featureIndices[j]] = j;
+		}
+		int numOtherColumns = 0;
+		for (int i = 0; i < columnOf.length; i++) {
+			otherColumnOf[i] = columnOf[i] < 0 ? numOtherColumns++ : -1;
+		}
+		capacity = Math.max(capacity, 1);
+		if (offHeap == null || capacity > 1) { // a mapped block is already allocated
+			allocate(capacity);
+		}
+		otherValues = new double[numOtherColumns][capacity];
+		weights = new double[capacity];
+	}
+
+	/**
+	 * Loads an arff file one example at a time, in full precision. The class is the last attribute.
+	 *
+	 * @param arffPath
+	 * @param indicesToIgnore
+	 *            The attributes that are not features, e.g. {@link ConstantsAndUtils#indicesToIgnore}.
+	 * @return
+	 * @throws Exception
+	 */
+	public static DenseMatrixDataset load(String arffPath, String indicesToIgnore) throws Exception {
+		return load(arffPath, indicesToIgnore, Precision.DOUBLE);
+	}
+
+	/**
+	 * Loads an arff file one example at a time. The class is the last attribute. With {@link Precision#INT8}
+	 * the file is read twice, the first time to find the range of each column.
+	 *
+	 * @param arffPath
+	 * @param indicesToIgnore
+	 *            The attributes that are not features, e.g. {@link ConstantsAndUtils#indicesToIgnore}.
+	 * @param precision
+	 *            The precision in which the features are stored.
+	 * @return
+	 * @throws Exception
+	 */
+	public static DenseMatrixDataset load(String arffPath, String indicesToIgnore, Precision precision)
+			throws Exception {
+		return load(arffPath, indicesToIgnore, precision, null, null);
+	}
+
+	/**
+	 * Loads an arff file with the features stored off the heap, in the given experiment scope. The features are
+	 * mapped from the cache of the arff, which is (re)written when it does not exist or the arff has been
+	 * modified since it was written. If the cache cannot be written, the features are stored in direct buffers.
+	 *
+	 * @param arffPath
+	 * @param indicesToIgnore
+	 *            The attributes that are not features, e.g. {@link ConstantsAndUtils#indicesToIgnore}.
+	 * @param precision
+	 *            The precision in which the features are stored.
+	 * @param scope
+	 *            The scope that owns the off-heap memory of the features.
+	 * @return
+	 * @throws Exception
+	 */
+	public static DenseMatrixDataset loadOffHeap(String arffPath, String indicesToIgnore, Precision precision,
+			ExperimentScope scope) throws Exception {
+		File arff = new File(arffPath);
+		String cachePrefix = cachePrefix(arffPath, precision);
+		File featuresFile = new File(cachePrefix + ".features");
+		File rowsFile = new File(cachePrefix + ".rows");
+		File metaFile = new File(cachePrefix + ".meta");
+		DenseMatrixDataset cached = rowsFile.exists()
+				? readCache(arff, indicesToIgnore, precision, featuresFile, metaFile, scope) : null;
+		if (cached != null) {
+			return cached;
+		}
+		metaFile.delete(); // the cache is valid only once its meta file has been written
+		try {
+			DenseMatrixDataset data = load(arffPath, indicesToIgnore, precision, scope, featuresFile);
+			data.writeRows(arff, indicesToIgnore, rowsFile);
+			data.writeMeta(arff, indicesToIgnore, metaFile);
+			return data;
+		} catch (IOException e) {
+			System.err.println("Cannot write the feature cache " + featuresFile + ", using direct buffers: " + e);
+			metaFile.delete();
+			rowsFile.delete();
+			featuresFile.delete();
+			return load(arffPath, indicesToIgnore, precision, scope, null);
+		}
+	}
+
+	/**
+	 * Returns the common prefix of the names of the cache files of the given arff and precision.
+	 */
+	static String cachePrefix(String arffPath, Precision precision) {
+		return arffPath + "." + precision.name().toLowerCase();
+	}
+
+	/**
+	 * Loads an arff file with the features stored on the heap (scope is null), in direct buffers of the scope,
+	 * or in the given file (see {@link #loadOffHeap(String, String, Precision, ExperimentScope)}).
+	 */
+	private static DenseMatrixDataset load(String arffPath, String indicesToIgnore, Precision precision,
+			ExperimentScope scope, File featuresFile) throws Exception {
+		ArffLoader loader = new ArffLoader();
+		loader.setFile(new File(arffPath));
+		Instances structure = loader.getStructure();
+		structure.setClassIndex(structure.numAttributes() - 1);
+		Instances header = headerOf(structure);
+		OffHeapFeatureBlock block = null;
+		if (scope != null) {
+			int numFeatures = ConstantsAndUtils.featureIndices(header, indicesToIgnore).length;
+			block = featuresFile != null
+					? OffHeapFeatureBlock.create(scope, featuresFile, numFeatures, elementSize(precision))
+					: OffHeapFeatureBlock.allocate(scope, numFeatures, elementSize(precision));
+		}
+		DenseMatrixDataset data = new DenseMatrixDataset(header, indicesToIgnore, precision, block, 1024);
+		Instance instance;
+		if (precision == Precision.INT8) {
+			while ((instance = loader.getNextInstance(structure)) != null) {
+				data.updateRanges(instance);
+			}
+			data.finishRanges();
+			loader = new ArffLoader();
+			loader.setFile(new File(arffPath));
+			structure = loader.getStructure();
+		}
+		while ((instance = loader.getNextInstance(structure)) != null) {
+			data.add(instance);
+		}
+		data.trim();
+		return data;
+	}
+
+	/**
+	 * Copies the given examples, in full precision.
+	 *
+	 * @param instances
+	 * @param indicesToIgnore
+	 *            The attributes that are not features, e.g. {@link ConstantsAndUtils#indicesToIgnore}.
+	 * @return
+	 * @throws Exception
+	 */
+	public static DenseMatrixDataset of(Instances instances, String indicesToIgnore) throws Exception {
+		return of(instances, indicesToIgnore, Precision.DOUBLE);
+	}
+
+	/**
+	 * Copies the given examples.
+	 *
+	 * @param instances
+	 * @param indicesToIgnore
+	 *            The attributes that are not features, e.g. {@link ConstantsAndUtils#indicesToIgnore}.
+	 * @param precision
+	 *            The precision in which the features are stored.
+	 * @return
+	 * @throws Exception
+	 */
+	public static DenseMatrixDataset of(Instances instances, String indicesToIgnore, Precision precision)
+			throws Exception {
+		DenseMatrixDataset data = new DenseMatrixDataset(headerOf(instances), indicesToIgnore, precision, null,
+				instances.numInstances());
+		if (precision == Precision.INT8) {
+			for (int i = 0; i < instances.numInstances(); i++) {
+				data.updateRanges(instances.instance(i));
+			}
+			data.finishRanges();
+		}
+		for (int i = 0; i < instances.numInstances(); i++) {
+			data.add(instances.instance(i));
+		}
+		return data;
+	}
+
+	/**
+	 * Returns an empty copy of the given format whose string attributes do not share their values with it.
+	 */
+	private static Instances headerOf(Instances format) {
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>(format.numAttributes());
+		for (int i = 0; i < format.numAttributes(); i++) {
+			Attribute attribute = format.attribute(i);
+			if (attribute.isString()) {
+				attributes.add(new Attribute(attribute.name(), (ArrayList<String>) null));
+			} else {
+				attributes.add((Attribute) attribute.copy());
+			}
+		}
+		Instances header = new Instances(format.relationName(), attributes, 0);
+		header.setClassIndex(format.classIndex());
+		return header;
+	}
+
+	/**
+	 * Returns the data set of a valid cache of the given arff (null if there is none).
+	 */
+	private static DenseMatrixDataset readCache(File arff, String indicesToIgnore, Precision precision,
+			File featuresFile, File metaFile, ExperimentScope scope) throws Exception {
+		if (!metaFile.exists() || !featuresFile.exists()) {
+			return null;
+		}
+		ObjectInputStream in = new ObjectInputStream(new FileInputStream(metaFile));
+		try {
+			if (in.readInt() != CACHE_VERSION || in.readLong() != arff.length()
+					|| in.readLong() != arff.lastModified() || !in.readUTF().equals(indicesToIgnore)) {
+				return null;
+			}
+			Instances header = (Instances) in.readObject();
+			int numRows = in.readInt();
+			int numFeatures = ConstantsAndUtils.featureIndices(header, indicesToIgnore).length;
+			OffHeapFeatureBlock block = OffHeapFeatureBlock.map(scope, featuresFile, numRows, numFeatures,
+					elementSize(precision));
+			DenseMatrixDataset data = new DenseMatrixDataset(header, indicesToIgnore, precision, block, 0);
+			data.numRows = numRows;
+			data.otherValues = (double[][]) in.readObject();
+			data.weights = (double[]) in.readObject();
+			data.columnMin = (double[]) in.readObject();
+			data.columnStep = (double[]) in.readObject();
+			return data;
+		} catch (IOException e) {
+			System.err.println("Ignoring the unreadable feature cache " + metaFile + ": " + e);
+			return null;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes everything but the features (which are in the features file of the block) to the meta file of the
+	 * cache.
+	 */
+	private void writeMeta(File arff, String indicesToIgnore, File metaFile) throws IOException {
+		ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(metaFile));
+		try {
+			out.writeInt(CACHE_VERSION);
+			out.writeLong(arff.length());
+			out.writeLong(arff.lastModified());
+			out.writeUTF(indicesToIgnore);
+			out.writeObject(header);
+			out.writeInt(numRows);
+			out.writeObject(otherValues);
+			out.writeObject(weights);
+			out.writeObject(columnMin);
+			out.writeObject(columnStep);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the rows file of the cache (little-endian): the version, the length and modification time of the
+	 * arff, the ignored attributes (length-prefixed UTF-8), the number of rows, features and bytes per
+	 * feature, the minimum and step of each column (zeros unless quantized), then the class value and the
+	 * weight of each row.
+	 */
+	private void writeRows(File arff, String indicesToIgnore, File rowsFile) throws IOException {
+		FileOutputStream out = new FileOutputStream(rowsFile);
+		try {
+			FileChannel channel = out.getChannel();
+			byte[] ignored = indicesToIgnore.getBytes(LinearModelFile.UTF8);
+			ByteBuffer buffer = ByteBuffer.allocate(Math.max(1 << 16, 40 + ignored.length + 16 * numFeatures))
+					.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(CACHE_VERSION);
+			buffer.putLong(arff.length());
+			buffer.putLong(arff.lastModified());
+			buffer.putInt(ignored.length);
+			buffer.put(ignored);
+			buffer.putInt(numRows);
+			buffer.putInt(numFeatures);
+			buffer.putInt(elementSize(precision));
+			for (int j = 0; j < numFeatures; j++) {
+				buffer.putDouble(columnMin != null ? columnMin[j] : 0);
+			}
+			for (int j = 0; j < numFeatures; j++) {
+				buffer.putDouble(columnStep != null ? columnStep[j] : 0);
+			}
+			for (int r = 0; r < numRows; r++) {
+				if (buffer.remaining() < 16) {
+					writeFully(channel, buffer);
+				}
+				buffer.putDouble(label(r));
+				buffer.putDouble(weights[r]);
+			}
+			writeFully(channel, buffer);
+			channel.force(true);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/** Returns the number of bytes of a feature stored in the given precision. */
+	static int elementSize(Precision precision) {
+		switch (precision) {
+		case FLOAT:
+			return 4;
+		case INT8:
+			return 1;
+		default:
+			return 8;
+		}
+	}
+
+	/**
+	 * Returns the largest number of rows that the block of the features can hold: an array holds at most
+	 * {@link #MAX_ARRAY_LENGTH} values, the off-heap block is split in chunks.
+	 */
+	private int maxRows() {
+		return offHeap != null ? Integer.MAX_VALUE : MAX_ARRAY_LENGTH / Math.max(1, numFeatures);
+	}
+
+	/** Allocates (or resizes) the block of the features for the given number of rows. */
+	private void allocate(int capacity) throws IOException {
+		if (offHeap != null) {
+			offHeap.ensureCapacity(capacity);
+			return;
+		}
+		long longLength = (long) capacity * numFeatures;
+		if (longLength > MAX_ARRAY_LENGTH) {
+			throw new IllegalStateException(capacity + " rows of " + numFeatures + " features (" + longLength
+					+ " values) do not fit in an array, the data set has to be loaded off the heap!");
+		}
+		int length = (int) longLength;
+		switch (precision) {
+		case FLOAT:
+			floatFeatures = floatFeatures == null ? new float[length] : Arrays.copyOf(floatFeatures, length);
+			break;
+		case INT8:
+			quantizedFeatures = quantizedFeatures == null ? new byte[length]
+					: Arrays.copyOf(quantizedFeatures, length);
+			break;
+		default:
+			features = features == null ? new double[length] : Arrays.copyOf(features, length);
+		}
+	}
+
+	/** Extends the range of each feature column with the values of the given example (first pass of INT8). */
+	private void updateRanges(Instance instance) {
+		if (columnMin == null) {
+			columnMin = new double[numFeatures];
+			columnStep = new double[numFeatures]; // holds the maxima until finishRanges
+			Arrays.fill(columnMin, Double.POSITIVE_INFINITY);
+			Arrays.fill(columnStep, Double.NEGATIVE_INFINITY);
+		}
+		for (int i = 0; i < columnOf.length; i++) {
+			if (columnOf[i] >= 0) {
+				double value = instance.value(i);
+				columnMin[columnOf[i]] = Math.min(columnMin[columnOf[i]], value);
+				columnStep[columnOf[i]] = Math.max(columnStep[columnOf[i]], value);
+			}
+		}
+	}
+
+	/** Turns the ranges of the columns into quantization steps. */
+	private void finishRanges() {
+		if (columnMin == null) { // no examples
+			columnMin = new double[numFeatures];
+			columnStep = new double[numFeatures];
+			return;
+		}
+		for (int j = 0; j < numFeatures; j++) {
+			columnStep[j] = (columnStep[j] - columnMin[j]) / 255;
+		}
+	}
+
+	private void setFeature(int row, int column, double value) {
+		if (precision == Precision.INT8) {
+			double level = columnStep[column] > 0 ? Math.rint((value - columnMin[column]) / columnStep[column]) : 0;
+			value = (byte) (Math.max(0, Math.min(255, level)) - 128);
+		}
+		if (offHeap != null) {
+			offHeap.put(row, column, value);
+			return;
+		}
+		int index = row * numFeatures + column;
+		switch (precision) {
+		case FLOAT:
+			floatFeatures[index] = (float) value;
+			break;
+		case INT8:
+			quantizedFeatures[index] = (byte) value;
+			break;
+		default:
+			features[index] = value;
+		}
+	}
+
+	private void add(Instance instance) throws Exception {
+		if (numRows == weights.length) {
+			// the capacity doubles, up to the number of rows that fit in the block
+			int capacity = (int) Math.min(2L * numRows, maxRows());
+			if (capacity <= numRows) {
+				throw new Exception("More than " + numRows + " rows of " + numFeatures
+						+ " features do not fit in an array, the data set has to be loaded off the heap!");
+			}
+			allocate(capacity);
+			for (int c = 0; c < otherValues.length; c++) {
+				otherValues[c] = Arrays.copyOf(otherValues[c], capacity);
+			}
+			weights = Arrays.copyOf(weights, capacity);
+		}
+		for (int i = 0; i < columnOf.length; i++) {
+			if (columnOf[i] >= 0) {
+				double value = instance.value(i);
+				if (Double.isNaN(value)) {
+					throw new Exception("Missing feature values are not supported!");
+				}
+				setFeature(numRows, columnOf[i], value);
+			} else if (header.attribute(i).isString() && !instance.isMissing(i)) {
+				// the string values are kept in the header of the data set
+				int index = header.attribute(i).addStringValue(instance.stringValue(i));
+				otherValues[otherColumnOf[i]][numRows] = index;
+			} else {
+				otherValues[otherColumnOf[i]][numRows] = instance.value(i);
+			}
+		}
+		weights[numRows] = instance.weight();
+		numRows++;
+	}
+
+	private void trim() throws IOException {
+		if (offHeap != null) {
+			offHeap.trim(numRows);
+		} else {
+			allocate(numRows);
+		}
+		for (int c = 0; c < otherValues.length; c++) {
+			otherValues[c] = Arrays.copyOf(otherValues[c], numRows);
+		}
+		weights = Arrays.copyOf(weights, numRows);
+	}
+
+	/**
+	 * Returns the format of the examples (without examples).
+	 *
+	 * @return
+	 */
+	public Instances header() {
+		return header;
+	}
+
+	public int numRows() {
+		return numRows;
+	}
+
+	public int numFeatures() {
+		return numFeatures;
+	}
+
+	public Precision precision() {
+		return precision;
+	}
+
+	/**
+	 * Returns true if the features are stored off the heap.
+	 *
+	 * @return
+	 */
+	public boolean isOffHeap() {
+		return offHeap != null;
+	}
+
+	/**
+	 * Returns the size in bytes of the block of the features.
+	 *
+	 * @return
+	 */
+	public long featureBytes() {
+		if (offHeap != null) {
+			return offHeap.bytes() + (precision == Precision.INT8 ? 16L * numFeatures : 0);
+		}
+		switch (precision) {
+		case FLOAT:
+			return 4L * floatFeatures.length;
+		case INT8:
+			return quantizedFeatures.length + 16L * numFeatures;
+		default:
+			return 8L * features.length;
+		}
+	}
+
+	/**
+	 * Returns the value of the given attribute (of the arff format) of the given row, as Weka's internal value.
+	 *
+	 * @param row
+	 * @param attIndex
+	 * @return
+	 */
+	public double value(int row, int attIndex) {
+		int column = columnOf[attIndex];
+		return column >= 0 ? feature(row, column) : otherValues[otherColumnOf[attIndex]][row];
+	}
+
+	/**
+	 * Returns the value of the given feature column of the given row.
+	 *
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public double feature(int row, int column) {
+		if (offHeap != null) {
+			double stored = offHeap.get(row, column);
+			return precision == Precision.INT8 ? columnMin[column] + columnStep[column] * (stored + 128) : stored;
+		}
+		int index = row * numFeatures + column;
+		switch (precision) {
+		case FLOAT:
+			return floatFeatures[index];
+		case INT8:
+			return columnMin[column] + columnStep[column] * (quantizedFeatures[index] + 128);
+		default:
+			return features[index];
+		}
+	}
+
+	/**
+	 * Returns the class value of the given row (NaN if missing).
+	 *
+	 * @param row
+	 * @return
+	 */
+	public double label(int row) {
+		return value(row, header.classIndex());
+	}
+
+	public double weight(int row) {
+		return weights[row];
+	}
+
+	/**
+	 * Returns the rows of the given value of a nominal attribute (e.g. the rows of a user). As with Weka's
+	 * RemoveWithValues, rows where the attribute is missing are included.
+	 *
+	 * @param attIndex
+	 * @param value
+	 * @return
+	 */
+	public int[] rowsWithValue(int attIndex, int value) {
+		int count = 0;
+		for (int r = 0; r < numRows; r++) {
+			double v = value(r, attIndex);
+			if (Double.isNaN(v) || (int) v == value) {
+				count++;
+			}
+		}
+		int[] rows = new int[count];
+		count = 0;
+		for (int r = 0; r < numRows; r++) {
+			double v = value(r, attIndex);
+			if (Double.isNaN(v) || (int) v == value) {
+				rows[count++] = r;
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns all rows in their order.
+	 *
+	 * @return
+	 */
+	public int[] allRows() {
+		int[] rows = new int[numRows];
+		for (int r = 0; r < numRows; r++) {
+			rows[r] = r;
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns the rows shuffled in the same order as {@link Instances#randomize(Random)} would shuffle the
+	 * examples.
+	 *
+	 * @param random
+	 * @return
+	 */
+	public int[] permutation(Random random) {
+		int[] rows = allRows();
+		for (int j = numRows - 1; j > 0; j--) {
+			int k = random.nextInt(j + 1);
+			int tmp = rows[j];
+			rows[j] = rows[k];
+			rows[k] = tmp;
+		}
+		return rows;
+	}
+
+	/**
+	 * Exposes the given rows as Instances (in the given order) made of {@link MatrixRowInstance} views, for the
+	 * Weka APIs that need Instances. The values are not copied.
+	 *
+	 * @param rows
+	 * @return
+	 */
+	public Instances toInstances(int[] rows) {
+		Instances instances = new Instances(header, rows.length);
+		for (int r : rows) {
+			instances.add(new MatrixRowInstance(this, r));
+		}
+		return instances;
+	}
+
+	/**
+	 * Returns the given rows as seen by {@link TronLogisticRegression}: the feature columns, the (unused) column
+	 * of the class attribute and a bias column with the given value. The products read the features in their
+	 * stored precision.
+	 */
+	TronLogisticRegression.Rows rows(final int[] rows, final double bias) {
+		if (offHeap != null) {
+			return offHeapRows(rows, bias);
+		}
+		switch (precision) {
+		case FLOAT:
+			return floatRows(rows, bias);
+		case INT8:
+			return quantizedRows(rows, bias);
+		default:
+			return doubleRows(rows, bias);
+		}
+	}
+
+	private TronLogisticRegression.Rows doubleRows(final int[] rows, final double bias) {
+		final int n = numFeatures + 2;
+		return new TronLogisticRegression.Rows() {
+
+			public int numRows() {
+				return rows.length;
+			}
+
+			public void Xv(double[] v, double[] Xv) {
+				for (int i = 0; i < rows.length; i++) {
+					int offset = rows[i] * numFeatures;
+					double sum = 0;
+					for (int j = 0; j < numFeatures; j++) {
+						sum += v[j] * features[offset + j];
+					}
+					Xv[i] = sum + v[n - 1] * bias;
+				}
+			}
+
+			public void XTv(double[] v, double[] XTv) {
+				Arrays.fill(XTv, 0);
+				for (int i = 0; i < rows.length; i++) {
+					int offset = rows[i] * numFeatures;
+					double vi = v[i];
+					for (int j = 0; j < numFeatures; j++) {
+						XTv[j] += vi * features[offset + j];
+					}
+					XTv[n - 1] += vi * bias;
+				}
+			}
+		};
+	}
+
+	private TronLogisticRegression.Rows floatRows(final int[] rows, final double bias) {
+		final int n = numFeatures + 2;
+		return new TronLogisticRegression.Rows() {
+
+			public int numRows() {
+				return rows.length;
+			}
+
+			public void Xv(double[] v, double[] Xv) {
+				for (int i = 0; i < rows.length; i++) {
+					int offset = rows[i] * numFeatures;
+					double sum = 0;
+					for (int j = 0; j < numFeatures; j++) {
+						sum += v[j] * floatFeatures[offset + j];
+					}
+					Xv[i] = sum + v[n - 1] * bias;
+				}
+			}
+
+			public void XTv(double[] v, double[] XTv) {
+				Arrays.fill(XTv, 0);
+				for (int i = 0; i < rows.length; i++) {
+					int offset = rows[i] * numFeatures;
+					double vi = v[i];
+					for (int j = 0; j < numFeatures; j++) {
+						XTv[j] += vi * floatFeatures[offset + j];
+					}
+					XTv[n - 1] += vi * bias;
+				}
+			}
+		};
+	}
+
+	/**
+	 * The products over the quantized features. With x = min + step * (q + 128), the dequantization is moved
+	 * out of the inner loops: v.x = sum_j (v_j * step_j) q_j + sum_j v_j (min_j + 128 step_j), and
+	 * X^T v = step * (Q^T v) + (min + 128 step) * sum_i v_i.
+	 */
+	private TronLogisticRegression.Rows quantizedRows(final int[] rows, final double bias) {
+		final int n = numFeatures + 2;
+		final double[] zeroLevel = zeroLevels();
+		return new TronLogisticRegression.Rows() {
+
+			private final double[] scaled = new double[numFeatures];
+
+			public int numRows() {
+				return rows.length;
+			}
+
+			public void Xv(double[] v, double[] Xv) {
+				double constant = v[n - 1] * bias;
+				for (int j = 0; j < numFeatures; j++) {
+					scaled[j] = v[j] * columnStep[j];
+					constant += v[j] * zeroLevel[j];
+				}
+				for (int i = 0; i < rows.length; i++) {
+					int offset = rows[i] * numFeatures;
+					double sum = 0;
+					for (int j = 0; j < numFeatures; j++) {
+						sum += scaled[j] * quantizedFeatures[offset + j];
+					}
+					Xv[i] = sum + constant;
+				}
+			}
+
+			public void XTv(double[] v, double[] XTv) {
+				Arrays.fill(XTv, 0);
+				double sumV = 0;
+				for (int i = 0; i < rows.length; i++) {
+					int offset = rows[i] * numFeatures;
+					double vi = v[i];
+					for (int j = 0; j < numFeatures; j++) {
+						XTv[j] += vi * quantizedFeatures[offset + j];
+					}
+					sumV += vi;
+				}
+				for (int j = 0; j < numFeatures; j++) {
+					XTv[j] = columnStep[j] * XTv[j] + zeroLevel[j] * sumV;
+				}
+				XTv[n - 1] = sumV * bias;
+			}
+		};
+	}
+
+	/**
+	 * The products over the features stored off the heap, as in {@link #quantizedRows(int[], double)} for the
+	 * quantized features.
+	 */
+	private TronLogisticRegression.Rows offHeapRows(final int[] rows, final double bias) {
+		final int n = numFeatures + 2;
+		final boolean quantized = precision == Precision.INT8;
+		final double[] zeroLevel = quantized ? zeroLevels() : null;
+		return new TronLogisticRegression.Rows() {
+
+			private final double[] scaled = quantized ? new double[numFeatures] : null;
+
+			public int numRows() {
+				return rows.length;
+			}
+
+			public void Xv(double[] v, double[] Xv) {
+				double constant = v[n - 1] * bias;
+				double[] w = v;
+				if (quantized) {
+					for (int j = 0; j < numFeatures; j++) {
+						scaled[j] = v[j] * columnStep[j];
+						constant += v[j] * zeroLevel[j];
+					}
+					w = scaled;
+				}
+				for (int i = 0; i < rows.length; i++) {
+					Xv[i] = offHeap.dot(rows[i], w) + constant;
+				}
+			}
+
+			public void XTv(double[] v, double[] XTv) {
+				Arrays.fill(XTv, 0);
+				double sumV = 0;
+				for (int i = 0; i < rows.length; i++) {
+					offHeap.addTo(rows[i], v[i], XTv);
+					sumV += v[i];
+				}
+				if (quantized) {
+					for (int j = 0; j < numFeatures; j++) {
+						XTv[j] = columnStep[j] * XTv[j] + zeroLevel[j] * sumV;
+					}
+				}
+				XTv[n - 1] = sumV * bias;
+			}
+		};
+	}
+
+	/** Returns the value of the quantized level 0 of each column (min + 128 step). */
+	private double[] zeroLevels() {
+		double[] zeroLevel = new double[numFeatures];
+		for (int j = 0; j < numFeatures; j++) {
+			zeroLevel[j] = columnMin[j] + 128 * columnStep[j];
+		}
+		return zeroLevel;
+	}
+}
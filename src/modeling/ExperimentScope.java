@@ -0,0 +1,94 @@
+package modeling;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Owns the off-heap resources of an experiment (e.g. the {@link OffHeapFeatureBlock}s of the data sets) and
+ * releases them deterministically when it is closed, instead of leaving direct and mapped buffers to the
+ * garbage collector. The resources are closed in the reverse order of their registration. Nothing that was
+ * allocated in a scope may be used after the scope is closed: the resources never hand out their buffers, and
+ * an access to a closed resource throws an IllegalStateException instead of reading freed memory.
+ */
+public class ExperimentScope implements Closeable {
+
+	private final ArrayList<Closeable> resources = new ArrayList<Closeable>();
+	private boolean open = true;
+
+	/**
+	 * Registers a resource to be closed with this scope.
+	 *
+	 * @param resource
+	 * @return The given resource.
+	 */
+	public synchronized <T extends Closeable> T register(T resource) {
+		if (!open) {
+			throw new IllegalStateException("The experiment scope has been closed!");
+		}
+		resources.add(resource);
+		return resource;
+	}
+
+	public synchronized boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Closes all registered resources, in the reverse order of their registration.
+	 */
+	public synchronized void close() throws IOException {
+		if (!open) {
+			return;
+		}
+		open = false;
+		IOException failure = null;
+		for (int i = resources.size() - 1; i >= 0; i--) {
+			try {
+				resources.get(i).close();
+			} catch (IOException e) {
+				failure = failure == null ? e : failure;
+			}
+		}
+		resources.clear();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Releases the memory (or the mapping) of a direct or mapped buffer immediately. The buffer must not be
+	 * used afterwards. If the JVM does not allow it, the memory is left to the garbage collector.
+	 *
+	 * @param buffer
+	 */
+	public static void free(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect()) {
+			return;
+		}
+		try {
+			// Java 9+: sun.misc.Unsafe.invokeCleaner
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		} catch (Exception e) {
+			// not available, try the cleaner of Java 7/8
+		}
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			// left to the garbage collector
+		}
+	}
+}
@@ -43,11 +43,14 @@ public class ExperimentsRunner {
 
 		int[] numTrainingExamples = { 50, 100, 500, 1000, 5000, -1 };
 
+		// all training set sizes are evaluated in one run per feature type, on the same train/test split
+		String numTrainingExamplesList = "";
 		for (int i = 0; i < numTrainingExamples.length; i++) {
-			for (String featureType : featureTypes) {
-				GenericModelEval.main(new String[] { datasetFolder, featureType, classifier,
-						String.valueOf(numTrainingExamples[i]) });
-			}
+			numTrainingExamplesList += (i > 0 ? "," : "") + numTrainingExamples[i];
+		}
+		for (String featureType : featureTypes) {
+			GenericModelEval.main(
+					new String[] { datasetFolder, featureType, classifier, numTrainingExamplesList });
 		}
 	}
 
@@ -68,6 +71,11 @@ public class ExperimentsRunner {
 
 		int[] numUserSpecificExamples = { 5, 10, 15, 20, 25, 30, 35 };
 		int[] hybridWeights = { 1, 10, 100, 1000 };
+		// the models of all weights are trained on the same folds in one run (see HybridWeightPath)
+		String hybridWeightsList = "";
+		for (int k = 0; k < hybridWeights.length; k++) {
+			hybridWeightsList += (k > 0 ? "," : "") + hybridWeights[k];
+		}
 
 		String[] methods = { "generic", "other", "user", "hybrid-g", "hybrid-o" };
 
@@ -82,12 +90,10 @@ public class ExperimentsRunner {
 							GenericAndPersonalModelEval.main(new String[] { datasetFolder, featureType,
 									classifier, method + " " + String.valueOf(numUserSpecificExamples[j]) });
 						} else {
-							// repeat multiple times with different weights
-							for (int k = 0; k < hybridWeights.length; k++) {
-								GenericAndPersonalModelEval.main(new String[] { datasetFolder, featureType,
-										classifier, method + " " + hybridWeights[k] + " "
-												+ String.valueOf(numUserSpecificExamples[j]) });
-							}
+							// evaluate all weights
+							GenericAndPersonalModelEval.main(new String[] { datasetFolder, featureType, classifier,
+									method + " " + hybridWeightsList + " "
+											+ String.valueOf(numUserSpecificExamples[j]) });
 						}
 					}
 				} else if (method.equals("other") || method.startsWith("generic")) {
@@ -4,13 +4,16 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.Random;
 
+import de.bwaldvogel.liblinear.Linear;
+
+import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
 import weka.classifiers.evaluation.Prediction;
 import weka.classifiers.evaluation.ThresholdCurve;
+import weka.classifiers.functions.LibLINEAR;
 import weka.classifiers.meta.FilteredClassifier;
 import weka.core.Instance;
 import weka.core.Instances;
@@ -34,6 +37,43 @@ public class GenericAndPersonalModelEval {
 	 * The maximum number of generic examples that will be used for training.
 	 */
 	public static final int maxNumGenericExamples = 5000;
+	/**
+	 * When >= 0, hybrid models are evaluated as the model trained on the generic examples alone plus a sparse
+	 * delta (see {@link DeltaLinearModel}) from which differences with magnitude not larger than this value
+	 * are pruned. A negative value evaluates the full hybrid models. Works only with the 'liblinear'
+	 * classifier.
+	 */
+	public static final double deltaPruneThreshold = -1;
+	/**
+	 * When true, every 'user'/'hybrid' model that is trained directly on the generic examples plus the
+	 * weighted user-specific examples (see {@link CompositeInstances}) is also trained on a copy of the
+	 * concatenated examples, and an exception is thrown if the two models differ.
+	 */
+	public static final boolean verifyCompositeTraining = false;
+	/**
+	 * When true, hybrid models are trained with {@link TronLogisticRegression} starting from the model trained
+	 * on the generic examples alone (once per user for 'hybrid-o' and once for 'hybrid-g'), so that only the
+	 * iterations needed to absorb the user-specific examples are run. The solutions are within the solver's
+	 * tolerance of those trained from scratch. Works only with the 'liblinear' classifier; composite training
+	 * is not verified for warm-started models. This is the default of the optional args[4] of
+	 * {@link #main(String[])}, which selects the warm-started path for a single run.
+	 */
+	public static final boolean warmStartHybrid = false;
+	/**
+	 * When true, the models of the 'other' method are trained with {@link LeaveOneGroupOut}: a model is trained
+	 * once on all users of YourAlert and the model of each user is obtained by warm-starting from it on the
+	 * examples of the other users. Works only with the 'liblinear' classifier and when the examples of the
+	 * other users are not subsampled (see {@link #maxNumGenericExamples}).
+	 */
+	public static final boolean leaveOneUserOutOther = false;
+	/**
+	 * When true, the examples of a user are converted to LibLinear rows once, in a {@link MicroModelBatch}, and
+	 * the 'user' models of all folds are trained and evaluated on those rows, without copying, filtering or
+	 * converting the examples of each fold. Each model is still a separate LibLinear fit. The results are the
+	 * same as when each fold is trained and evaluated separately. Works only with classifiers supported by
+	 * {@link LibLinearTrainer}.
+	 */
+	public static final boolean batchUserModels = false;
 
 	/**
 	 * 
@@ -61,20 +101,36 @@ public class GenericAndPersonalModelEval {
 	 *            of YourAlert).</li>
 	 *            </ul>
 	 *            The last 3 types of models are evaluated using a modified k-fold cross-validation procedure
-	 *            that is described in the paper.
+	 *            that is described in the paper. The weight of the hybrid models can be a comma-separated list
+	 *            (e.g. "hybrid-g 1,10,100,1000 35"), in which case the models of all weights are evaluated on
+	 *            the same folds in one run and a results file is written for each weight (see
+	 *            {@link HybridWeightPath}).
+	 * @param args
+	 *            [4] (optional) "warm" to warm-start the hybrid models from the generic model (along the path
+	 *            of the weights when several are given, see {@link HybridWeightPath}) or "cold" to train them
+	 *            from scratch (default: see {@link #warmStartHybrid})
 	 * @throws Exception
 	 */
 	public static void main(String[] args) throws Exception {
+		// the debug output of LibLinear is global (see LibLinearTrainer#RANDOM_LOCK)
+		Linear.disableDebugOutput();
 		String datasetFolder = args[0];
 		String featureType = args[1];
 		String classifierChoice = args[2];
 		String personalizationMethod = args[3];
+		boolean warmStart = warmStartHybrid;
+		if (args.length > 4) {
+			if (!args[4].equalsIgnoreCase("warm") && !args[4].equalsIgnoreCase("cold")) {
+				throw new Exception("Unknown warm start option " + args[4] + "!");
+			}
+			warmStart = args[4].equalsIgnoreCase("warm");
+		}
 
 		boolean loadPicAlert = false;
 		String methodName = personalizationMethod.split(" ")[0];
 		String methodNameCustom = "";
 		int numUserSpecificExamples = 0; // hybrid/user-related parameter
-		int userSpecificExamplesWeight = 0; // hybrid/user-related parameter
+		int[] userSpecificExamplesWeights = { 0 }; // hybrid/user-related parameter
 		if (methodName.startsWith("generic")) {
 			// only examples from PicAlert will be used to create a single model
 			loadPicAlert = true;
@@ -85,11 +141,15 @@ public class GenericAndPersonalModelEval {
 		} else if (methodName.equals("user")) {
 			// only examples by the same user
 			numUserSpecificExamples = Integer.parseInt(personalizationMethod.split(" ")[1]);
-			userSpecificExamplesWeight = 1;
+			userSpecificExamplesWeights = new int[] { 1 };
 			methodNameCustom = methodName;
 		} else if (methodName.startsWith("hybrid")) {
 			// a combination of examples
-			userSpecificExamplesWeight = Integer.parseInt(personalizationMethod.split(" ")[1]);
+			String[] weightsList = personalizationMethod.split(" ")[1].split(",");
+			userSpecificExamplesWeights = new int[weightsList.length];
+			for (int p = 0; p < weightsList.length; p++) {
+				userSpecificExamplesWeights[p] = Integer.parseInt(weightsList[p].trim());
+			}
 			numUserSpecificExamples = Integer.parseInt(personalizationMethod.split(" ")[2]);
 			if (methodName.equals("hybrid-o")) {
 				// do nothing
@@ -98,7 +158,7 @@ public class GenericAndPersonalModelEval {
 			} else {
 				throw new Exception("Unknown method!");
 			}
-			methodNameCustom = methodName + " w=" + userSpecificExamplesWeight;
+			methodNameCustom = methodName;
 		} else {
 			throw new Exception("Unknown method!");
 		}
@@ -125,7 +185,8 @@ public class GenericAndPersonalModelEval {
 				dataPicalert.setClassIndex(dataPicalert.numAttributes() - 1); // setting class attribute
 				// randomly picking maxNumGenericExamples examples from PicAlert
 				if (dataPicalert.numInstances() > maxNumGenericExamples) {
-					dataPicalert = pickAtRandom(dataPicalert, maxNumGenericExamples);
+					dataPicalert = new StratifiedSampler(dataPicalert, -1, new Random(ConstantsAndUtils.seed))
+							.sample(maxNumGenericExamples).toInstances();
 				}
 			} else {
 				throw new Exception("PicAlert dataset not found at:\n" + datasetFolder + "picalert/"
@@ -133,18 +194,58 @@ public class GenericAndPersonalModelEval {
 			}
 		}
 
-		// create a file to write the results
-		String resultsFile = "results-personal_" + featureType + "_" + personalizationMethod + "_"
-				+ maxNumGenericExamples + "_" + classifierChoice + ".txt";
-		BufferedWriter out = new BufferedWriter(new FileWriter(new File(resultsFile)));
-		String constantOutput = featureType + "," + classifierChoice + "," + methodName + ","
-				+ methodNameCustom + "," + userSpecificExamplesWeight + "," + maxNumGenericExamples + ","
-				+ numUserSpecificExamples + "," + userSpecificExamplesWeight + ",";
+		// create a file to write the results of each weight
+		int numWeights = userSpecificExamplesWeights.length;
+		BufferedWriter[] outs = new BufferedWriter[numWeights];
+		String[] constantOutputs = new String[numWeights];
+		for (int p = 0; p < numWeights; p++) {
+			int userSpecificExamplesWeight = userSpecificExamplesWeights[p];
+			String method = personalizationMethod;
+			String methodNameCustomOfWeight = methodNameCustom;
+			if (methodName.startsWith("hybrid")) {
+				method = methodName + " " + userSpecificExamplesWeight + " " + numUserSpecificExamples;
+				methodNameCustomOfWeight = methodName + " w=" + userSpecificExamplesWeight;
+				if (deltaPruneThreshold >= 0) {
+					methodNameCustomOfWeight += " delta=" + deltaPruneThreshold;
+				}
+			}
+			String resultsFile = "results-personal_" + featureType + "_" + method + "_" + maxNumGenericExamples
+					+ "_" + classifierChoice + ".txt";
+			outs[p] = new BufferedWriter(new FileWriter(new File(resultsFile)));
+			constantOutputs[p] = featureType + "," + classifierChoice + "," + methodName + ","
+					+ methodNameCustomOfWeight + "," + userSpecificExamplesWeight + "," + maxNumGenericExamples
+					+ "," + numUserSpecificExamples + "," + userSpecificExamplesWeight + ",";
+		}
 
 		// build and evaluate a model for each user of YourAlert
 		int numUsers = dataYouralert.attribute(ConstantsAndUtils.userAttrIndex).numValues();
-		double[] mAucs = new double[numUsers];
-		ArrayList<Prediction> allUsersPredictions = new ArrayList<Prediction>(dataYouralert.numInstances());
+		ArrayList<ArrayList<Prediction>> allUsersPredictions = new ArrayList<ArrayList<Prediction>>(numWeights);
+		for (int p = 0; p < numWeights; p++) {
+			allUsersPredictions.add(new ArrayList<Prediction>(dataYouralert.numInstances()));
+		}
+		// generic (PicAlert) model and examples of the hybrid-g models (trained and converted once)
+		LinearModel picalertModel = null;
+		CompositeInstances picalertComposite = null;
+		long totalTrainingTime = 0;
+		long solverIterations = 0;
+		int numTrainedFolds = 0;
+		long deltaNnz = 0;
+		int numDeltas = 0;
+		// samples the generic examples of each user from the examples of the other users
+		StratifiedSampler otherUsersSampler = new StratifiedSampler(dataYouralert,
+				ConstantsAndUtils.userAttrIndex, new Random(ConstantsAndUtils.seed));
+		// the models of the 'other' method are derived from a model trained on all users of YourAlert
+		LeaveOneGroupOut leaveOneUserOut = null;
+		if (methodName.equals("other") && leaveOneUserOutOther
+				&& TronLogisticRegression.supports(ConstantsAndUtils.selectClassifier(classifierChoice))) {
+			System.out.println("Training on all YourAlert users");
+			long trainingStart = System.nanoTime();
+			leaveOneUserOut = new LeaveOneGroupOut(dataYouralert, ConstantsAndUtils.userAttrIndex,
+					ConstantsAndUtils.indicesToIgnore,
+					(LibLINEAR) ConstantsAndUtils.selectClassifier(classifierChoice));
+			totalTrainingTime += System.nanoTime() - trainingStart;
+			System.out.println("Solver iterations: " + leaveOneUserOut.fullModelIterations());
+		}
 
 		for (int userIndex = 0; userIndex < numUsers; userIndex++) {
 			String user = dataYouralert.attribute(ConstantsAndUtils.userAttrIndex).value(userIndex);
@@ -157,26 +258,28 @@ public class GenericAndPersonalModelEval {
 			rwv.setInputFormat(dataYouralert);
 			rwv.setModifyHeader(false);
 			Instances thisUserData = Filter.useFilter(dataYouralert, rwv);
-			rwv.setInvertSelection(false);
-			Instances otherUsersData = Filter.useFilter(dataYouralert, rwv);
+			int numOtherUsersExamples = otherUsersSampler.numInstancesExcluding(userIndex);
 			System.out.println("Examples of this user: " + thisUserData.numInstances());
-			System.out.println("Remaining YourAlert examples " + otherUsersData.numInstances());
-
-			// randomly picking maxNumGenericExamples examples from YourAlert
-			if (otherUsersData.numInstances() > maxNumGenericExamples) {
-				otherUsersData = pickAtRandom(otherUsersData, maxNumGenericExamples);
+			System.out.println("Remaining YourAlert examples " + numOtherUsersExamples);
+			Instances otherUsersData;
+			if (numOtherUsersExamples > maxNumGenericExamples) {
+				// randomly picking maxNumGenericExamples examples from YourAlert
+				otherUsersData = otherUsersSampler.sampleExcluding(userIndex, maxNumGenericExamples)
+						.toInstances();
+			} else {
+				rwv.setInvertSelection(false);
+				otherUsersData = Filter.useFilter(dataYouralert, rwv);
 			}
 
-			ArrayList<Prediction> thisUserPredictions = new ArrayList<Prediction>(
-					thisUserData.numInstances());
+			ArrayList<ArrayList<Prediction>> thisUserPredictions = new ArrayList<ArrayList<Prediction>>(
+					numWeights);
+			for (int p = 0; p < numWeights; p++) {
+				thisUserPredictions.add(new ArrayList<Prediction>(thisUserData.numInstances()));
+			}
 
 			if (methodName.startsWith("generic") || methodName.equals("other")) {
 				// the evaluation is simpler because all examples of this user can be predicted at one step
 
-				// initialize a FilteredClassifier
-				FilteredClassifier classifier = ConstantsAndUtils.createFilteredClassifier(
-						ConstantsAndUtils.selectClassifier(classifierChoice), otherUsersData, ConstantsAndUtils.indicesToIgnore);
-
 				// train and evaluate the model and store predictions
 				System.out.println("Training");
 				Instances trainingData = null;
@@ -186,18 +289,132 @@ public class GenericAndPersonalModelEval {
 					trainingData = dataPicalert;
 				}
 				System.out.println("training with: " + trainingData.numInstances());
-				classifier.buildClassifier(trainingData);
+				Classifier classifier;
+				long trainingStart = System.nanoTime();
+				if (leaveOneUserOut != null && numOtherUsersExamples <= maxNumGenericExamples) {
+					// warm start from the model of all users
+					classifier = new LinearModelClassifier(leaveOneUserOut.trainExcluding(userIndex),
+							dataYouralert, ConstantsAndUtils.indicesToIgnore);
+					solverIterations += leaveOneUserOut.iterations();
+					System.out.println("Solver iterations (warm start): " + leaveOneUserOut.iterations());
+				} else {
+					// initialize a FilteredClassifier
+					classifier = ConstantsAndUtils.createFilteredClassifier(
+							ConstantsAndUtils.selectClassifier(classifierChoice), otherUsersData,
+							ConstantsAndUtils.indicesToIgnore);
+					classifier.buildClassifier(trainingData);
+				}
+				long trainingTime = System.nanoTime() - trainingStart;
+				totalTrainingTime += trainingTime;
+				numTrainedFolds++;
+				System.out.println("Training time (ms): " + trainingTime / 1000000);
 				Evaluation eval = new Evaluation(trainingData);
 				System.out.println("Evaluation");
 				eval.evaluateModel(classifier, thisUserData);
-				thisUserPredictions = eval.predictions();
-				allUsersPredictions.addAll(eval.predictions());
+				thisUserPredictions.get(0).addAll(eval.predictions());
+				allUsersPredictions.get(0).addAll(eval.predictions());
+			} else if (methodName.equals("user") && batchUserModels
+					&& LibLinearTrainer.supports(ConstantsAndUtils.selectClassifier(classifierChoice))) {
+				// same cross-validation as below, but the models of all folds are trained on the rows of one batch
+				LibLINEAR classifierSettings = (LibLINEAR) ConstantsAndUtils.selectClassifier(classifierChoice);
+				thisUserData.randomize(new Random(ConstantsAndUtils.seed)); // shuffle
+				thisUserData.stratify(numFolds); // and stratify
+				MicroModelBatch batch = new MicroModelBatch(thisUserData, ConstantsAndUtils.indicesToIgnore,
+						classifierSettings.getBias());
+				int[][] testRows = new int[numFolds][];
+				for (int n = 0; n < numFolds; n++) {
+					// the examples of the fold are a range of thisUserData (see Instances.testCV)
+					int numInstForFold = thisUserData.numInstances() / numFolds;
+					int offset = thisUserData.numInstances() % numFolds;
+					if (n < offset) {
+						numInstForFold++;
+						offset = n;
+					}
+					int first = n * (thisUserData.numInstances() / numFolds) + offset;
+					testRows[n] = new int[numInstForFold];
+					for (int i = 0; i < numInstForFold; i++) {
+						testRows[n][i] = first + i;
+					}
+					// pick the desired number of instances at random (from the same examples as below, the
+					// training examples of the fold in the order of Instances.trainCV, without copying them)
+					int[] trainCV = new int[thisUserData.numInstances() - numInstForFold];
+					for (int i = 0; i < trainCV.length; i++) {
+						trainCV[i] = i < first ? i : i + numInstForFold;
+					}
+					InstancesView sample = StratifiedSampler.sampleFrom(
+							new InstancesView(thisUserData, trainCV, 0, trainCV.length), numUserSpecificExamples,
+							new Random(ConstantsAndUtils.seed));
+					int[] trainRows = new int[sample.numInstances()];
+					for (int i = 0; i < trainRows.length; i++) {
+						trainRows[i] = sample.baseIndex(i);
+					}
+					batch.add(trainRows, null);
+				}
+				long trainingStart = System.nanoTime();
+				batch.train(classifierSettings);
+				long trainingTime = System.nanoTime() - trainingStart;
+				totalTrainingTime += trainingTime;
+				numTrainedFolds += numFolds;
+				System.out.println("Training time (ms): " + trainingTime / 1000000 + " (" + numFolds + " folds)");
+				for (int n = 0; n < numFolds; n++) {
+					ArrayList<Prediction> predictions = batch.predictions(n, testRows[n]);
+					thisUserPredictions.get(0).addAll(predictions);
+					allUsersPredictions.get(0).addAll(predictions);
+				}
 			} else if (methodName.equals("user") || methodName.startsWith("hybrid")) {
 				// if data from this user are going to be used, the evaluation becomes more complex
 				// prepare for stratified cv
 				thisUserData.randomize(new Random(ConstantsAndUtils.seed)); // shuffle
 				thisUserData.stratify(numFolds); // and stratify
 
+				// the generic examples that are shared by all folds (depending on the method)
+				Instances genericData = new Instances(dataYouralert, 0);
+				if (methodName.equals("hybrid-o")) {
+					genericData = otherUsersData;
+				} else if (methodName.equals("hybrid-g")) {
+					genericData = dataPicalert;
+				}
+				// when possible, the generic examples are converted once and the models are trained directly
+				// on them plus the weighted user-specific examples of each fold, without copying them
+				Classifier classifierSettings = ConstantsAndUtils.selectClassifier(classifierChoice);
+				CompositeInstances genericComposite = null;
+				if (LibLinearTrainer.supports(classifierSettings)) {
+					if (methodName.equals("hybrid-g") && picalertComposite != null) {
+						genericComposite = picalertComposite;
+					} else {
+						genericComposite = CompositeInstances.of(genericData, ConstantsAndUtils.indicesToIgnore,
+								((LibLINEAR) classifierSettings).getBias());
+					}
+					if (methodName.equals("hybrid-g")) {
+						picalertComposite = genericComposite;
+					}
+				}
+				// hybrid models are warm-started from the generic model when possible
+				// (along the path of the weights, see HybridWeightPath)
+				TronLogisticRegression solver = null;
+				HybridWeightPath weightPath = null;
+				if (warmStart && methodName.startsWith("hybrid") && genericComposite != null
+						&& TronLogisticRegression.supports(classifierSettings)) {
+					solver = TronLogisticRegression.of((LibLINEAR) classifierSettings);
+					weightPath = new HybridWeightPath(genericComposite, solver);
+				}
+
+				// the model trained on the generic examples alone (the generic part of the delta models and the
+				// starting point of the warm-started models)
+				LinearModel genericModel = null;
+				if (methodName.startsWith("hybrid") && (deltaPruneThreshold >= 0 || solver != null)) {
+					if (methodName.equals("hybrid-g") && picalertModel != null) {
+						genericModel = picalertModel;
+					} else if (solver != null) {
+						genericModel = solver.train(genericComposite, null);
+					} else {
+						genericModel = trainLinearModel(classifierChoice, genericData);
+					}
+					if (methodName.equals("hybrid-g")) {
+						picalertModel = genericModel;
+					}
+				}
+
 				for (int n = 0; n < numFolds; n++) {
 					System.out.println("Evaluation fold: " + n);
 
@@ -205,109 +422,154 @@ public class GenericAndPersonalModelEval {
 					Instances thisUserDataTrainFoldiInit = thisUserData.trainCV(numFolds, n);
 
 					// pick the desired number of instances at random
-					Instances thisUserDataTrainFoldiSample = pickAtRandom(thisUserDataTrainFoldiInit,
-							numUserSpecificExamples);
+					Instances thisUserDataTrainFoldiSample = StratifiedSampler
+							.sampleFrom(thisUserDataTrainFoldiInit, numUserSpecificExamples,
+									new Random(ConstantsAndUtils.seed))
+							.toInstances();
 					thisUserDataTrainFoldiInit.delete();
 
-					Instances thisUserDataTrainFoldiSampleWeighted = new Instances(
-							thisUserDataTrainFoldiSample, 0);
-					// assign the appropriate weight
-					for (int i = 0; i < thisUserDataTrainFoldiSample.numInstances(); i++) {
-						Instance inst = thisUserDataTrainFoldiSample.instance(i);
-						for (int k = 0; k < userSpecificExamplesWeight; k++) {
-							thisUserDataTrainFoldiSampleWeighted.add(inst);
-						}
-					}
-					thisUserDataTrainFoldiSample.delete();
-
-					// create the final training set by combining the user-specific examples with generic
-					// examples (depending on the method)
-					Instances thisUserDataTrainFoldi = new Instances(dataYouralert, 0);
-					if (methodName.equals("hybrid-o")) {
-						thisUserDataTrainFoldi = new Instances(otherUsersData);
-					} else if (methodName.equals("hybrid-g")) {
-						thisUserDataTrainFoldi = new Instances(dataPicalert);
-					}
-
-					for (int i = 0; i < thisUserDataTrainFoldiSampleWeighted.numInstances(); i++) {
-						thisUserDataTrainFoldi.add(thisUserDataTrainFoldiSampleWeighted.instance(i));
-					}
-
 					System.out.println(
 							"Examples of this user for evaluation: " + thisUserDataEvalFoldi.numInstances());
-					System.out.println(
-							"Examples of this user for training: " + thisUserDataTrainFoldi.numInstances());
 
-					// initializing a FilteredClassifier
-					FilteredClassifier classifier = ConstantsAndUtils.createFilteredClassifier(
-							ConstantsAndUtils.selectClassifier(classifierChoice), otherUsersData, ConstantsAndUtils.indicesToIgnore);
-					// train
-					classifier.buildClassifier(thisUserDataTrainFoldi);
-					// evaluate
-					Evaluation eval = new Evaluation(thisUserDataTrainFoldi);
-					eval.evaluateModel(classifier, thisUserDataEvalFoldi);
-					// add the predictions made for the examples of this fold
-					thisUserPredictions.addAll(eval.predictions());
-					allUsersPredictions.addAll(eval.predictions());
+					// the models of all weights are trained on this fold's sample and evaluated on its examples
+					LinearModel[] pathModels = null;
+					long pathTrainingTime = 0;
+					if (weightPath != null) {
+						long trainingStart = System.nanoTime();
+						pathModels = weightPath.train(thisUserDataTrainFoldiSample, userSpecificExamplesWeights,
+								genericModel);
+						pathTrainingTime = System.nanoTime() - trainingStart;
+						solverIterations += weightPath.iterations();
+						System.out.println("Solver iterations (warm start): " + weightPath.iterations());
+					}
+					for (int p = 0; p < numWeights; p++) {
+						int userSpecificExamplesWeight = userSpecificExamplesWeights[p];
+						System.out.println("Examples of this user for training: " + (genericData.numInstances()
+								+ userSpecificExamplesWeight * thisUserDataTrainFoldiSample.numInstances()));
+
+						// train
+						Classifier evaluatedClassifier;
+						LinearModel trainedModel = null;
+						long trainingStart = System.nanoTime();
+						if (pathModels != null) {
+							trainedModel = pathModels[p];
+							evaluatedClassifier = new LinearModelClassifier(trainedModel, genericData,
+									ConstantsAndUtils.indicesToIgnore);
+						} else if (genericComposite != null) {
+							CompositeInstances thisUserDataTrainFoldi = genericComposite
+									.withOverlay(thisUserDataTrainFoldiSample, userSpecificExamplesWeight);
+							trainedModel = LibLinearTrainer.train(thisUserDataTrainFoldi,
+									(LibLINEAR) classifierSettings);
+							if (verifyCompositeTraining) {
+								LinearModel copyModel = trainLinearModel(classifierChoice,
+										thisUserDataTrainFoldi.toInstances());
+								if (!Arrays.equals(copyModel.getWeights(), trainedModel.getWeights())
+										|| copyModel.getBias() != trainedModel.getBias()) {
+									throw new Exception(
+											"Training on the composite gave a different model than training on a copy!");
+								}
+							}
+							evaluatedClassifier = new LinearModelClassifier(trainedModel, genericData,
+									ConstantsAndUtils.indicesToIgnore);
+						} else {
+							// create the final training set by combining the user-specific examples with generic
+							// examples
+							Instances thisUserDataTrainFoldi = new Instances(genericData);
+							for (int i = 0; i < thisUserDataTrainFoldiSample.numInstances(); i++) {
+								Instance inst = thisUserDataTrainFoldiSample.instance(i);
+								// assign the appropriate weight
+								for (int k = 0; k < userSpecificExamplesWeight; k++) {
+									thisUserDataTrainFoldi.add(inst);
+								}
+							}
+							// initializing a FilteredClassifier
+							FilteredClassifier classifier = ConstantsAndUtils.createFilteredClassifier(
+									ConstantsAndUtils.selectClassifier(classifierChoice), otherUsersData,
+									ConstantsAndUtils.indicesToIgnore);
+							classifier.buildClassifier(thisUserDataTrainFoldi);
+							thisUserDataTrainFoldi.delete();
+							evaluatedClassifier = classifier;
+							if (deltaPruneThreshold >= 0 && genericModel != null) {
+								trainedModel = ModelExtraction.extractLinearModel(classifier);
+							}
+						}
+						// the models of a path are trained together, their time is split evenly
+						long trainingTime = pathModels != null ? pathTrainingTime / numWeights
+								: System.nanoTime() - trainingStart;
+						totalTrainingTime += trainingTime;
+						numTrainedFolds++;
+						System.out.println("Training time (ms): " + trainingTime / 1000000);
+						if (deltaPruneThreshold >= 0 && genericModel != null) {
+							// replace the model by the generic model plus a pruned delta
+							DeltaLinearModel deltaModel = DeltaLinearModel.of(genericModel, trainedModel,
+									deltaPruneThreshold);
+							deltaNnz += deltaModel.getDelta().nnz();
+							numDeltas++;
+							evaluatedClassifier = new LinearModelClassifier(deltaModel.toLinearModel(),
+									genericData, ConstantsAndUtils.indicesToIgnore);
+						}
+						// evaluate
+						Evaluation eval = new Evaluation(genericData);
+						eval.evaluateModel(evaluatedClassifier, thisUserDataEvalFoldi);
+						// add the predictions made for the examples of this fold
+						thisUserPredictions.get(p).addAll(eval.predictions());
+						allUsersPredictions.get(p).addAll(eval.predictions());
+					}
+					thisUserDataTrainFoldiSample.delete();
 					thisUserDataEvalFoldi.delete();
-					thisUserDataTrainFoldi.delete();
 				}
 			}
 
 			// calculate the auc score based on all predictions
-			ThresholdCurve tc = new ThresholdCurve();
-			Instances result = tc.getCurve(thisUserPredictions, ConstantsAndUtils.privacyIndex);
-			mAucs[userIndex] = ThresholdCurve.getROCArea(result);
+			for (int p = 0; p < numWeights; p++) {
+				ThresholdCurve tc = new ThresholdCurve();
+				Instances result = tc.getCurve(thisUserPredictions.get(p), ConstantsAndUtils.privacyIndex);
+				double mAuc = ThresholdCurve.getROCArea(result);
 
-			out.write(constantOutput + user + "," + mAucs[userIndex] + "\n");
-			out.flush();
+				outs[p].write(constantOutputs[p] + user + "," + mAuc + "\n");
+				outs[p].flush();
+			}
 
 			otherUsersData.delete();
 			thisUserData.delete();
 		}
 
 		// calculate the auc score based on all predictions
-		ThresholdCurve tc = new ThresholdCurve();
 		int privateIndex = 1;
-		Instances result = tc.getCurve(allUsersPredictions, privateIndex);
-		double genericAuc = ThresholdCurve.getROCArea(result);
-
-		out.write(constantOutput + "average" + "," + genericAuc + "\n");
-
-		out.close();
-
-	}
+		for (int p = 0; p < numWeights; p++) {
+			ThresholdCurve tc = new ThresholdCurve();
+			Instances result = tc.getCurve(allUsersPredictions.get(p), privateIndex);
+			double genericAuc = ThresholdCurve.getROCArea(result);
 
-	private static Instances pickAtRandom(Instances original, int numberToSelect) throws Exception {
-		if (numberToSelect > original.numInstances()) {
-			throw new Exception("Not enough instances!");
-		}
-		// check that both classes are represented
-		if (numDistinctClassVals(original) < 2) {
-			throw new Exception("All examples belong to the same class!");
+			outs[p].write(constantOutputs[p] + "average" + "," + genericAuc + "\n");
+			outs[p].close();
 		}
-		ArrayList<Integer> indices = new ArrayList<Integer>(original.numInstances());
-		for (int i = 0; i < original.numInstances(); i++) {
-			indices.add(i);
+		if (numDeltas > 0) {
+			System.out.println("Average non-zeros per delta: " + (double) deltaNnz / numDeltas);
 		}
-		Instances selected = null;
-		int numClasses = 0;
-		while (numClasses < 2) {
-			Collections.shuffle(indices, new Random(ConstantsAndUtils.seed));
-			selected = new Instances(original, 0);
-			for (int i = 0; i < numberToSelect; i++) {
-				selected.add(original.instance(indices.get(i)));
+		if (numTrainedFolds > 0) {
+			System.out.println("Average training time per fold/user (ms): "
+					+ (double) totalTrainingTime / numTrainedFolds / 1000000);
+			if (solverIterations > 0) {
+				System.out.println("Average solver iterations per fold/user (warm start): "
+						+ (double) solverIterations / numTrainedFolds);
 			}
-			numClasses = numDistinctClassVals(selected);
 		}
-		return selected;
+
 	}
 
-	private static int numDistinctClassVals(Instances original) {
-		HashSet<Double> distinctClassVals = new HashSet<Double>();
-		for (int i = 0; i < original.numInstances(); i++) {
-			distinctClassVals.add(original.instance(i).classValue());
-		}
-		return distinctClassVals.size();
+	/**
+	 * Trains the given classifier (which must be 'liblinear') on the given data and returns its linear model.
+	 * 
+	 * @param classifierChoice
+	 * @param data
+	 * @return
+	 * @throws Exception
+	 */
+	private static LinearModel trainLinearModel(String classifierChoice, Instances data) throws Exception {
+		FilteredClassifier classifier = ConstantsAndUtils.createFilteredClassifier(
+				ConstantsAndUtils.selectClassifier(classifierChoice), data, ConstantsAndUtils.indicesToIgnore);
+		classifier.buildClassifier(data);
+		return ModelExtraction.extractLinearModel(classifier);
 	}
 }
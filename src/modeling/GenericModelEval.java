@@ -3,16 +3,21 @@ package modeling;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Random;
 
+import de.bwaldvogel.liblinear.Linear;
+import de.bwaldvogel.liblinear.Problem;
+
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
+import weka.classifiers.functions.LibLINEAR;
 import weka.classifiers.meta.FilteredClassifier;
 import weka.core.Instances;
 import weka.core.converters.ConverterUtils.DataSource;
 import weka.filters.Filter;
-import weka.filters.unsupervised.instance.RemovePercentage;
 import weka.filters.unsupervised.instance.RemoveWithValues;
 
 /**
@@ -26,6 +31,26 @@ public class GenericModelEval {
 
 	/** The percentage of PicAlert to use for training. */
 	public static final double trainPercent = 60;
+	/**
+	 * When true and the classifier is 'liblinear', the training set sizes are evaluated from the smallest to
+	 * the largest and the model of each size is trained with {@link TronLogisticRegression} starting from the
+	 * model of the previous size (the training sets are nested, see {@link #truncate(InstancesView, int)}).
+	 */
+	public static final boolean warmStartLearningCurve = false;
+	/**
+	 * The feature types whose arffs are dense. When the models are trained with {@link TronLogisticRegression}
+	 * (see {@link #warmStartLearningCurve}), the data sets of these feature types are loaded as
+	 * {@link DenseMatrixDataset}s and the models are trained directly on their contiguous blocks of features.
+	 */
+	public static final String[] denseFeatureTypes = { "cnn", "vlad" };
+	/**
+	 * When true, the features of the contiguous data sets (see {@link #denseFeatureTypes}) are stored off the
+	 * heap, mapped from a cache written next to each arff (see
+	 * {@link DenseMatrixDataset#loadOffHeap(String, String, DenseMatrixDataset.Precision, ExperimentScope)}).
+	 * The caches take the size of the features (e.g. several GB for vlad), so this is opt-in. The blocks are
+	 * closed when the evaluation of the feature type ends.
+	 */
+	public static final boolean offHeapDenseFeatures = false;
 
 	/**
 	 * 
@@ -37,19 +62,78 @@ public class GenericModelEval {
 	 * @param args
 	 *            [2] Classifier selection (e.g. "liblinear-tuned")
 	 * @param args
-	 *            [3] How many generic training examples to use. < 0 means all examples
+	 *            [3] How many generic training examples to use. < 0 means all examples. A comma-separated
+	 *            list of values (e.g. "50,100,-1") evaluates all of them (a results file is written for each)
+	 *            on the same split, loading and splitting the data only once. The values are evaluated from the
+	 *            smallest to the largest training set.
+	 * @param args
+	 *            [4] (optional) The precision in which the features of a dense feature type are stored: "double"
+	 *            (default), "float" or "int8" (see {@link DenseMatrixDataset.Precision}). Reduced precision
+	 *            requires a contiguous data set (see {@link #denseFeatureTypes}) and the "tron" backend, and the
+	 *            suffix "_float" or "_int8" is added to the names of the results files. See
+	 *            {@link PrecisionComparison} for the AUC differences from full precision.
+	 * @param args
+	 *            [5] (optional) The backend that trains the models (see
+	 *            {@link ConstantsAndUtils#selectSolver(String, Classifier)}): "tron", "liblinear" (LibLinear
+	 *            called directly on a problem converted once) or "weka" (the classifier itself, the default).
+	 *            When {@link #warmStartLearningCurve} is set and the classifier allows, "tron" is the default.
+	 *            When given, the suffix "_[backend]" is added to the names of the results files.
 	 * @throws Exception
 	 */
 	public static void main(String[] args) throws Exception {
+		// the debug output of LibLinear is global (see LibLinearTrainer#RANDOM_LOCK)
+		Linear.disableDebugOutput();
+		// the off-heap blocks of the data sets are closed as soon as the evaluation ends
+		ExperimentScope scope = new ExperimentScope();
+		try {
+			evaluate(args, scope);
+		} finally {
+			scope.close();
+		}
+	}
+
+	private static void evaluate(String[] args, ExperimentScope scope) throws Exception {
 		String datasetFolder = args[0];
 		String featureType = args[1];
 		String classifierChoice = args[2];
-		int numTrainExamples = Integer.parseInt(args[3]);
+		String[] numTrainExamplesList = args[3].split(",");
+		DenseMatrixDataset.Precision precision = args.length > 4
+				? DenseMatrixDataset.Precision.valueOf(args[4].toUpperCase()) : DenseMatrixDataset.Precision.DOUBLE;
+
+		// dense data sets are stored as contiguous matrices when the models are trained on them directly
+		Classifier classifierSettings = ConstantsAndUtils.selectClassifier(classifierChoice);
+		String backend = args.length > 5 ? args[5]
+				: (warmStartLearningCurve && TronLogisticRegression.supports(classifierSettings) ? "tron" : "weka");
+		LinearSolver solver = ConstantsAndUtils.selectSolver(backend, classifierSettings);
+		boolean contiguous = solver instanceof TronLogisticRegression
+				&& Arrays.asList(denseFeatureTypes).contains(featureType);
+		if (precision != DenseMatrixDataset.Precision.DOUBLE && !contiguous) {
+			throw new Exception("Reduced precision is supported only for the dense feature types "
+					+ Arrays.toString(denseFeatureTypes) + " with the 'tron' backend!");
+		}
+		String precisionSuffix = precision != DenseMatrixDataset.Precision.DOUBLE
+				? "_" + precision.name().toLowerCase() : "";
+		if (args.length > 5) {
+			precisionSuffix += "_" + backend.toLowerCase();
+		}
 
 		// check if the data sets exist in datasetFolder
 		File picalert = new File(datasetFolder + "picalert/" + featureType + ".arff");
 		Instances dataPicalert = null;
-		if (picalert.exists()) {
+		DenseMatrixDataset matrixPicalert = null;
+		int[] shuffledRows = null;
+		if (picalert.exists() && contiguous) {
+			System.out.println("Loading PicAlert dataset (contiguous, " + precision.name().toLowerCase() + ")");
+			matrixPicalert = offHeapDenseFeatures
+					? DenseMatrixDataset.loadOffHeap(picalert.getPath(), ConstantsAndUtils.indicesToIgnore,
+							precision, scope)
+					: DenseMatrixDataset.load(picalert.getPath(), ConstantsAndUtils.indicesToIgnore, precision);
+			System.out.println("Feature block (MB" + (matrixPicalert.isOffHeap() ? ", off-heap" : "") + "): "
+					+ matrixPicalert.featureBytes() / 1048576.0);
+			// randomly shuffle to discard any default order (as dataPicalert.randomize below)
+			shuffledRows = matrixPicalert.permutation(new Random(ConstantsAndUtils.seed));
+			dataPicalert = matrixPicalert.toInstances(shuffledRows);
+		} else if (picalert.exists()) {
 			System.out.println("Loading PicAlert dataset");
 			DataSource source = new DataSource(datasetFolder + "picalert/" + featureType + ".arff");
 			dataPicalert = source.getDataSet();
@@ -63,7 +147,15 @@ public class GenericModelEval {
 
 		File youralert = new File(datasetFolder + "youralert/" + featureType + ".arff");
 		Instances dataYouralert = null;
-		if (youralert.exists()) {
+		DenseMatrixDataset matrixYouralert = null;
+		if (youralert.exists() && contiguous) {
+			System.out.println("Loading YourAlert dataset (contiguous, " + precision.name().toLowerCase() + ")");
+			matrixYouralert = offHeapDenseFeatures
+					? DenseMatrixDataset.loadOffHeap(youralert.getPath(), ConstantsAndUtils.indicesToIgnore,
+							precision, scope)
+					: DenseMatrixDataset.load(youralert.getPath(), ConstantsAndUtils.indicesToIgnore, precision);
+			dataYouralert = matrixYouralert.toInstances(matrixYouralert.allRows());
+		} else if (youralert.exists()) {
 			System.out.println("Loading YourAlert dataset");
 			DataSource source = new DataSource(datasetFolder + "youralert/" + featureType + ".arff");
 			dataYouralert = source.getDataSet();
@@ -74,65 +166,137 @@ public class GenericModelEval {
 			System.err.println("Evaluation will be performed only on PicAlert!");
 		}
 
-		// create a file to write the evaluation results
-		String resultsFilename = "results-generic_" + numTrainExamples + "_" + featureType + "_"
-				+ classifierChoice + ".txt";
-		BufferedWriter outResults = new BufferedWriter(new FileWriter(new File(resultsFilename)));
-		String staticInfo = featureType + "," + numTrainExamples + "," + classifierChoice + ","
-				+ numTrainExamples + ",";
-
 		// initialize a FilteredClassifier
 		FilteredClassifier classifier = ConstantsAndUtils.createFilteredClassifier(
 				ConstantsAndUtils.selectClassifier(classifierChoice), dataPicalert, ConstantsAndUtils.indicesToIgnore);
 
-		// split the PicAlert data set into train and test
+		// split the PicAlert data set into train and test (once for all training set sizes)
 		System.out.println("Splitting PicAlert dataset into train (" + trainPercent + "%) / test ("
 				+ (100 - trainPercent) + "%)");
-		Instances splitted[] = splitInTrainTest(dataPicalert, trainPercent, numTrainExamples);
-		Instances picalertTrain = splitted[0];
-		Instances picalertTest = splitted[1];
-		System.out.println("Train examples " + picalertTrain.numInstances());
+		InstancesView splitted[] = splitInTrainTestViews(dataPicalert, trainPercent);
+		Instances picalertTest = splitted[1].toInstances();
 		System.out.println("Test instances " + picalertTest.numInstances());
 
-		System.out.println("Building model on PicAlert train");
-		Classifier copiedClassifier = AbstractClassifier.makeCopy(classifier);
-		copiedClassifier.buildClassifier(picalertTrain);
-
-		System.out.println("Evaluating model on PicAlert test");
-		Evaluation eval = new Evaluation(picalertTrain);
-		eval.evaluateModel(copiedClassifier, picalertTest);
-		double aucPicalert = eval.areaUnderROC(ConstantsAndUtils.privacyIndex);
-		outResults.write(staticInfo + "all,picalert," + aucPicalert + "\n");
-
+		// separate the YourAlert examples of each user (once for all training set sizes)
+		Instances[] dataUsers = null;
 		if (dataYouralert != null) {
-			System.out.println("Evaluating model on YourAlert");
-			eval = new Evaluation(picalertTrain);
-
-			// evaluate on all users
-			eval.evaluateModel(copiedClassifier, dataYouralert);
-			double aucYouralert = eval.areaUnderROC(ConstantsAndUtils.privacyIndex);
-			outResults.write(staticInfo + "all,youralert," + aucYouralert + "\n");
-
-			// evaluate separately per user
 			int numUsers = dataYouralert.attribute(ConstantsAndUtils.userAttrIndex).numValues();
+			dataUsers = new Instances[numUsers];
 			for (int k = 0; k < numUsers; k++) {
+				if (matrixYouralert != null) {
+					dataUsers[k] = matrixYouralert
+							.toInstances(matrixYouralert.rowsWithValue(ConstantsAndUtils.userAttrIndex, k));
+					continue;
+				}
 				RemoveWithValues rwv = new RemoveWithValues();
 				rwv.setAttributeIndex(String.valueOf(ConstantsAndUtils.userAttrIndex + 1));
 				rwv.setNominalIndicesArr(new int[] { k });
 				rwv.setInvertSelection(true);
 				rwv.setInputFormat(dataYouralert);
 				rwv.setModifyHeader(false);
-				Instances dataThisUser = Filter.useFilter(dataYouralert, rwv);
-				eval = new Evaluation(picalertTrain);
-				eval.evaluateModel(copiedClassifier, dataThisUser);
-				double aucThisUser = eval.areaUnderROC(ConstantsAndUtils.privacyIndex);
-				String userName = dataYouralert.attribute(ConstantsAndUtils.userAttrIndex).value(k);
-				outResults.write(staticInfo + userName + ",youralert," + aucThisUser + "\n");
+				dataUsers[k] = Filter.useFilter(dataYouralert, rwv);
+			}
+		}
+
+		// the training sets of the different sizes are nested, so they are evaluated from the smallest to the
+		// largest and, when the solver allows, each model is warm-started from the model of the previous size
+		final int numAllTrainExamples = splitted[0].numInstances();
+		Integer[] numTrainExamplesArray = new Integer[numTrainExamplesList.length];
+		for (int i = 0; i < numTrainExamplesList.length; i++) {
+			numTrainExamplesArray[i] = Integer.parseInt(numTrainExamplesList[i].trim());
+		}
+		Arrays.sort(numTrainExamplesArray, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int sizeA = truncatedSize(numAllTrainExamples, a);
+				int sizeB = truncatedSize(numAllTrainExamples, b);
+				return sizeA < sizeB ? -1 : (sizeA == sizeB ? 0 : 1);
+			}
+		});
+		Problem trainProblem = null;
+		int[] trainMatrixRows = null;
+		if (solver != null && matrixPicalert != null) {
+			// the rows of the matrix in the order of the training set
+			trainMatrixRows = new int[splitted[0].numInstances()];
+			for (int i = 0; i < trainMatrixRows.length; i++) {
+				trainMatrixRows[i] = shuffledRows[splitted[0].baseIndex(i)];
 			}
+		} else if (solver != null) {
+			// the training set is converted once, the problems of all sizes share its rows
+			trainProblem = CompositeInstances.of(splitted[0].toInstances(), ConstantsAndUtils.indicesToIgnore,
+					((LibLINEAR) classifierSettings).getBias()).toProblem();
 		}
+		LinearModel previousModel = null;
+
+		for (int numTrainExamples : numTrainExamplesArray) {
+
+			// create a file to write the evaluation results
+			String resultsFilename = "results-generic_" + numTrainExamples + "_" + featureType + "_"
+					+ classifierChoice + precisionSuffix + ".txt";
+			BufferedWriter outResults = new BufferedWriter(new FileWriter(new File(resultsFilename)));
+			String staticInfo = featureType + "," + numTrainExamples + "," + classifierChoice + ","
+					+ numTrainExamples + ",";
+
+			int size = truncatedSize(numAllTrainExamples, numTrainExamples);
+			System.out.println("Train examples " + size);
+
+			System.out.println("Building model on PicAlert train");
+			// the truncated training set gives the class priors of the evaluations
+			Instances picalertTrain = truncate(splitted[0], numTrainExamples).toInstances();
+			Classifier copiedClassifier;
+			long trainingStart = System.nanoTime();
+			if (solver != null) {
+				// the truncated training set is the last size rows of the training set
+				LinearModel model;
+				if (trainMatrixRows != null) {
+					model = ((TronLogisticRegression) solver).train(matrixPicalert,
+							Arrays.copyOfRange(trainMatrixRows, trainMatrixRows.length - size, trainMatrixRows.length),
+							((LibLINEAR) classifierSettings).getBias(), previousModel);
+				} else {
+					model = solver.train(lastRows(trainProblem, size), previousModel);
+				}
+				if (solver instanceof TronLogisticRegression) {
+					System.out.println("Solver iterations" + (previousModel != null ? " (warm start): " : ": ")
+							+ ((TronLogisticRegression) solver).iterations());
+				}
+				previousModel = model;
+				copiedClassifier = new LinearModelClassifier(model, dataPicalert, ConstantsAndUtils.indicesToIgnore);
+			} else {
+				copiedClassifier = AbstractClassifier.makeCopy(classifier);
+				copiedClassifier.buildClassifier(picalertTrain);
+			}
+			System.out.println("Training time (ms): " + (System.nanoTime() - trainingStart) / 1000000);
+
+			System.out.println("Evaluating model on PicAlert test");
+			Evaluation eval = new Evaluation(picalertTrain);
+			long scoringStart = System.nanoTime();
+			eval.evaluateModel(copiedClassifier, picalertTest);
+			System.out.println("Scoring time per example (us): "
+					+ (System.nanoTime() - scoringStart) / 1000.0 / picalertTest.numInstances());
+			double aucPicalert = eval.areaUnderROC(ConstantsAndUtils.privacyIndex);
+			outResults.write(staticInfo + "all,picalert," + aucPicalert + "\n");
 
-		outResults.flush();
-		outResults.close();
+			if (dataYouralert != null) {
+				System.out.println("Evaluating model on YourAlert");
+				eval = new Evaluation(picalertTrain);
+
+				// evaluate on all users
+				eval.evaluateModel(copiedClassifier, dataYouralert);
+				double aucYouralert = eval.areaUnderROC(ConstantsAndUtils.privacyIndex);
+				outResults.write(staticInfo + "all,youralert," + aucYouralert + "\n");
+
+				// evaluate separately per user
+				for (int k = 0; k < dataUsers.length; k++) {
+					eval = new Evaluation(picalertTrain);
+					eval.evaluateModel(copiedClassifier, dataUsers[k]);
+					double aucThisUser = eval.areaUnderROC(ConstantsAndUtils.privacyIndex);
+					String userName = dataYouralert.attribute(ConstantsAndUtils.userAttrIndex).value(k);
+					outResults.write(staticInfo + userName + ",youralert," + aucThisUser + "\n");
+				}
+			}
+
+			outResults.flush();
+			outResults.close();
+		}
 	}
 
 	/**
@@ -152,21 +316,61 @@ public class GenericModelEval {
 	 */
 	public static Instances[] splitInTrainTest(Instances data, double trainPercent, int numTrainExamples)
 			throws Exception {
-		RemovePercentage rmvp = new RemovePercentage();
-		rmvp.setInvertSelection(true);
-		rmvp.setPercentage(trainPercent);
-		rmvp.setInputFormat(data);
-		Instances trainData = Filter.useFilter(data, rmvp);
-		if (numTrainExamples > 0) { // remove examples until numTrainExamples are left
-			while (trainData.numInstances() > numTrainExamples) {
-				trainData.remove(0);
-			}
-		}
-		rmvp = new RemovePercentage();
-		rmvp.setPercentage(trainPercent);
-		rmvp.setInputFormat(data);
-		Instances testData = Filter.useFilter(data, rmvp);
-		return new Instances[] { trainData, testData };
+		InstancesView[] views = splitInTrainTestViews(data, trainPercent);
+		return new Instances[] { truncate(views[0], numTrainExamples).toInstances(), views[1].toInstances() };
+	}
 
+	/**
+	 * Splits the given data set into views of a training set (InstancesView[0]) and a test set
+	 * (InstancesView[1]) without copying any example. The training set contains the first trainPercent% of the
+	 * examples (rounded as in Weka's RemovePercentage) and the test set the rest.
+	 * 
+	 * @param data
+	 * @param trainPercent
+	 *            The percentage of examples in the training set (between 1 and 100).
+	 * @return
+	 */
+	public static InstancesView[] splitInTrainTestViews(Instances data, double trainPercent) {
+		InstancesView all = InstancesView.of(data);
+		int cutOff = (int) Math.round(data.numInstances() * trainPercent / 100);
+		return new InstancesView[] { all.first(cutOff), all.range(cutOff, all.numInstances()) };
+	}
+
+	/**
+	 * Returns the size of a training set of the given size after {@link #truncate(InstancesView, int)}.
+	 */
+	private static int truncatedSize(int numAllTrainExamples, int numTrainExamples) {
+		return numTrainExamples > 0 ? Math.min(numTrainExamples, numAllTrainExamples) : numAllTrainExamples;
+	}
+
+	/**
+	 * Returns a problem made of the last size rows of the given problem (referencing them, as
+	 * {@link #truncate(InstancesView, int)}).
+	 */
+	private static Problem lastRows(Problem problem, int size) {
+		Problem last = new Problem();
+		last.l = size;
+		last.n = problem.n;
+		last.bias = problem.bias;
+		last.x = Arrays.copyOfRange(problem.x, problem.l - size, problem.l);
+		last.y = Arrays.copyOfRange(problem.y, problem.l - size, problem.l);
+		return last;
+	}
+
+	/**
+	 * Subsamples a training set view to numTrainExamples examples in O(1). The last numTrainExamples examples
+	 * are kept, as when removing examples from the beginning of the set; since the data are shuffled, this is
+	 * a random subsample and the subsamples of different sizes are nested.
+	 * 
+	 * @param trainData
+	 * @param numTrainExamples
+	 *            If numTrainExamples <= 0 or larger than the size of the view, the view is returned as is.
+	 * @return
+	 */
+	public static InstancesView truncate(InstancesView trainData, int numTrainExamples) {
+		if (numTrainExamples > 0 && trainData.numInstances() > numTrainExamples) {
+			return trainData.last(numTrainExamples);
+		}
+		return trainData;
 	}
 }
@@ -0,0 +1,243 @@
+package modeling;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A Weka classifier that trains an L2-regularized logistic regression model with lock-free parallel SGD
+ * (Hogwild): the training examples are split in one shard per thread and the threads update a shared weight
+ * vector without any synchronization. It is meant for very sparse features (e.g. 'semfeat' and 'bow'), where
+ * the examples of different threads rarely touch the same weights. Each update touches only the non-zero
+ * features of the example (and the intercept), with a per-feature AdaGrad learning rate; the regularization
+ * of a feature is applied when the feature is touched, scaled by the inverse of the number of examples where
+ * it is non-zero, so that over an epoch each weight gets the regularization of LibLinear's objective divided
+ * by C times the number of examples. With more than one thread the result depends on the interleaving of the
+ * threads.
+ * <p>
+ * The classifier expects the features and the class only (e.g. inside a FilteredClassifier, see
+ * {@link ConstantsAndUtils#createFilteredClassifier(weka.classifiers.Classifier, Instances, String)}). Its model
+ * is oriented towards the private class (see {@link #getModel()}).
+ */
+public class HogwildLogisticRegression extends AbstractLinearClassifier {
+
+	private static final long serialVersionUID = 1L;
+
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private int numEpochs = 10;
+	private double learningRate = 0.1;
+	private double cost = 1;
+
+	// the examples in compressed sparse row format, shared (read-only) by the threads
+	private transient int[] rowStart;
+	private transient int[] columns;
+	private transient double[] values;
+	private transient double[] labels;
+	private transient double[] rowWeights;
+	// the shared state of the training
+	private transient double[] w;
+	private transient double[] sumSquares;
+	private transient double[] regularization;
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	public int getNumEpochs() {
+		return numEpochs;
+	}
+
+	public void setNumEpochs(int numEpochs) {
+		this.numEpochs = numEpochs;
+	}
+
+	public double getLearningRate() {
+		return learningRate;
+	}
+
+	public void setLearningRate(double learningRate) {
+		this.learningRate = learningRate;
+	}
+
+	/**
+	 * Returns LibLinear's C.
+	 *
+	 * @return
+	 */
+	public double getCost() {
+		return cost;
+	}
+
+	public void setCost(double cost) {
+		this.cost = cost;
+	}
+
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		getCapabilities().testWithFail(data);
+		classIndex = data.classIndex();
+		int numFeatures = data.numAttributes() - 1;
+		toSparseRows(data);
+		int numRows = labels.length;
+
+		// the weights of the features and, last, the intercept
+		w = new double[numFeatures + 1];
+		sumSquares = new double[numFeatures + 1];
+		// the regularization applied when a feature is touched, 1 / (C * number of examples where it is non-zero)
+		regularization = new double[numFeatures + 1];
+		for (int k = 0; k < columns.length; k++) {
+			regularization[columns[k]]++;
+		}
+		regularization[numFeatures] = numRows;
+		for (int j = 0; j < regularization.length; j++) {
+			regularization[j] = regularization[j] > 0 ? 1 / (cost * regularization[j]) : 0;
+		}
+
+		// one shard of the (shuffled) examples per thread
+		int[] order = new int[numRows];
+		for (int i = 0; i < numRows; i++) {
+			order[i] = i;
+		}
+		Random random = new Random(ConstantsAndUtils.seed);
+		shuffle(order, numRows, random);
+		int threads = Math.max(1, Math.min(numThreads, numRows));
+		final int[][] shards = new int[threads][];
+		for (int t = 0; t < threads; t++) {
+			int from = (int) ((long) t * numRows / threads);
+			int to = (int) ((long) (t + 1) * numRows / threads);
+			shards[t] = new int[to - from];
+			System.arraycopy(order, from, shards[t], 0, to - from);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Callable<Void>> epochTasks = new ArrayList<Callable<Void>>(threads);
+			for (int t = 0; t < threads; t++) {
+				final int[] shard = shards[t];
+				final Random threadRandom = new Random(ConstantsAndUtils.seed + t + 1);
+				epochTasks.add(new Callable<Void>() {
+					public Void call() throws Exception {
+						shuffle(shard, shard.length, threadRandom);
+						for (int i : shard) {
+							update(i);
+						}
+						return null;
+					}
+				});
+			}
+			// the threads run their shards concurrently, the epochs one after the other
+			for (int epoch = 0; epoch < numEpochs; epoch++) {
+				for (Future<Void> future : executor.invokeAll(epochTasks)) {
+					future.get();
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		double[] weights = new double[numFeatures];
+		System.arraycopy(w, 0, weights, 0, numFeatures);
+		model = new LinearModel(null, weights, w[numFeatures],
+				new int[] { ConstantsAndUtils.privacyIndex, 1 - ConstantsAndUtils.privacyIndex }, 0);
+		rowStart = null;
+		columns = null;
+		values = null;
+		labels = null;
+		rowWeights = null;
+		w = null;
+		sumSquares = null;
+		regularization = null;
+	}
+
+	/**
+	 * One AdaGrad step on the given example. The shared weights are read and written without synchronization.
+	 */
+	private void update(int i) {
+		int bias = w.length - 1;
+		double margin = w[bias];
+		for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+			margin += w[columns[k]] * values[k];
+		}
+		double labelMargin = labels[i] * margin;
+		// the derivative of the weighted loss with respect to the margin
+		double dLoss = -labels[i] * rowWeights[i] / (1 + Math.exp(labelMargin));
+		for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+			int j = columns[k];
+			double g = dLoss * values[k] + regularization[j] * w[j];
+			if (g != 0) {
+				sumSquares[j] += g * g;
+				w[j] -= learningRate * g / Math.sqrt(sumSquares[j]);
+			}
+		}
+		double g = dLoss + regularization[bias] * w[bias];
+		if (g != 0) {
+			sumSquares[bias] += g * g;
+			w[bias] -= learningRate * g / Math.sqrt(sumSquares[bias]);
+		}
+	}
+
+	/**
+	 * Converts the examples with a class to compressed sparse rows of their non-zero features.
+	 */
+	private void toSparseRows(Instances data) {
+		int numRows = 0;
+		int numNonZeros = 0;
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance instance = data.instance(i);
+			if (instance.classIsMissing()) {
+				continue;
+			}
+			numRows++;
+			for (int k = 0; k < instance.numValues(); k++) {
+				double value = instance.valueSparse(k);
+				if (instance.index(k) != classIndex && value != 0 && !Double.isNaN(value)) {
+					numNonZeros++;
+				}
+			}
+		}
+		rowStart = new int[numRows + 1];
+		columns = new int[numNonZeros];
+		values = new double[numNonZeros];
+		labels = new double[numRows];
+		rowWeights = new double[numRows];
+		int row = 0;
+		int position = 0;
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance instance = data.instance(i);
+			if (instance.classIsMissing()) {
+				continue;
+			}
+			for (int k = 0; k < instance.numValues(); k++) {
+				int index = instance.index(k);
+				double value = instance.valueSparse(k);
+				if (index != classIndex && value != 0 && !Double.isNaN(value)) {
+					columns[position] = index < classIndex ? index : index - 1;
+					values[position] = value;
+					position++;
+				}
+			}
+			labels[row] = instance.classValue() == ConstantsAndUtils.privacyIndex ? 1 : -1;
+			rowWeights[row] = instance.weight();
+			rowStart[++row] = position;
+		}
+	}
+
+	private static void shuffle(int[] array, int length, Random random) {
+		for (int i = length - 1; i > 0; i--) {
+			int k = random.nextInt(i + 1);
+			int tmp = array[i];
+			array[i] = array[k];
+			array[k] = tmp;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package modeling;
+
+import java.util.Random;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.meta.FilteredClassifier;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * Measures how the training time of {@link HogwildLogisticRegression} scales from 1 to N threads, compared to
+ * the single-threaded 'liblinear' baseline, on the PicAlert train/test split of {@link GenericModelEval}. For
+ * each configuration the best training time of a few repetitions and the AUC on the PicAlert test set are
+ * reported.
+ */
+public class HogwildScalingBenchmark {
+
+	/**
+	 * @param args
+	 *            [0] Full path to the root folder where the PicAlert arffs reside (in the 'picalert' subfolder)
+	 * @param args
+	 *            [1] (optional) Name of the features to use (default "semfeat")
+	 * @param args
+	 *            [2] (optional) The maximum number of threads (default: the number of processors). The thread
+	 *            counts 1, 2, 4, ... up to it are measured.
+	 * @param args
+	 *            [3] (optional) The number of repetitions of each measurement (default 3)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String datasetFolder = args[0];
+		String featureType = args.length > 1 ? args[1] : "semfeat";
+		int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int numRepetitions = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+		Instances data = DataSource.read(datasetFolder + "picalert/" + featureType + ".arff");
+		data.setClassIndex(data.numAttributes() - 1);
+		data.randomize(new Random(ConstantsAndUtils.seed));
+		InstancesView[] splitted = GenericModelEval.splitInTrainTestViews(data, GenericModelEval.trainPercent);
+		Instances train = splitted[0].toInstances();
+		Instances test = splitted[1].toInstances();
+		System.out.println("Train examples " + train.numInstances() + ", test examples " + test.numInstances());
+
+		System.out.println("classifier,threads,training time (ms),speedup over 1 thread,speedup over liblinear,auc");
+		long liblinearTime = measure(ConstantsAndUtils.selectClassifier("liblinear"), train, numRepetitions);
+		double liblinearAuc = auc(ConstantsAndUtils.selectClassifier("liblinear"), train, test);
+		System.out.println("liblinear,1," + liblinearTime / 1000000 + ",1.0,1.0," + liblinearAuc);
+		long oneThreadTime = 0;
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			HogwildLogisticRegression hogwild = (HogwildLogisticRegression) ConstantsAndUtils
+					.selectClassifier("hogwild");
+			hogwild.setNumThreads(threads);
+			long time = measure(hogwild, train, numRepetitions);
+			if (threads == 1) {
+				oneThreadTime = time;
+			}
+			System.out.println("hogwild," + threads + "," + time / 1000000 + ","
+					+ (double) oneThreadTime / time + "," + (double) liblinearTime / time + ","
+					+ auc(hogwild, train, test));
+		}
+	}
+
+	/**
+	 * Returns the best training time (in ns) of the given classifier (inside a FilteredClassifier that ignores
+	 * the id, user and source attributes).
+	 */
+	private static long measure(Classifier classifier, Instances train, int numRepetitions) throws Exception {
+		long best = Long.MAX_VALUE;
+		for (int rep = 0; rep < numRepetitions; rep++) {
+			FilteredClassifier filtered = ConstantsAndUtils.createFilteredClassifier(classifier, train,
+					ConstantsAndUtils.indicesToIgnore);
+			long start = System.nanoTime();
+			filtered.buildClassifier(train);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best;
+	}
+
+	private static double auc(Classifier classifier, Instances train, Instances test) throws Exception {
+		FilteredClassifier filtered = ConstantsAndUtils.createFilteredClassifier(classifier, train,
+				ConstantsAndUtils.indicesToIgnore);
+		filtered.buildClassifier(train);
+		Evaluation eval = new Evaluation(train);
+		eval.evaluateModel(filtered, test);
+		return eval.areaUnderROC(ConstantsAndUtils.privacyIndex);
+	}
+}
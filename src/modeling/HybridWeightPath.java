@@ -0,0 +1,86 @@
+package modeling;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import de.bwaldvogel.liblinear.Feature;
+import de.bwaldvogel.liblinear.Problem;
+import weka.core.Instances;
+
+/**
+ * Trains the hybrid models of several user-specific example weights (e.g. 1, 10, 100, 1000) on the same generic
+ * and user-specific examples as a regularization path. The examples are converted once, the weights are solved
+ * in increasing order and each model is warm-started with {@link TronLogisticRegression} from the model of the
+ * previous weight (the first one from the given initial model, e.g. the generic model). Since consecutive
+ * problems differ only by the weight of a few examples, each step needs few iterations, and the models are
+ * within the solver's tolerance of those trained from scratch.
+ */
+public class HybridWeightPath {
+
+	private final CompositeInstances generic;
+	private final TronLogisticRegression solver;
+	/** The total number of solver iterations of the last call to train. */
+	private int iterations;
+
+	/**
+	 * @param generic
+	 *            The generic examples that are shared by all models.
+	 * @param solver
+	 */
+	public HybridWeightPath(CompositeInstances generic, TronLogisticRegression solver) {
+		this.generic = generic;
+		this.solver = solver;
+	}
+
+	public int iterations() {
+		return iterations;
+	}
+
+	/**
+	 * Trains a model for each of the given weights of the user-specific examples.
+	 *
+	 * @param overlay
+	 *            The user-specific examples, in the format of the generic examples.
+	 * @param weights
+	 *            The weights of the user-specific examples (in any order).
+	 * @param initial
+	 *            The starting point of the smallest weight or null to start from w = 0.
+	 * @return The model of each weight, in the order of the weights.
+	 * @throws Exception
+	 */
+	public LinearModel[] train(Instances overlay, final int[] weights, LinearModel initial) throws Exception {
+		Integer[] order = new Integer[weights.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return weights[a] < weights[b] ? -1 : (weights[a] == weights[b] ? 0 : 1);
+			}
+		});
+
+		// the user-specific rows are converted once and only their weights change along the path
+		CompositeInstances composite = generic.withOverlay(overlay, 1);
+		Problem problem = composite.toWeightedProblem();
+		Feature[][] x = problem.x;
+		double[] y = TronLogisticRegression.labels(problem.y);
+		double[] rowWeights = composite.rowWeights();
+		int numGenericRows = generic.numInstances();
+
+		LinearModel[] models = new LinearModel[weights.length];
+		LinearModel previous = initial;
+		iterations = 0;
+		for (int k : order) {
+			if (weights[k] < 0) {
+				throw new IllegalArgumentException("The weights must be non-negative!");
+			}
+			for (int i = numGenericRows; i < rowWeights.length; i++) {
+				rowWeights[i] = weights[k];
+			}
+			models[k] = solver.train(x, y, rowWeights, composite.numFeatures(), previous);
+			iterations += solver.iterations();
+			previous = models[k];
+		}
+		return models;
+	}
+}
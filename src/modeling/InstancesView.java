@@ -0,0 +1,126 @@
+package modeling;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A read-only view over a slice of the examples of a base data set, given as a range of an index array (e.g.
+ * a permutation of the base examples). Views share the index array of the view they are derived from, so
+ * taking a sub-range is O(1) and no example is copied until {@link #toInstances()} is called, which is needed
+ * only when the examples have to be handed to Weka.
+ */
+public class InstancesView {
+
+	private final Instances base;
+	private final int[] indices;
+	private final int from;
+	private final int to;
+
+	/**
+	 * Creates a view over the given range of an index array.
+	 *
+	 * @param base
+	 * @param indices
+	 *            Indices of examples of the base data set (not copied).
+	 * @param from
+	 *            The first position of the range (inclusive).
+	 * @param to
+	 *            The last position of the range (exclusive).
+	 */
+	public InstancesView(Instances base, int[] indices, int from, int to) {
+		if (from < 0 || to > indices.length || from > to) {
+			throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ") of " + indices.length
+					+ " indices!");
+		}
+		this.base = base;
+		this.indices = indices;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Returns a view over all examples of the given data set, in their current order.
+	 *
+	 * @param base
+	 * @return
+	 */
+	public static InstancesView of(Instances base) {
+		int[] indices = new int[base.numInstances()];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = i;
+		}
+		return new InstancesView(base, indices, 0, indices.length);
+	}
+
+	public Instances base() {
+		return base;
+	}
+
+	public int numInstances() {
+		return to - from;
+	}
+
+	/**
+	 * Returns the index in the base data set of the i-th example of the view.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public int baseIndex(int i) {
+		return indices[from + i];
+	}
+
+	public Instance instance(int i) {
+		return base.instance(indices[from + i]);
+	}
+
+	/**
+	 * Returns the view over examples [start, end) of this view.
+	 *
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public InstancesView range(int start, int end) {
+		if (start < 0 || end > numInstances() || start > end) {
+			throw new IllegalArgumentException("Invalid range [" + start + ", " + end + ") of a view with "
+					+ numInstances() + " examples!");
+		}
+		return new InstancesView(base, indices, from + start, from + end);
+	}
+
+	/**
+	 * Returns the view over the first k examples of this view.
+	 *
+	 * @param k
+	 * @return
+	 */
+	public InstancesView first(int k) {
+		return range(0, k);
+	}
+
+	/**
+	 * Returns the view over the last k examples of this view.
+	 *
+	 * @param k
+	 * @return
+	 */
+	public InstancesView last(int k) {
+		return range(numInstances() - k, numInstances());
+	}
+
+	/**
+	 * Materializes the view as Instances with the header of the base data set. The examples are added with
+	 * {@link Instances#add(Instance)}, which creates shallow copies that share their values with the base
+	 * examples.
+	 *
+	 * @return
+	 */
+	public Instances toInstances() {
+		Instances data = new Instances(base, numInstances());
+		for (int i = from; i < to; i++) {
+			data.add(base.instance(indices[i]));
+		}
+		return data;
+	}
+}
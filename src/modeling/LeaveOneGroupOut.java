@@ -0,0 +1,114 @@
+package modeling;
+
+import de.bwaldvogel.liblinear.Feature;
+import de.bwaldvogel.liblinear.Problem;
+import weka.classifiers.functions.LibLINEAR;
+import weka.core.Instances;
+
+/**
+ * Trains the models of a leave-one-group-out procedure (e.g. a model for each user trained on the examples of
+ * all other users) without solving each problem from scratch. The examples are converted once, a model is
+ * trained on all of them, and the model that leaves a group out is obtained by warm-starting
+ * {@link TronLogisticRegression} from that model on the examples of the other groups. Since the problems
+ * differ only by the examples of one group, few iterations are usually needed, and the models are within the
+ * solver's tolerance of those trained from scratch.
+ */
+public class LeaveOneGroupOut {
+
+	private final TronLogisticRegression solver;
+	private final int numFeatures;
+	private final Feature[][] rows;
+	private final double[] labels;
+	/** The group of each row (-1 if the example belongs to no group, such examples are never left out). */
+	private final int[] groupOf;
+	private final LinearModel fullModel;
+	private final int fullModelIterations;
+
+	/**
+	 * Converts the examples and trains the model on all of them.
+	 *
+	 * @param data
+	 * @param groupAttrIndex
+	 *            The index of the nominal attribute that defines the groups (e.g.
+	 *            {@link ConstantsAndUtils#userAttrIndex}).
+	 * @param indicesToIgnore
+	 *            The attributes that are not features, e.g. {@link ConstantsAndUtils#indicesToIgnore}.
+	 * @param liblinear
+	 *            The settings of the models (see {@link TronLogisticRegression#supports(Object)}).
+	 * @throws Exception
+	 */
+	public LeaveOneGroupOut(Instances data, int groupAttrIndex, String indicesToIgnore, LibLINEAR liblinear)
+			throws Exception {
+		solver = TronLogisticRegression.of(liblinear);
+		CompositeInstances composite = CompositeInstances.of(data, indicesToIgnore, liblinear.getBias());
+		numFeatures = composite.numFeatures();
+		Problem problem = composite.toWeightedProblem();
+		rows = problem.x;
+		labels = TronLogisticRegression.labels(problem.y);
+		groupOf = new int[data.numInstances()];
+		for (int i = 0; i < groupOf.length; i++) {
+			groupOf[i] = data.instance(i).isMissing(groupAttrIndex) ? -1
+					: (int) data.instance(i).value(groupAttrIndex);
+		}
+		fullModel = solver.train(rows, labels, ones(rows.length), numFeatures, null);
+		fullModelIterations = solver.iterations();
+	}
+
+	/**
+	 * Returns the model trained on all examples.
+	 *
+	 * @return
+	 */
+	public LinearModel fullModel() {
+		return fullModel;
+	}
+
+	public int fullModelIterations() {
+		return fullModelIterations;
+	}
+
+	/**
+	 * Returns the number of solver iterations of the last call to {@link #trainExcluding(int)}.
+	 *
+	 * @return
+	 */
+	public int iterations() {
+		return solver.iterations();
+	}
+
+	/**
+	 * Trains the model on the examples that do not belong to the given group, starting from the model trained
+	 * on all examples.
+	 *
+	 * @param group
+	 * @return The model, oriented towards the private class (without feature names).
+	 * @throws Exception
+	 */
+	public LinearModel trainExcluding(int group) throws Exception {
+		int size = 0;
+		for (int i = 0; i < rows.length; i++) {
+			if (groupOf[i] != group) {
+				size++;
+			}
+		}
+		Feature[][] x = new Feature[size][];
+		double[] y = new double[size];
+		size = 0;
+		for (int i = 0; i < rows.length; i++) {
+			if (groupOf[i] != group) {
+				x[size] = rows[i];
+				y[size] = labels[i];
+				size++;
+			}
+		}
+		return solver.train(x, y, ones(size), numFeatures, fullModel);
+	}
+
+	private static double[] ones(int length) {
+		double[] ones = new double[length];
+		for (int i = 0; i < length; i++) {
+			ones[i] = 1;
+		}
+		return ones;
+	}
+}
@@ -0,0 +1,35 @@
+package modeling;
+
+import de.bwaldvogel.liblinear.Problem;
+import weka.classifiers.functions.LibLINEAR;
+
+/**
+ * The {@link LinearSolver} that calls de.bwaldvogel.liblinear.Linear.train directly (see
+ * {@link LibLinearTrainer}), with the settings of a (Weka) LibLINEAR classifier. It trains the same models as
+ * the wrapper, with any of LibLinear's solvers, but cannot warm-start.
+ */
+public class LibLinearSolver implements LinearSolver {
+
+	private final LibLINEAR liblinear;
+
+	/**
+	 * @param liblinear
+	 *            The settings (solver, cost, tolerance, etc.) to use (see
+	 *            {@link LibLinearTrainer#supports(Object)}).
+	 * @throws Exception
+	 */
+	public LibLinearSolver(LibLINEAR liblinear) throws Exception {
+		if (!LibLinearTrainer.supports(liblinear)) {
+			throw new Exception("Normalization and class weights are not supported!");
+		}
+		this.liblinear = liblinear;
+	}
+
+	public LinearModel train(Problem problem, LinearModel initial) throws Exception {
+		return LibLinearTrainer.train(problem, liblinear);
+	}
+
+	public boolean warmStarts() {
+		return false;
+	}
+}
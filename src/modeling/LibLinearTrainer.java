@@ -0,0 +1,123 @@
+package modeling;
+
+import de.bwaldvogel.liblinear.Linear;
+import de.bwaldvogel.liblinear.Model;
+import de.bwaldvogel.liblinear.Parameter;
+import de.bwaldvogel.liblinear.Problem;
+import de.bwaldvogel.liblinear.SolverType;
+import weka.classifiers.functions.LibLINEAR;
+import weka.classifiers.meta.GridSearch9734Mod;
+
+/**
+ * Trains LibLinear models directly on {@link CompositeInstances}, with the settings of a (Weka) LibLINEAR
+ * classifier, e.g. the one returned by {@link ConstantsAndUtils#selectClassifier(String)}. The models are the
+ * same as those of a FilteredClassifier with that LibLINEAR and the Remove filter (see
+ * {@link ConstantsAndUtils#createFilteredClassifier}) trained on the concatenated examples.
+ */
+public class LibLinearTrainer {
+
+	/**
+	 * Guards the random generator of LibLinear, which is static: the solvers that draw from it (see
+	 * {@link #usesRandom(Object)}) are run under this lock after resetting it, so that their models do not
+	 * depend on the scheduling of concurrent trainings. The debug output of LibLinear is also global, it is
+	 * disabled once by the entry points.
+	 */
+	public static final Object RANDOM_LOCK = new Object();
+
+	/**
+	 * Returns true if models of the given classifier can be trained by this class.
+	 * 
+	 * @param classifier
+	 * @return
+	 */
+	public static boolean supports(Object classifier) {
+		if (!(classifier instanceof LibLINEAR)) {
+			return false;
+		}
+		LibLINEAR liblinear = (LibLINEAR) classifier;
+		return !liblinear.getNormalize() && liblinear.getWeights().length() == 0 && liblinear.getBias() >= 0;
+	}
+
+	/**
+	 * Returns true if the given classifier is a LibLINEAR (or a GridSearch9734Mod of a LibLINEAR) whose solver
+	 * draws from the random generator of LibLinear, i.e. all solvers except the primal (TRON) ones: L2R_LR
+	 * (0), L2R_L2LOSS_SVC (2) and L2R_L2LOSS_SVR (11). Such trainings have to run under {@link #RANDOM_LOCK}.
+	 * 
+	 * @param classifier
+	 * @return
+	 */
+	public static boolean usesRandom(Object classifier) {
+		if (classifier instanceof GridSearch9734Mod) {
+			classifier = ((GridSearch9734Mod) classifier).getClassifier();
+		}
+		if (!(classifier instanceof LibLINEAR)) {
+			return false;
+		}
+		int type = ((LibLINEAR) classifier).getSVMType().getSelectedTag().getID();
+		return type != 0 && type != 2 && type != 11;
+	}
+
+	/**
+	 * Trains a model on the given examples.
+	 * 
+	 * @param data
+	 * @param liblinear
+	 *            The settings (solver, cost, tolerance, etc.) to use.
+	 * @return The model, oriented towards the private class (without feature names).
+	 * @throws Exception
+	 */
+	public static LinearModel train(CompositeInstances data, LibLINEAR liblinear) throws Exception {
+		if (!supports(liblinear)) {
+			throw new Exception("Normalization and class weights are not supported!");
+		}
+		if (data.bias() != liblinear.getBias()) {
+			throw new Exception("The examples were converted with a different bias!");
+		}
+		return train(data.toProblem(), liblinear);
+	}
+
+	/**
+	 * Trains a model on the given problem, whose rows are laid out as those of {@link CompositeInstances}.
+	 * 
+	 * @param problem
+	 * @param liblinear
+	 *            The settings (solver, cost, tolerance, etc.) to use.
+	 * @return The model, oriented towards the private class (without feature names).
+	 * @throws Exception
+	 */
+	public static LinearModel train(Problem problem, LibLINEAR liblinear) throws Exception {
+		if (!supports(liblinear)) {
+			throw new Exception("Normalization and class weights are not supported!");
+		}
+		// same check as the wrapper
+		int index = 1;
+		while (index < problem.l && problem.y[index] == problem.y[0]) {
+			index++;
+		}
+		if (problem.l == 0 || index == problem.l) {
+			throw new Exception("All class values are the same. At least two class values should be different");
+		}
+		Model model;
+		if (usesRandom(liblinear)) {
+			synchronized (RANDOM_LOCK) {
+				Linear.resetRandom();
+				model = Linear.train(problem, parameters(liblinear));
+			}
+		} else {
+			model = Linear.train(problem, parameters(liblinear));
+		}
+		return ModelExtraction.fromLibLinearModel(model);
+	}
+
+	/**
+	 * Returns the LibLinear parameters of the given classifier.
+	 * 
+	 * @param liblinear
+	 * @return
+	 */
+	public static Parameter parameters(LibLINEAR liblinear) {
+		SolverType solverType = SolverType.getById(liblinear.getSVMType().getSelectedTag().getID());
+		return new Parameter(solverType, liblinear.getCost(), liblinear.getEps(),
+				liblinear.getMaximumNumberOfIterations(), liblinear.getEpsilonParameter());
+	}
+}
@@ -1,13 +1,34 @@
 package modeling;
 
-public class LinearModel {
+import java.io.Serializable;
+
+/**
+ * A binary logistic regression model. Weights are oriented so that a positive margin favors the private
+ * class, i.e. p(private|x) = 1 / (1 + exp(-(w*x + bias))).
+ */
+public class LinearModel implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 
 	private String[] features;
 	private double[] weights;
+	/** The intercept (already oriented towards the private class). */
+	private double bias;
+	/** The label order used by the solver that produced the model (e.g. LibLinear's getLabels()). */
+	private int[] labels;
+	/** A fingerprint of the data the model was trained on (0 when unknown). */
+	private long fingerprint;
 
 	public LinearModel(String[] features, double[] weights) {
+		this(features, weights, 0, new int[0], 0);
+	}
+
+	public LinearModel(String[] features, double[] weights, double bias, int[] labels, long fingerprint) {
 		this.features = features;
 		this.weights = weights;
+		this.bias = bias;
+		this.labels = labels;
+		this.fingerprint = fingerprint;
 	}
 
 	public String[] getFeatures() {
@@ -26,4 +47,52 @@ public class LinearModel {
 		this.weights = weights;
 	}
 
+	public double getBias() {
+		return bias;
+	}
+
+	public void setBias(double bias) {
+		this.bias = bias;
+	}
+
+	public int[] getLabels() {
+		return labels;
+	}
+
+	public void setLabels(int[] labels) {
+		this.labels = labels;
+	}
+
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	public void setFingerprint(long fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Returns w*x + bias for a dense feature vector x (same order as {@link #getFeatures()}).
+	 *
+	 * @param x
+	 * @return
+	 */
+	public double margin(double[] x) {
+		double sum = bias;
+		for (int i = 0; i < weights.length; i++) {
+			sum += weights[i] * x[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the probability of the private class for a dense feature vector x.
+	 *
+	 * @param x
+	 * @return
+	 */
+	public double probability(double[] x) {
+		return 1.0 / (1.0 + Math.exp(-margin(x)));
+	}
+
 }
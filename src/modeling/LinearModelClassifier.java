@@ -0,0 +1,122 @@
+package modeling;
+
+import java.util.Arrays;
+
+import weka.classifiers.AbstractClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * Exposes a {@link LinearModel} as a Weka classifier, so that it can be evaluated with Weka's
+ * {@link weka.classifiers.Evaluation}. Instances are given in the format of the original arff files; the
+ * columns of the model are mapped to the feature attributes of that format (i.e. all attributes except the
+ * ignored ones and the class).
+ */
+public class LinearModelClassifier extends AbstractClassifier {
+
+	private static final long serialVersionUID = 1L;
+
+	private LinearModel model;
+	/** Maps each attribute index of the original format to a column of the model (-1 if not a feature). */
+	private int[] columnOf;
+	/**
+	 * The attribute indices of the non-zero weights and their values, when the classifier scores a pruned
+	 * model (null otherwise).
+	 */
+	private int[] prunedAttributes;
+	private double[] prunedValues;
+
+	/**
+	 * @param model
+	 * @param header
+	 *            The format of the instances that will be classified.
+	 * @param indicesToIgnore
+	 *            The attributes that are not features, e.g. {@link ConstantsAndUtils#indicesToIgnore}.
+	 */
+	public LinearModelClassifier(LinearModel model, Instances header, String indicesToIgnore) {
+		int[] featureIndices = ConstantsAndUtils.featureIndices(header, indicesToIgnore);
+		if (featureIndices.length != model.getWeights().length) {
+			throw new IllegalArgumentException("Expected weight vector length = " + featureIndices.length
+					+ ". " + model.getWeights().length + " found!");
+		}
+		this.model = model;
+		columnOf = new int[header.numAttributes()];
+		Arrays.fill(columnOf, -1);
+		for (int j = 0; j < featureIndices.length; j++) {
+			columnOf[featureIndices[j]] = j;
+		}
+	}
+
+	/**
+	 * Scores only the non-zero weights of the given model, which are kept in compact index/value arrays: the
+	 * cost of scoring a dense instance is proportional to the number of non-zero weights instead of the number
+	 * of features (sparse instances are scored over their non-zero values, as by the dense model).
+	 *
+	 * @param model
+	 * @param header
+	 *            The format of the instances that will be classified.
+	 * @param indicesToIgnore
+	 *            The attributes that are not features, e.g. {@link ConstantsAndUtils#indicesToIgnore}.
+	 */
+	public LinearModelClassifier(SparseLinearModel model, Instances header, String indicesToIgnore) {
+		this(model.toLinearModel(null), header, indicesToIgnore);
+		int[] featureIndices = ConstantsAndUtils.featureIndices(header, indicesToIgnore);
+		int[] indices = model.indices();
+		prunedAttributes = new int[indices.length];
+		for (int k = 0; k < indices.length; k++) {
+			prunedAttributes[k] = featureIndices[indices[k]];
+		}
+		prunedValues = model.values();
+	}
+
+	public LinearModel getModel() {
+		return model;
+	}
+
+	/**
+	 * Not supported, the classifier is built from a given model.
+	 */
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		throw new Exception("LinearModelClassifier wraps an already built model!");
+	}
+
+	/**
+	 * Returns w*x + bias for the given instance (only its non-zero values are visited, or only the non-zero
+	 * weights of a pruned model).
+	 *
+	 * @param instance
+	 * @return
+	 */
+	public double margin(Instance instance) {
+		// the values of sparse instances are found by binary search, their non-zero values are visited instead
+		if (prunedAttributes != null && !(instance instanceof SparseInstance)) {
+			double sum = model.getBias();
+			for (int k = 0; k < prunedAttributes.length; k++) {
+				double value = instance.value(prunedAttributes[k]);
+				if (!Double.isNaN(value)) {
+					sum += prunedValues[k] * value;
+				}
+			}
+			return sum;
+		}
+		double[] weights = model.getWeights();
+		double sum = model.getBias();
+		for (int k = 0; k < instance.numValues(); k++) {
+			int column = columnOf[instance.index(k)];
+			if (column >= 0) {
+				double value = instance.valueSparse(k);
+				if (!Double.isNaN(value)) {
+					sum += weights[column] * value;
+				}
+			}
+		}
+		return sum;
+	}
+
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		return AbstractLinearClassifier.distribution(margin(instance), instance.numClasses());
+	}
+}
@@ -0,0 +1,272 @@
+package modeling;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads and writes {@link LinearModel}s in a compact binary format that can be memory-mapped, so that a
+ * model can be opened without deserializing any object graph. All values are little-endian and the weight
+ * block is 8-byte aligned. The layout is:
+ *
+ * <pre>
+ * int    magic ("LMB1")
+ * int    version
+ * int    numFeatures (d)
+ * int    numLabels (L)
+ * double bias
+ * long   fingerprint
+ * long   offset of the feature name table (0 if the names were not stored)
+ * int[L] labels (padded to 8 bytes)
+ * double[d] weights
+ * int[d+1] name offsets, followed by the UTF-8 bytes of all names (optional)
+ * </pre>
+ *
+ * {@link SparseLinearModel}s are encoded with a different magic ("LMS1") and store only the non-zero
+ * weights:
+ *
+ * <pre>
+ * int    magic ("LMS1")
+ * int    version
+ * int    numFeatures (d)
+ * int    number of non-zero weights (nnz)
+ * double bias
+ * long   fingerprint
+ * long   reserved
+ * int[nnz] indices (padded to 8 bytes)
+ * double[nnz] values
+ * </pre>
+ */
+public class LinearModelFile {
+
+	public static final int MAGIC = 0x4C4D4231;
+	public static final int SPARSE_MAGIC = 0x4C4D5331;
+	public static final int VERSION = 1;
+	/** Size of the fixed part of the header in bytes. */
+	public static final int HEADER_SIZE = 40;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Writes the given model in the binary format.
+	 *
+	 * @param model
+	 * @param file
+	 * @param withNames
+	 *            Whether to store the feature name table.
+	 * @throws IOException
+	 */
+	public static void write(LinearModel model, File file, boolean withNames) throws IOException {
+		ByteBuffer buffer = encode(model, withNames);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Memory-maps a model written by {@link #write(LinearModel, File, boolean)}. Weights are read directly
+	 * from the mapping (i.e. from the page cache) when the model is used.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static MappedLinearModel map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			return new MappedLinearModel(buffer);
+		} finally {
+			raf.close(); // the mapping stays valid after the channel is closed
+		}
+	}
+
+	/**
+	 * Reads a model into the heap.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static LinearModel read(File file) throws IOException {
+		return map(file).toLinearModel();
+	}
+
+	/**
+	 * Returns the number of bytes needed to encode the given model.
+	 *
+	 * @param model
+	 * @param withNames
+	 * @return
+	 */
+	public static int encodedSize(LinearModel model, boolean withNames) {
+		return (int) (weightsOffset(labelsOf(model).length) + 8L * model.getWeights().length
+				+ (withNames ? namesSize(model.getFeatures()) : 0));
+	}
+
+	/**
+	 * Encodes the given model into a new (little-endian) buffer, positioned at 0.
+	 *
+	 * @param model
+	 * @param withNames
+	 * @return
+	 */
+	public static ByteBuffer encode(LinearModel model, boolean withNames) {
+		ByteBuffer buffer = ByteBuffer.allocate(encodedSize(model, withNames));
+		encode(model, withNames, buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Encodes the given model at the current position of the given buffer. The buffer's byte order is set to
+	 * little-endian.
+	 *
+	 * @param model
+	 * @param withNames
+	 * @param buffer
+	 */
+	public static void encode(LinearModel model, boolean withNames, ByteBuffer buffer) {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		int start = buffer.position();
+		int[] labels = labelsOf(model);
+		double[] weights = model.getWeights();
+		int weightsOffset = weightsOffset(labels.length);
+		int namesOffset = withNames ? weightsOffset + 8 * weights.length : 0;
+
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(weights.length);
+		buffer.putInt(labels.length);
+		buffer.putDouble(model.getBias());
+		buffer.putLong(model.getFingerprint());
+		buffer.putLong(namesOffset);
+		for (int i = 0; i < labels.length; i++) {
+			buffer.putInt(labels[i]);
+		}
+		buffer.position(start + weightsOffset);
+		for (int i = 0; i < weights.length; i++) {
+			buffer.putDouble(weights[i]);
+		}
+		if (withNames) {
+			String[] features = model.getFeatures();
+			byte[][] bytes = new byte[features.length][];
+			int offset = 4 * (features.length + 1);
+			for (int i = 0; i < features.length; i++) {
+				bytes[i] = features[i].getBytes(UTF8);
+				buffer.putInt(offset);
+				offset += bytes[i].length;
+			}
+			buffer.putInt(offset);
+			for (int i = 0; i < features.length; i++) {
+				buffer.put(bytes[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bytes needed to encode the given sparse model.
+	 *
+	 * @param model
+	 * @return
+	 */
+	public static int encodedSize(SparseLinearModel model) {
+		return weightsOffset(model.nnz()) + 8 * model.nnz();
+	}
+
+	/**
+	 * Encodes the given sparse model at the current position of the given buffer. The buffer's byte order is
+	 * set to little-endian.
+	 *
+	 * @param model
+	 * @param buffer
+	 */
+	public static void encode(SparseLinearModel model, ByteBuffer buffer) {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		int start = buffer.position();
+		int[] indices = model.indices();
+		double[] values = model.values();
+		buffer.putInt(SPARSE_MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(model.numFeatures());
+		buffer.putInt(indices.length);
+		buffer.putDouble(model.bias());
+		buffer.putLong(model.fingerprint());
+		buffer.putLong(0);
+		for (int i = 0; i < indices.length; i++) {
+			buffer.putInt(indices[i]);
+		}
+		buffer.position(start + weightsOffset(indices.length));
+		for (int i = 0; i < values.length; i++) {
+			buffer.putDouble(values[i]);
+		}
+	}
+
+	/**
+	 * Decodes a sparse model that starts at the current position of the given buffer.
+	 *
+	 * @param buffer
+	 * @return
+	 */
+	public static SparseLinearModel decodeSparse(ByteBuffer buffer) {
+		ByteBuffer b = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		if (b.getInt(0) != SPARSE_MAGIC) {
+			throw new IllegalArgumentException("Not a sparse binary linear model!");
+		}
+		int numFeatures = b.getInt(8);
+		int nnz = b.getInt(12);
+		int[] indices = new int[nnz];
+		double[] values = new double[nnz];
+		b.position(HEADER_SIZE);
+		b.asIntBuffer().get(indices);
+		b.position(weightsOffset(nnz));
+		b.asDoubleBuffer().get(values);
+		SparseLinearModel model = new SparseLinearModel(numFeatures, indices, values, b.getDouble(16));
+		model.setFingerprint(b.getLong(24));
+		return model;
+	}
+
+	/**
+	 * Returns the magic number of the model that starts at the current position of the given buffer.
+	 *
+	 * @param buffer
+	 * @return
+	 */
+	static int magicOf(ByteBuffer buffer) {
+		return buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(buffer.position());
+	}
+
+	/**
+	 * Returns the offset of the weight block for a model with the given number of labels (or, for sparse
+	 * models, non-zero weights).
+	 *
+	 * @param numInts
+	 * @return
+	 */
+	static int weightsOffset(int numInts) {
+		return (HEADER_SIZE + 4 * numInts + 7) & ~7;
+	}
+
+	private static int namesSize(String[] features) {
+		int size = 4 * (features.length + 1);
+		for (int i = 0; i < features.length; i++) {
+			size += features[i].getBytes(UTF8).length;
+		}
+		return size;
+	}
+
+	private static int[] labelsOf(LinearModel model) {
+		return model.getLabels() == null ? new int[0] : model.getLabels();
+	}
+}
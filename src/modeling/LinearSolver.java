@@ -0,0 +1,33 @@
+package modeling;
+
+import de.bwaldvogel.liblinear.Problem;
+
+/**
+ * A backend that trains linear models directly on a LibLinear problem, bypassing Weka's LibLINEAR wrapper and
+ * its conversion of the Instances on every training. The rows of the problem are laid out as those of
+ * {@link CompositeInstances} (the feature columns, the unused column of the class attribute and the bias
+ * column) and its targets are class values, so a problem can be converted once and its rows shared by the
+ * training sets of an experiment. The backends are selected with
+ * {@link ConstantsAndUtils#selectSolver(String, weka.classifiers.Classifier)}.
+ */
+public interface LinearSolver {
+
+	/**
+	 * Trains a model on the given problem.
+	 *
+	 * @param problem
+	 * @param initial
+	 *            The starting point or null to start from w = 0. Ignored if the backend cannot warm-start (see
+	 *            {@link #warmStarts()}).
+	 * @return The model, oriented towards the private class (without feature names).
+	 * @throws Exception
+	 */
+	LinearModel train(Problem problem, LinearModel initial) throws Exception;
+
+	/**
+	 * Returns true if the backend starts the optimization from the given initial model.
+	 *
+	 * @return
+	 */
+	boolean warmStarts();
+}
@@ -0,0 +1,143 @@
+package modeling;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A read-only view of a {@link LinearModel} encoded in the {@link LinearModelFile} format. The view does not
+ * copy the weights; they are read from the underlying (typically memory-mapped) buffer on demand.
+ */
+public class MappedLinearModel {
+
+	private final ByteBuffer buffer;
+	private final int numFeatures;
+	private final int weightsOffset;
+	private final int namesOffset;
+
+	/**
+	 * @param buffer
+	 *            A buffer whose content (from position 0 to the limit) is a single encoded model.
+	 */
+	public MappedLinearModel(ByteBuffer buffer) {
+		this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		if (this.buffer.getInt(0) != LinearModelFile.MAGIC) {
+			throw new IllegalArgumentException("Not a binary linear model!");
+		}
+		if (this.buffer.getInt(4) != LinearModelFile.VERSION) {
+			throw new IllegalArgumentException("Unsupported model version: " + this.buffer.getInt(4));
+		}
+		numFeatures = this.buffer.getInt(8);
+		weightsOffset = LinearModelFile.weightsOffset(numLabels());
+		namesOffset = (int) this.buffer.getLong(32);
+	}
+
+	public int numFeatures() {
+		return numFeatures;
+	}
+
+	public int numLabels() {
+		return buffer.getInt(12);
+	}
+
+	public int[] labels() {
+		int[] labels = new int[numLabels()];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = buffer.getInt(LinearModelFile.HEADER_SIZE + 4 * i);
+		}
+		return labels;
+	}
+
+	public double bias() {
+		return buffer.getDouble(16);
+	}
+
+	public long fingerprint() {
+		return buffer.getLong(24);
+	}
+
+	public double weight(int i) {
+		return buffer.getDouble(weightsOffset + 8 * i);
+	}
+
+	public boolean hasFeatureNames() {
+		return namesOffset != 0;
+	}
+
+	public String featureName(int i) {
+		if (!hasFeatureNames()) {
+			return null;
+		}
+		int from = buffer.getInt(namesOffset + 4 * i);
+		int to = buffer.getInt(namesOffset + 4 * (i + 1));
+		byte[] bytes = new byte[to - from];
+		for (int j = 0; j < bytes.length; j++) {
+			bytes[j] = buffer.get(namesOffset + from + j);
+		}
+		return new String(bytes, LinearModelFile.UTF8);
+	}
+
+	/**
+	 * Returns w*x + bias for a dense feature vector x.
+	 *
+	 * @param x
+	 * @return
+	 */
+	public double margin(double[] x) {
+		double sum = bias();
+		int offset = weightsOffset;
+		for (int i = 0; i < numFeatures; i++) {
+			sum += buffer.getDouble(offset) * x[i];
+			offset += 8;
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns w*x + bias for a sparse feature vector given as (index, value) pairs.
+	 *
+	 * @param indices
+	 * @param values
+	 * @param size
+	 *            The number of valid pairs.
+	 * @return
+	 */
+	public double margin(int[] indices, double[] values, int size) {
+		double sum = bias();
+		for (int i = 0; i < size; i++) {
+			sum += weight(indices[i]) * values[i];
+		}
+		return sum;
+	}
+
+	public double probability(double[] x) {
+		return 1.0 / (1.0 + Math.exp(-margin(x)));
+	}
+
+	/**
+	 * Copies the weights into the given array.
+	 *
+	 * @param dest
+	 * @param destOffset
+	 */
+	public void copyWeights(double[] dest, int destOffset) {
+		ByteBuffer dup = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		dup.position(weightsOffset);
+		dup.asDoubleBuffer().get(dest, destOffset, numFeatures);
+	}
+
+	/**
+	 * Copies the model into the heap.
+	 *
+	 * @return
+	 */
+	public LinearModel toLinearModel() {
+		double[] weights = new double[numFeatures];
+		copyWeights(weights, 0);
+		String[] features = new String[numFeatures];
+		for (int i = 0; i < numFeatures; i++) {
+			features[i] = featureName(i);
+		}
+		return new LinearModel(features, weights, bias(), labels(), fingerprint());
+	}
+
+}
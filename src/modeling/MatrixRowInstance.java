@@ -0,0 +1,48 @@
+package modeling;
+
+/**
+ * A dense instance that exposes a row of a {@link DenseMatrixDataset} in the format of the original arff file,
+ * without copying its values (see {@link AbstractViewInstance}).
+ */
+public class MatrixRowInstance extends AbstractViewInstance {
+
+	private static final long serialVersionUID = 1L;
+
+	private final DenseMatrixDataset data;
+	private final int row;
+
+	/**
+	 * @param data
+	 * @param row
+	 *            The index of the viewed row.
+	 */
+	public MatrixRowInstance(DenseMatrixDataset data, int row) {
+		super(data.weight(row));
+		this.data = data;
+		this.row = row;
+	}
+
+	/**
+	 * Returns the index of the viewed row.
+	 *
+	 * @return
+	 */
+	public int row() {
+		return row;
+	}
+
+	@Override
+	protected double viewedValue(int attIndex) {
+		return data.value(row, attIndex);
+	}
+
+	@Override
+	protected int numViewedAttributes() {
+		return data.header().numAttributes();
+	}
+
+	@Override
+	protected AbstractViewInstance newView() {
+		return new MatrixRowInstance(data, row);
+	}
+}
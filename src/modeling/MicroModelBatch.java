@@ -0,0 +1,179 @@
+package modeling;
+
+import java.util.ArrayList;
+
+import de.bwaldvogel.liblinear.Feature;
+import de.bwaldvogel.liblinear.Problem;
+import weka.classifiers.evaluation.NominalPrediction;
+import weka.classifiers.evaluation.Prediction;
+import weka.classifiers.functions.LibLINEAR;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Trains many small models (e.g. the 'user' models of all folds of a user, each trained on a few examples) on
+ * subsets of the examples of one data set. The examples are converted to LibLinear rows once (see
+ * {@link CompositeInstances}), each model is described only by the indices and weights of its training rows,
+ * and its problem references the shared rows. Predictions are computed on the shared rows as well, so neither
+ * the training nor the test examples of a model are copied, filtered or converted again. Each model is still a
+ * separate LibLinear fit (the batch shares the examples, not the optimization), and the models are the same as
+ * those trained by {@link LibLinearTrainer} on the corresponding examples.
+ */
+public class MicroModelBatch {
+
+	private final Instances data;
+	private final int numFeatures;
+	private final double bias;
+	private final Feature[][] rows;
+	private final double[] classValues;
+	private final ArrayList<int[]> trainRows = new ArrayList<int[]>();
+	private final ArrayList<int[]> trainWeights = new ArrayList<int[]>();
+	private LinearModel[] models;
+
+	/**
+	 * Converts the examples of the batch.
+	 *
+	 * @param data
+	 *            The examples (must not be modified afterwards).
+	 * @param indicesToIgnore
+	 *            The attributes that are not features, e.g. {@link ConstantsAndUtils#indicesToIgnore}.
+	 * @param bias
+	 *            The value of the bias feature (LibLINEAR's bias, must be non-negative).
+	 * @throws Exception
+	 */
+	public MicroModelBatch(Instances data, String indicesToIgnore, double bias) throws Exception {
+		CompositeInstances composite = CompositeInstances.of(data, indicesToIgnore, bias);
+		Problem problem = composite.toWeightedProblem();
+		this.data = data;
+		this.numFeatures = composite.numFeatures();
+		this.bias = bias;
+		this.rows = problem.x;
+		this.classValues = problem.y;
+	}
+
+	public int numModels() {
+		return trainRows.size();
+	}
+
+	/**
+	 * Adds a model to the batch.
+	 *
+	 * @param indices
+	 *            The indices of the training examples of the model.
+	 * @param weights
+	 *            The number of times each training example is repeated (null repeats every example once).
+	 * @return The index of the model.
+	 */
+	public int add(int[] indices, int[] weights) {
+		if (weights != null && weights.length != indices.length) {
+			throw new IllegalArgumentException("Expected " + indices.length + " weights. " + weights.length
+					+ " found!");
+		}
+		trainRows.add(indices);
+		trainWeights.add(weights);
+		models = null;
+		return trainRows.size() - 1;
+	}
+
+	/**
+	 * Trains all models of the batch, one after the other.
+	 *
+	 * @param liblinear
+	 *            The settings (solver, cost, tolerance, etc.) to use (see
+	 *            {@link LibLinearTrainer#supports(Object)}).
+	 * @return The models, oriented towards the private class (without feature names), in the order they were
+	 *         added.
+	 * @throws Exception
+	 */
+	public LinearModel[] train(LibLINEAR liblinear) throws Exception {
+		if (liblinear.getBias() != bias) {
+			throw new Exception("The examples were converted with a different bias!");
+		}
+		models = new LinearModel[numModels()];
+		for (int m = 0; m < models.length; m++) {
+			models[m] = LibLinearTrainer.train(problem(m), liblinear);
+		}
+		return models;
+	}
+
+	/**
+	 * Returns the margins (w*x + bias) of the given examples under the given (trained) model.
+	 *
+	 * @param model
+	 * @param indices
+	 *            The indices of the examples.
+	 * @return
+	 */
+	public double[] margins(int model, int[] indices) {
+		LinearModel linearModel = trainedModel(model);
+		double[] weights = linearModel.getWeights();
+		double[] margins = new double[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			double sum = linearModel.getBias();
+			for (Feature feature : rows[indices[i]]) {
+				if (feature.getIndex() <= numFeatures) { // skip the bias feature
+					sum += weights[feature.getIndex() - 1] * feature.getValue();
+				}
+			}
+			margins[i] = sum;
+		}
+		return margins;
+	}
+
+	/**
+	 * Returns the predictions of the given (trained) model for the given examples, as those recorded by Weka's
+	 * Evaluation for a {@link LinearModelClassifier} of the model.
+	 *
+	 * @param model
+	 * @param indices
+	 *            The indices of the examples.
+	 * @return
+	 */
+	public ArrayList<Prediction> predictions(int model, int[] indices) {
+		double[] margins = margins(model, indices);
+		ArrayList<Prediction> predictions = new ArrayList<Prediction>(indices.length);
+		for (int i = 0; i < indices.length; i++) {
+			Instance instance = data.instance(indices[i]);
+			double p = 1.0 / (1.0 + Math.exp(-margins[i]));
+			double[] dist = new double[data.numClasses()];
+			dist[ConstantsAndUtils.privacyIndex] = p;
+			dist[1 - ConstantsAndUtils.privacyIndex] = 1 - p;
+			predictions.add(new NominalPrediction(classValues[indices[i]], dist, instance.weight()));
+		}
+		return predictions;
+	}
+
+	private LinearModel trainedModel(int model) {
+		if (models == null) {
+			throw new IllegalStateException("The models of the batch have not been trained!");
+		}
+		return models[model];
+	}
+
+	/**
+	 * Returns the LibLinear problem of the given model, whose rows reference the shared rows.
+	 */
+	private Problem problem(int model) {
+		int[] indices = trainRows.get(model);
+		int[] weights = trainWeights.get(model);
+		int l = 0;
+		for (int i = 0; i < indices.length; i++) {
+			l += weights == null ? 1 : weights[i];
+		}
+		Problem problem = new Problem();
+		problem.l = l;
+		problem.n = numFeatures + 2;
+		problem.bias = bias;
+		problem.x = new Feature[l][];
+		problem.y = new double[l];
+		int row = 0;
+		for (int i = 0; i < indices.length; i++) {
+			for (int k = 0; k < (weights == null ? 1 : weights[i]); k++) {
+				problem.x[row] = rows[indices[i]];
+				problem.y[row] = classValues[indices[i]];
+				row++;
+			}
+		}
+		return problem;
+	}
+}
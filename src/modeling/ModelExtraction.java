@@ -5,14 +5,21 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import de.bwaldvogel.liblinear.Model;
 import weka.classifiers.Classifier;
 import weka.classifiers.functions.LibLINEAR;
 import weka.classifiers.meta.FilteredClassifier;
+import weka.classifiers.meta.GridSearch9734Mod;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Utils;
@@ -29,6 +36,9 @@ import weka.filters.unsupervised.attribute.Remove;
  */
 public class ModelExtraction {
 
+	/** The number of models that are built in parallel. */
+	public static final int numThreads = Runtime.getRuntime().availableProcessors();
+
 	/**
 	 * @param args
 	 *            [0] Full path to the semfeat version of the YourAlert dataset (e.g.
@@ -37,138 +47,297 @@ public class ModelExtraction {
 	 *            [1] Full path to an output folder where model weights files will be written (e.g. "output/")
 	 * @param args
 	 *            [2] How many top private/public concepts to consider (e.g. "50")
+	 * @param args
+	 *            [3] (optional) "true" to additionally export the models in binary form: the per-user models
+	 *            are packed in a {@link UserModelStore} ("output/user-models.ums") and the generic model is
+	 *            written in the format of {@link LinearModelFile} ("output/generic.lmb")
+	 * @param args
+	 *            [4] (optional) Minimum support of the reported deviations, i.e. the minimum number of models
+	 *            for which a concept must be public (default "1", i.e. all deviations are reported)
+	 * @param args
+	 *            [5] (optional) "true" to train all models jointly in a single optimization with
+	 *            {@link MultiTaskLogisticRegression} (the generic model is then the shared component and each
+	 *            user model is the shared plus the user-specific component) instead of independently
+	 * @param args
+	 *            [6] (optional) Classifier selection (default "liblinear"): "liblinear", "liblinear-tuned",
+	 *            "liblinear-l1" or "liblinear-l1-tuned". The L1-regularized models have few non-zero weights:
+	 *            the number of non-zero weights of each model is then written in "output/sparsity.txt"
 	 * @throws Exception
 	 */
 	public static void main(String[] args) throws Exception {
 
 		String datasetPath = args[0];
-		String outputPath = args[1];
-		int topK = Integer.parseInt(args[2]);
-		String classifierChoice = "liblinear";
+		final String outputPath = args[1];
+		final int topK = Integer.parseInt(args[2]);
+		boolean exportBinary = args.length > 3 && Boolean.parseBoolean(args[3]);
+		int minSupport = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+		boolean multiTask = args.length > 5 && Boolean.parseBoolean(args[5]);
+		final String classifierChoice = args.length > 6 ? args[6] : "liblinear";
+		if (multiTask && !classifierChoice.equalsIgnoreCase("liblinear")) {
+			throw new Exception("Joint training supports only the 'liblinear' classifier!");
+		}
 
 		System.out.println("Loading YourAlert");
 		BufferedReader reader = new BufferedReader(new FileReader(datasetPath));
-		Instances data = new Instances(reader);
+		final Instances data = new Instances(reader);
 		data.setClassIndex(data.numAttributes() - 1); // set the class attribute
 		reader.close();
 
 		int numUsers = data.attribute(ConstantsAndUtils.userAttrIndex).numValues();
-		// top positive and negative features are stored in HashMaps to ease discovery of interesting
-		// deviations
-		HashSet<String>[] posFeatures = new HashSet[numUsers + 1];
-		HashSet<String>[] negFeatures = new HashSet[numUsers + 1];
-		// build and evaluate a model for each YourAlert user
+		// the (prettified) feature names are computed once and shared by all models
+		final String[] featureNames = prettyFeatureNames(data);
+		// separate the examples of each user in a single pass
+		final Instances[] usersData = new Instances[numUsers];
+		for (int userIdIndex = 0; userIdIndex < numUsers; userIdIndex++) {
+			usersData[userIdIndex] = new Instances(data, 0);
+		}
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance inst = data.instance(i);
+			if (!inst.isMissing(ConstantsAndUtils.userAttrIndex)) {
+				usersData[(int) inst.value(ConstantsAndUtils.userAttrIndex)].add(inst);
+			}
+		}
+		// the number of non-zero weights of each model (the generic last), reported for L1-regularized models
+		final int[] nonZeros = new int[numUsers + 1];
+		boolean reportSparsity = classifierChoice.toLowerCase().startsWith("liblinear-l1");
+		// the jointly trained models of the users and the generic model (last)
+		final LinearModel[] jointModels = multiTask ? buildMultiTaskModels(data, usersData, featureNames) : null;
+		final UserModelStore store = exportBinary
+				? UserModelStore.open(new File(outputPath + "user-models.ums"), featureNames.length) : null;
+
+		// build a model for each YourAlert user and a generic model using examples from all users (last), in
+		// parallel
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		ArrayList<Future<FeatureWeight[][]>> futures = new ArrayList<Future<FeatureWeight[][]>>(numUsers + 1);
 		for (int userIdIndex = 0; userIdIndex < numUsers; userIdIndex++) {
-			String user = data.attribute(ConstantsAndUtils.userAttrIndex).value(userIdIndex);
-			System.out.print("Building model for user: " + user);
-			// filtering data that belong to other users
-			Instances thisUserData = new Instances(data, 0);
-			for (int i = 0; i < data.numInstances(); i++) {
-				Instance inst = data.instance(i);
-				if (inst.value(ConstantsAndUtils.userAttrIndex) == userIdIndex) {
-					thisUserData.add(inst);
+			final int userIndex = userIdIndex;
+			final String user = data.attribute(ConstantsAndUtils.userAttrIndex).value(userIdIndex);
+			final Instances thisUserData = usersData[userIdIndex];
+			usersData[userIdIndex] = null; // the task owns the data from now on
+			futures.add(executor.submit(new Callable<FeatureWeight[][]>() {
+				public FeatureWeight[][] call() throws Exception {
+					System.out.println(
+							"Building model for user: " + user + ", # examples: " + thisUserData.numInstances());
+					LinearModel lm = jointModels != null ? jointModels[userIndex]
+							: buildLinearModel(thisUserData, classifierChoice, featureNames);
+					if (store != null) {
+						store.put(user, lm);
+					}
+					nonZeros[userIndex] = SparseLinearModel.prune(lm, 0).nnz();
+					return writeTopFeatures(lm, topK, outputPath + user);
 				}
+			}));
+		}
+		final boolean exportGeneric = exportBinary;
+		futures.add(executor.submit(new Callable<FeatureWeight[][]>() {
+			public FeatureWeight[][] call() throws Exception {
+				System.out.println("Building model on full dataset, # examples: " + data.numInstances());
+				LinearModel lm = jointModels != null ? jointModels[jointModels.length - 1]
+						: buildLinearModel(data, classifierChoice, featureNames);
+				if (exportGeneric) {
+					LinearModelFile.write(lm, new File(outputPath + "generic.lmb"), true);
+				}
+				nonZeros[nonZeros.length - 1] = SparseLinearModel.prune(lm, 0).nnz();
+				return writeTopFeatures(lm, topK, outputPath + "generic");
 			}
-			System.out.println(", # examples: " + thisUserData.numInstances());
-			// initialize a FilteredClassifier
-			FilteredClassifier classifier = ConstantsAndUtils.createFilteredClassifier(
-					ConstantsAndUtils.selectClassifier(classifierChoice), thisUserData,
-					ConstantsAndUtils.indicesToIgnore);
-			// build the model
-			classifier.buildClassifier(thisUserData);
-			thisUserData.delete(); // freeing resources
-			System.gc();
-			// extracting top features
-			FeatureWeight[][] allFW = getTopFeatures(classifier, topK);
-			FeatureWeight[] posFW = allFW[0];
-			FeatureWeight[] negFW = allFW[1];
-			// writing top features and weights in files
-			BufferedWriter out = new BufferedWriter(
-					new FileWriter(new File(outputPath + user + "-weights-private.txt")));
-			out.write("concept,weight\n");
-			out.write(topFeaaturesToCSVString(posFW));
-			out.close();
-			out = new BufferedWriter(new FileWriter(new File(outputPath + user + "-weights-public.txt")));
-			out.write("concept,weight\n");
-			out.write(topFeaaturesToCSVString(negFW));
-			out.close();
-			// populate hash maps for interesting deviation discovery
-			posFeatures[userIdIndex] = new HashSet<String>(topK);
-			for (int i = 0; i < topK; i++) {
-				posFeatures[userIdIndex].add(posFW[i].getFeature());
+		}));
+
+		// top positive features are stored in HashSets and negative features are indexed by concept (the models
+		// where each concept is public) to ease discovery of interesting deviations
+		HashSet<String>[] posFeatures = new HashSet[numUsers + 1];
+		ConceptIndex conceptIndex = new ConceptIndex();
+		try {
+			for (int i = 0; i < (numUsers + 1); i++) {
+				FeatureWeight[][] allFW;
+				try {
+					allFW = futures.get(i).get();
+				} catch (ExecutionException e) {
+					throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+				}
+				futures.set(i, null);
+				FeatureWeight[] posFW = allFW[0];
+				FeatureWeight[] negFW = allFW[1];
+				posFeatures[i] = new HashSet<String>(topK);
+				for (int j = 0; j < topK; j++) {
+					posFeatures[i].add(posFW[j].getFeature());
+				}
+				for (int j = 0; j < topK; j++) {
+					conceptIndex.addPublic(negFW[j].getFeature(), i);
+				}
 			}
-			negFeatures[userIdIndex] = new HashSet<String>(topK);
-			for (int i = 0; i < topK; i++) {
-				negFeatures[userIdIndex].add(negFW[i].getFeature());
+		} finally {
+			executor.shutdownNow();
+			if (store != null) {
+				store.close();
 			}
-
 		}
-
-		// build a generic model using examples from all users
-		System.out.println("Building model on full dataset, # examples: " + data.numInstances());
-		// initialize a FilteredClassifier
-		FilteredClassifier classifier = ConstantsAndUtils.createFilteredClassifier(
-				ConstantsAndUtils.selectClassifier(classifierChoice), data,
-				ConstantsAndUtils.indicesToIgnore);
-		// build the model
-		classifier.buildClassifier(data);
 		data.delete(); // freeing resources
-		System.gc();
-		// extracting top features
-		FeatureWeight[][] allFW = getTopFeatures(classifier, topK);
-		FeatureWeight[] posFW = allFW[0];
-		FeatureWeight[] negFW = allFW[1];
-		// writing features and weights in files
-		BufferedWriter out = new BufferedWriter(
-				new FileWriter(new File(outputPath + "generic-weights-private.txt")));
-		out.write("concept,weight\n");
-		out.write(topFeaaturesToCSVString(posFW));
-		out.close();
-		out = new BufferedWriter(new FileWriter(new File(outputPath + "generic-weights-public.txt")));
-		out.write("concept,weight\n");
-		out.write(topFeaaturesToCSVString(negFW));
-		out.close();
-		// populate hash maps for interesting deviation discovery
-		posFeatures[numUsers] = new HashSet<String>(topK);
-		for (int i = 0; i < topK; i++) {
-			posFeatures[numUsers].add(posFW[i].getFeature());
-		}
-		negFeatures[numUsers] = new HashSet<String>(topK);
-		for (int i = 0; i < topK; i++) {
-			negFeatures[numUsers].add(negFW[i].getFeature());
-		}
 
 		// discover interesting deviations
-		out = new BufferedWriter(new FileWriter(new File(outputPath + "deviations.txt")));
+		String[] modelNames = new String[numUsers + 1];
+		for (int i = 0; i < numUsers; i++) {
+			modelNames[i] = data.attribute(ConstantsAndUtils.userAttrIndex).value(i);
+		}
+		modelNames[numUsers] = "generic";
+		if (reportSparsity) {
+			writeSparsity(outputPath + "sparsity.txt", modelNames, nonZeros, featureNames.length);
+		}
+		BufferedWriter out = new BufferedWriter(new FileWriter(new File(outputPath + "deviations.txt")));
 		out.write("\n===Interesting Deviations (considering top " + topK
 				+ " private and public concepts) ===\n");
-		for (int i = 0; i < (numUsers + 1); i++) { // for each model
+		writeDeviations(out, posFeatures, conceptIndex, modelNames, minSupport);
+		out.close();
+
+	}
+
+	/**
+	 * Writes a line for each top private concept of each model that is among the top public concepts of at
+	 * least minSupport models. The models where the concept is public are looked up in the concept index, so
+	 * the cost is linear in the number of top concepts rather than quadratic in the number of models. Lines
+	 * are streamed to the writer as they are produced.
+	 * 
+	 * @param out
+	 * @param posFeatures
+	 *            The top private concepts of each model.
+	 * @param conceptIndex
+	 * @param modelNames
+	 * @param minSupport
+	 * @throws IOException
+	 */
+	private static void writeDeviations(BufferedWriter out, HashSet<String>[] posFeatures,
+			ConceptIndex conceptIndex, String[] modelNames, int minSupport) throws IOException {
+		minSupport = Math.max(minSupport, 1);
+		for (int i = 0; i < posFeatures.length; i++) { // for each model
 			// check if its top positive features are in the top negative features of another model
 			for (String feature : posFeatures[i]) {
-				ArrayList<String> negativeUsers = new ArrayList<String>();
-				for (int j = 0; j < (numUsers + 1); j++) {
-					if (negFeatures[j].contains(feature)) {
-						if (j == numUsers) {
-							negativeUsers.add("generic");
-						} else {
-							negativeUsers.add(data.attribute(ConstantsAndUtils.userAttrIndex).value(j));
-						}
-					}
+				if (conceptIndex.publicSupport(feature) < minSupport) {
+					continue;
 				}
-				if (negativeUsers.size() > 0) {
-					String user;
-					if (i == numUsers) {
-						user = "generic";
-					} else {
-						user = data.attribute(ConstantsAndUtils.userAttrIndex).value(i);
-					}
-					out.write("Concept: " + feature + " is private for model: " + user
-							+ " and public for models: " + negativeUsers.toString() + "\n");
+				int[] negativeModels = conceptIndex.publicModels(feature);
+				ArrayList<String> negativeUsers = new ArrayList<String>(negativeModels.length);
+				for (int j = 0; j < negativeModels.length; j++) {
+					negativeUsers.add(modelNames[negativeModels[j]]);
 				}
+				out.write("Concept: " + feature + " is private for model: " + modelNames[i]
+						+ " and public for models: " + negativeUsers.toString() + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Writes the number of non-zero weights and the sparsity (fraction of zero weights) of each model in the
+	 * given file, with the lines model,nonZeros,numFeatures,sparsity, and prints the mean sparsity of the user
+	 * models.
+	 * 
+	 * @param filename
+	 * @param modelNames
+	 * @param nonZeros
+	 * @param numFeatures
+	 * @throws IOException
+	 */
+	private static void writeSparsity(String filename, String[] modelNames, int[] nonZeros, int numFeatures)
+			throws IOException {
+		BufferedWriter out = new BufferedWriter(new FileWriter(new File(filename)));
+		out.write("model,nonZeros,numFeatures,sparsity\n");
+		double meanSparsity = 0;
+		for (int i = 0; i < modelNames.length; i++) {
+			double sparsity = numFeatures == 0 ? 0 : 1 - (double) nonZeros[i] / numFeatures;
+			out.write(modelNames[i] + "," + nonZeros[i] + "," + numFeatures + "," + sparsity + "\n");
+			if (i < modelNames.length - 1) {
+				meanSparsity += sparsity / (modelNames.length - 1);
 			}
 		}
 		out.close();
+		System.out.println("Mean sparsity of the user models: " + meanSparsity + ", non-zero weights of the "
+				+ "generic model: " + nonZeros[nonZeros.length - 1] + "/" + numFeatures);
+	}
 
+	/**
+	 * Builds a LibLinear model on the given data (ignoring the id, user and source attributes) and returns
+	 * its linear model, with the fingerprint of the data.
+	 * 
+	 * @param data
+	 * @param classifierChoice
+	 * @param featureNames
+	 *            The (shared) prettified feature names.
+	 * @return
+	 * @throws Exception
+	 */
+	private static LinearModel buildLinearModel(Instances data, String classifierChoice, String[] featureNames)
+			throws Exception {
+		// initialize a FilteredClassifier
+		FilteredClassifier classifier = ConstantsAndUtils.createFilteredClassifier(
+				ConstantsAndUtils.selectClassifier(classifierChoice), data, ConstantsAndUtils.indicesToIgnore);
+		// build the model (the solvers that draw from the global random generator of LibLinear, e.g. the L1
+		// one, train one at a time, so that the models do not depend on the scheduling of the threads)
+		if (LibLinearTrainer.usesRandom(classifier.getClassifier())) {
+			synchronized (LibLinearTrainer.RANDOM_LOCK) {
+				classifier.buildClassifier(data);
+			}
+		} else {
+			classifier.buildClassifier(data);
+		}
+		LinearModel lm = extractLinearModel(classifier, featureNames);
+		lm.setFingerprint(ConstantsAndUtils.fingerprint(data));
+		return lm;
+	}
+
+	/**
+	 * Trains the models of all users and the generic model jointly with {@link MultiTaskLogisticRegression},
+	 * with the settings of the 'liblinear' classifier, and returns them with the given feature names and the
+	 * fingerprints of their data.
+	 * 
+	 * @param data
+	 * @param usersData
+	 *            The examples of each user.
+	 * @param featureNames
+	 *            The (shared) prettified feature names.
+	 * @return The model of each user followed by the generic model.
+	 * @throws Exception
+	 */
+	private static LinearModel[] buildMultiTaskModels(Instances data, Instances[] usersData, String[] featureNames)
+			throws Exception {
+		LibLINEAR liblinear = (LibLINEAR) ConstantsAndUtils.selectClassifier("liblinear");
+		MultiTaskLogisticRegression trainer = new MultiTaskLogisticRegression(liblinear.getCost(),
+				liblinear.getEps(), 1);
+		System.out.println("Building all models jointly, # examples: " + data.numInstances());
+		long start = System.currentTimeMillis();
+		LinearModel[] models = trainer.train(data, ConstantsAndUtils.userAttrIndex,
+				ConstantsAndUtils.indicesToIgnore, liblinear.getBias());
+		System.out.println("Joint training time (ms): " + (System.currentTimeMillis() - start) + ", "
+				+ trainer.iterations() + " iterations");
+		for (int i = 0; i < models.length; i++) {
+			models[i].setFeatures(featureNames);
+			models[i].setFingerprint(ConstantsAndUtils.fingerprint(i < usersData.length ? usersData[i] : data));
+		}
+		return models;
+	}
+
+	/**
+	 * Writes the top private and public features of the given model and their weights in files with the
+	 * given prefix.
+	 * 
+	 * @param lm
+	 * @param topK
+	 * @param prefix
+	 *            e.g. "output/u1"
+	 * @return The top features (see {@link #getTopFeatures(LinearModel, int)}).
+	 * @throws IOException
+	 */
+	private static FeatureWeight[][] writeTopFeatures(LinearModel lm, int topK, String prefix)
+			throws IOException {
+		// extracting top features
+		FeatureWeight[][] allFW = getTopFeatures(lm, topK);
+		// writing top features and weights in files
+		BufferedWriter out = new BufferedWriter(new FileWriter(new File(prefix + "-weights-private.txt")));
+		out.write("concept,weight\n");
+		out.write(topFeaaturesToCSVString(allFW[0]));
+		out.close();
+		out = new BufferedWriter(new FileWriter(new File(prefix + "-weights-public.txt")));
+		out.write("concept,weight\n");
+		out.write(topFeaaturesToCSVString(allFW[1]));
+		out.close();
+		return allFW;
 	}
 
 	/**
@@ -183,26 +352,53 @@ public class ModelExtraction {
 	 * @throws Exception
 	 */
 	public static FeatureWeight[][] getTopFeatures(Classifier fc, int topK) throws Exception {
+		return getTopFeatures(extractLinearModel(fc), topK);
+	}
+
+	/**
+	 * Returns arrays of the top positive (private class) and negative (public class) features (concepts) of
+	 * the given model and corresponding weights. The features are selected with bounded heaps (see
+	 * {@link TopK}) and their order is the same as if the weights were sorted with Utils.stableSort.
+	 * 
+	 * @param lm
+	 * @param topK
+	 * @return FeatureWeight[0] contains the top positive (private class) and FeatureWeight[1] contains the
+	 *         top negative (public class) features (concepts) and corresponding weights.
+	 */
+	public static FeatureWeight[][] getTopFeatures(LinearModel lm, int topK) {
 		FeatureWeight[][] featuresAndWeights = new FeatureWeight[2][];
-		LinearModel lm = extractLinearModel(fc);
 		double[] weights = lm.getWeights();
 		String[] features = lm.getFeatures();
-		int[] sortedIndices = Utils.stableSort(weights);
 
+		int[] largest = TopK.largest(weights, topK);
 		featuresAndWeights[0] = new FeatureWeight[topK]; // positive first
 		for (int i = 0; i < topK; i++) {
-			int posInOriginal = sortedIndices[sortedIndices.length - 1 - i];
-			featuresAndWeights[0][i] = new FeatureWeight(features[posInOriginal], weights[posInOriginal]);
+			featuresAndWeights[0][i] = new FeatureWeight(features[largest[i]], weights[largest[i]]);
 		}
 
+		int[] smallest = TopK.smallest(weights, topK);
 		featuresAndWeights[1] = new FeatureWeight[topK]; // negative next
 		for (int i = 0; i < topK; i++) {
-			int posInOriginal = sortedIndices[i];
-			featuresAndWeights[1][i] = new FeatureWeight(features[posInOriginal], weights[posInOriginal]);
+			featuresAndWeights[1][i] = new FeatureWeight(features[smallest[i]], weights[smallest[i]]);
 		}
 		return featuresAndWeights;
 	}
 
+	/**
+	 * Writes the linear model of the given classifier in the binary format of {@link LinearModelFile}.
+	 * 
+	 * @param fc
+	 * @param fingerprint
+	 *            A fingerprint of the training data (see {@link ConstantsAndUtils#fingerprint(Instances)}).
+	 * @param file
+	 * @throws Exception
+	 */
+	public static void exportLinearModel(Classifier fc, long fingerprint, File file) throws Exception {
+		LinearModel lm = extractLinearModel(fc);
+		lm.setFingerprint(fingerprint);
+		LinearModelFile.write(lm, file, true);
+	}
+
 	private static String topFeaaturesToCSVString(FeatureWeight[] fw) {
 		int numDecimalPoints = 4;
 		StringBuilder sb = new StringBuilder();
@@ -219,24 +415,89 @@ public class ModelExtraction {
 	 * a FilteredClassifier that uses LibLinear as the classifier and Remove as the Filter is given.
 	 * 
 	 * @param fc
-	 *            A FilteredClassifier with LibLINEAR as the classifier and Remove as the filter.
+	 *            A FilteredClassifier (e.g. a {@link ColumnProjectionClassifier}) with LibLINEAR (or an
+	 *            {@link AbstractLinearClassifier}, e.g. {@link HogwildLogisticRegression}) as the classifier and
+	 *            Remove as the filter.
+	 * @return
+	 * @throws Exception
+	 */
+	public static LinearModel extractLinearModel(Classifier fc) throws Exception {
+		return extractLinearModel(fc, null);
+	}
+
+	/**
+	 * Same as {@link #extractLinearModel(Classifier)} but uses the given (prettified) feature names instead
+	 * of recomputing them from the output format of the filter.
+	 * 
+	 * @param fc
+	 * @param featureNames
+	 *            The feature names or null to compute them.
 	 * @return
 	 * @throws Exception
 	 */
-	private static LinearModel extractLinearModel(Classifier fc) throws Exception {
+	public static LinearModel extractLinearModel(Classifier fc, String[] featureNames) throws Exception {
 		// check if the classifier belongs to the LibLinear class
 		Classifier classifier = ((FilteredClassifier) fc).getClassifier();
 		Filter filter = ((FilteredClassifier) fc).getFilter();
-		if (!(classifier instanceof LibLINEAR)) {
-			throw new Exception("Method works only for LibLinear classifier!");
+		if (classifier instanceof GridSearch9734Mod) {
+			// the LibLINEAR trained with the best parameters (the filter of the grid search is an AllFilter)
+			classifier = ((GridSearch9734Mod) classifier).getClassifier();
+		}
+		if (!(classifier instanceof LibLINEAR) && !(classifier instanceof AbstractLinearClassifier
+				&& ((AbstractLinearClassifier) classifier).getModel() != null)) {
+			throw new Exception("Method works only for LibLinear (or AbstractLinearClassifier with a linear "
+					+ "model) classifier!");
 		}
 		if (!(filter instanceof Remove)) {
 			throw new Exception("Method works only for Remove filter!");
 		}
 		// get the model
-		Model model = ((LibLINEAR) classifier).getModel();
-		((LibLINEAR) classifier).getWeights();
+		LinearModel lm;
+		if (classifier instanceof AbstractLinearClassifier) {
+			LinearModel trained = ((AbstractLinearClassifier) classifier).getModel();
+			lm = new LinearModel(null, trained.getWeights().clone(), trained.getBias(), trained.getLabels(), 0);
+		} else {
+			lm = fromLibLinearModel(((LibLINEAR) classifier).getModel());
+		}
+		double[] weights = lm.getWeights();
+		// get the attribute indices that are ignored by the filtered classifier
+		Instances outputFormat = ((Remove) filter).getOutputFormat();
+		// sanity check that the length of the weight vector is equal to the number of (non-ignored) features
+		if (outputFormat.numAttributes() - 1 != weights.length) {
+			throw new Exception("Expected weight vector length = " + (outputFormat.numAttributes() - 1) + ". "
+					+ weights.length + " found!");
+		}
+
+		String[] features = featureNames;
+		if (features == null) {
+			features = new String[weights.length];
+			int index = 0;
+			for (int i = 0; i < outputFormat.numAttributes(); i++) {
+				if (i != outputFormat.classIndex()) {
+					features[index] = outputFormat.attribute(i).name();
+					features[index] = prettyFormatSemfeat(features[index]);
+					index++;
+				}
+			}
+		} else if (features.length != weights.length) {
+			throw new Exception("Expected " + weights.length + " feature names. " + features.length + " found!");
+		}
+		lm.setFeatures(features);
+		return lm;
+	}
+
+	/**
+	 * Returns the weights and bias of a logistic regression model trained by LibLinear on a problem built in
+	 * the way of Weka's LibLINEAR wrapper (one column per attribute of the filtered data including the class,
+	 * followed by the bias feature). The returned model has no feature names.
+	 * 
+	 * @param model
+	 * @return
+	 */
+	public static LinearModel fromLibLinearModel(Model model) {
 		double[] weights = model.getFeatureWeights();
+		// the last weight is that of the bias term (the wrapper puts the bias feature after the class index)
+		double bias = weights[weights.length - 1];
 		// remove weight of the bias term + 1, due to a known bug in LIBLINEAR
 		weights = Arrays.copyOfRange(weights, 0, weights.length - 2);
 		// !!! RETURNED WEIGHTS HAVE INVERTED SIGNS (SOMETIMES) IN LIBLINEAR!!!
@@ -245,25 +506,25 @@ public class ModelExtraction {
 			for (int i = 0; i < weights.length; i++) {
 				weights[i] = -weights[i];
 			}
+			bias = -bias;
 		}
-		// get the attribute indices that are ignored by the filtered classifier
-		Instances outputFormat = ((Remove) filter).getOutputFormat();
-		// sanity check that the length of the weight vector is equal to the number of (non-ignored) features
-		if (outputFormat.numAttributes() - 1 != weights.length) {
-			throw new Exception("Expected weight vector length = " + (outputFormat.numAttributes() - 1) + ". "
-					+ weights.length + " found!");
-		}
+		return new LinearModel(null, weights, bias, labels, 0);
+	}
 
-		String[] features = new String[weights.length];
-		int index = 0;
-		for (int i = 0; i < outputFormat.numAttributes(); i++) {
-			if (i != outputFormat.classIndex()) {
-				features[index] = outputFormat.attribute(i).name();
-				features[index] = prettyFormatSemfeat(features[index]);
-				index++;
-			}
+	/**
+	 * Returns the prettified names of the features of the given data set (see
+	 * {@link ConstantsAndUtils#featureIndices(Instances, String)}).
+	 * 
+	 * @param data
+	 * @return
+	 */
+	private static String[] prettyFeatureNames(Instances data) {
+		int[] featureIndices = ConstantsAndUtils.featureIndices(data, ConstantsAndUtils.indicesToIgnore);
+		String[] names = new String[featureIndices.length];
+		for (int i = 0; i < featureIndices.length; i++) {
+			names[i] = prettyFormatSemfeat(data.attribute(featureIndices[i]).name());
 		}
-		return new LinearModel(features, weights);
+		return names;
 	}
 
 	private static String prettyFormatSemfeat(String name) {
@@ -0,0 +1,192 @@
+package modeling;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Scores one example under the personal models of many users in a single pass. The weights of the selected
+ * users are packed in a contiguous row-major users x features matrix, and all margins are computed with one
+ * blocked matrix-vector product: the features are processed in blocks that fit in the cache and four user
+ * rows are accumulated at a time, so that each block of the example is loaded once per four users.
+ */
+public class MultiModelScorer {
+
+	/** Number of features processed per block (the block of x stays in the L1 cache). */
+	public static final int BLOCK_SIZE = 2048;
+
+	private final String[] users;
+	private final int numFeatures;
+	/** Row-major users x features matrix. */
+	private final double[] weights;
+	private final double[] biases;
+
+	private MultiModelScorer(String[] users, int numFeatures) {
+		if ((long) users.length * numFeatures > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many users for a single packed matrix!");
+		}
+		this.users = users;
+		this.numFeatures = numFeatures;
+		this.weights = new double[users.length * numFeatures];
+		this.biases = new double[users.length];
+	}
+
+	/**
+	 * Packs the given models.
+	 *
+	 * @param users
+	 *            The users, in the order in which their scores will be returned.
+	 * @param models
+	 *            The model of each user.
+	 * @return
+	 */
+	public static MultiModelScorer pack(List<String> users, List<LinearModel> models) {
+		if (users.size() != models.size()) {
+			throw new IllegalArgumentException("One model per user is needed!");
+		}
+		int numFeatures = models.isEmpty() ? 0 : models.get(0).getWeights().length;
+		MultiModelScorer scorer = new MultiModelScorer(users.toArray(new String[users.size()]), numFeatures);
+		for (int u = 0; u < models.size(); u++) {
+			LinearModel model = models.get(u);
+			if (model.getWeights().length != numFeatures) {
+				throw new IllegalArgumentException("Models have different dimensionality!");
+			}
+			System.arraycopy(model.getWeights(), 0, scorer.weights, u * numFeatures, numFeatures);
+			scorer.biases[u] = model.getBias();
+		}
+		return scorer;
+	}
+
+	/**
+	 * Packs the models of the given users directly from a store. Users whose model is stored as a delta are
+	 * expanded over the given generic model.
+	 *
+	 * @param store
+	 * @param users
+	 * @param generic
+	 *            The generic model of the deltas (may be null if the store contains no deltas).
+	 * @return
+	 * @throws IOException
+	 */
+	public static MultiModelScorer pack(UserModelStore store, List<String> users, LinearModel generic)
+			throws IOException {
+		int numFeatures = store.numFeatures();
+		MultiModelScorer scorer = new MultiModelScorer(users.toArray(new String[users.size()]), numFeatures);
+		for (int u = 0; u < users.size(); u++) {
+			String user = users.get(u);
+			if (!store.contains(user)) {
+				throw new IllegalArgumentException("No model for user: " + user);
+			}
+			int offset = u * numFeatures;
+			if (store.isDelta(user)) {
+				if (generic == null) {
+					throw new IllegalArgumentException("A generic model is needed for the delta of user: " + user);
+				}
+				SparseLinearModel delta = store.getDelta(user);
+				System.arraycopy(generic.getWeights(), 0, scorer.weights, offset, numFeatures);
+				int[] indices = delta.indices();
+				double[] values = delta.values();
+				for (int k = 0; k < indices.length; k++) {
+					scorer.weights[offset + indices[k]] += values[k];
+				}
+				scorer.biases[u] = generic.getBias() + delta.bias();
+			} else {
+				MappedLinearModel model = store.get(user);
+				model.copyWeights(scorer.weights, offset);
+				scorer.biases[u] = model.bias();
+			}
+		}
+		return scorer;
+	}
+
+	public int numUsers() {
+		return users.length;
+	}
+
+	public int numFeatures() {
+		return numFeatures;
+	}
+
+	public String[] users() {
+		return users;
+	}
+
+	/**
+	 * Computes the margin of a dense example under every packed model.
+	 *
+	 * @param x
+	 * @param margins
+	 *            Output array of length {@link #numUsers()}.
+	 */
+	public void margins(double[] x, double[] margins) {
+		int numUsers = users.length;
+		int d = numFeatures;
+		System.arraycopy(biases, 0, margins, 0, numUsers);
+		for (int from = 0; from < d; from += BLOCK_SIZE) {
+			int to = Math.min(d, from + BLOCK_SIZE);
+			int u = 0;
+			for (; u + 3 < numUsers; u += 4) {
+				int r0 = u * d;
+				int r1 = r0 + d;
+				int r2 = r1 + d;
+				int r3 = r2 + d;
+				double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+				for (int j = from; j < to; j++) {
+					double xj = x[j];
+					s0 += weights[r0 + j] * xj;
+					s1 += weights[r1 + j] * xj;
+					s2 += weights[r2 + j] * xj;
+					s3 += weights[r3 + j] * xj;
+				}
+				margins[u] += s0;
+				margins[u + 1] += s1;
+				margins[u + 2] += s2;
+				margins[u + 3] += s3;
+			}
+			for (; u < numUsers; u++) {
+				int r = u * d;
+				double s = 0;
+				for (int j = from; j < to; j++) {
+					s += weights[r + j] * x[j];
+				}
+				margins[u] += s;
+			}
+		}
+	}
+
+	/**
+	 * Computes the margin of a sparse example, given as (index, value) pairs, under every packed model.
+	 *
+	 * @param indices
+	 * @param values
+	 * @param size
+	 *            The number of valid pairs.
+	 * @param margins
+	 *            Output array of length {@link #numUsers()}.
+	 */
+	public void margins(int[] indices, double[] values, int size, double[] margins) {
+		int d = numFeatures;
+		for (int u = 0; u < users.length; u++) {
+			int r = u * d;
+			double s = biases[u];
+			for (int k = 0; k < size; k++) {
+				s += weights[r + indices[k]] * values[k];
+			}
+			margins[u] = s;
+		}
+	}
+
+	/**
+	 * Returns the probability of the private class of a dense example under every packed model.
+	 *
+	 * @param x
+	 * @return
+	 */
+	public double[] probabilities(double[] x) {
+		double[] scores = new double[users.length];
+		margins(x, scores);
+		for (int u = 0; u < scores.length; u++) {
+			scores[u] = 1.0 / (1.0 + Math.exp(-scores[u]));
+		}
+		return scores;
+	}
+}
@@ -0,0 +1,116 @@
+package modeling;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Measures the throughput of scoring an image under the personal models of 10, 100 and 1000 users with
+ * {@link MultiModelScorer}, compared to the per-model loop (one distributionForInstance call per model, and
+ * one dot product per model). Random models and images are used.
+ */
+public class MultiModelScoringBenchmark {
+
+	/** Keeps the JIT from discarding the computed scores. */
+	static double sink;
+
+	/**
+	 * @param args
+	 *            [0] (optional) The number of features (default 5000)
+	 * @param args
+	 *            [1] (optional) The number of images scored per measurement (default 200)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int numFeatures = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int numImages = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int[] numUsersList = { 10, 100, 1000 };
+		int numRepetitions = 5;
+
+		Random random = new Random(ConstantsAndUtils.seed);
+		Instances header = createHeader(numFeatures);
+		double[][] images = new double[numImages][numFeatures];
+		Instance[] instances = new Instance[numImages];
+		for (int i = 0; i < numImages; i++) {
+			double[] values = new double[header.numAttributes()];
+			for (int j = 0; j < numFeatures; j++) {
+				images[i][j] = random.nextDouble();
+				values[j + 3] = images[i][j];
+			}
+			instances[i] = new DenseInstance(1, values);
+			instances[i].setDataset(header);
+		}
+
+		System.out.println("users,per-model weka (images/s),per-model dot (images/s),packed (images/s)");
+		for (int numUsers : numUsersList) {
+			ArrayList<String> users = new ArrayList<String>(numUsers);
+			ArrayList<LinearModel> models = new ArrayList<LinearModel>(numUsers);
+			LinearModelClassifier[] classifiers = new LinearModelClassifier[numUsers];
+			for (int u = 0; u < numUsers; u++) {
+				double[] weights = new double[numFeatures];
+				for (int j = 0; j < numFeatures; j++) {
+					weights[j] = random.nextGaussian();
+				}
+				LinearModel model = new LinearModel(null, weights, random.nextGaussian(), new int[] { 1, 0 }, 0);
+				users.add("u" + u);
+				models.add(model);
+				classifiers[u] = new LinearModelClassifier(model, header, ConstantsAndUtils.indicesToIgnore);
+			}
+			MultiModelScorer scorer = MultiModelScorer.pack(users, models);
+
+			double checksum = 0;
+			double[] margins = new double[numUsers];
+			long[] times = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+			for (int rep = 0; rep < numRepetitions; rep++) { // the best repetition is reported
+				long start = System.nanoTime();
+				for (int i = 0; i < numImages; i++) {
+					for (int u = 0; u < numUsers; u++) {
+						checksum += classifiers[u].distributionForInstance(instances[i])[1];
+					}
+				}
+				times[0] = Math.min(times[0], System.nanoTime() - start);
+				start = System.nanoTime();
+				for (int i = 0; i < numImages; i++) {
+					for (int u = 0; u < numUsers; u++) {
+						checksum += models.get(u).margin(images[i]);
+					}
+				}
+				times[1] = Math.min(times[1], System.nanoTime() - start);
+				start = System.nanoTime();
+				for (int i = 0; i < numImages; i++) {
+					scorer.margins(images[i], margins);
+					checksum += margins[0];
+				}
+				times[2] = Math.min(times[2], System.nanoTime() - start);
+			}
+			System.out.println(numUsers + "," + throughput(numImages, times[0]) + ","
+					+ throughput(numImages, times[1]) + "," + throughput(numImages, times[2]));
+			sink += checksum;
+		}
+	}
+
+	private static long throughput(int numImages, long nanos) {
+		return Math.round(numImages / (nanos / 1e9));
+	}
+
+	private static Instances createHeader(int numFeatures) {
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>(numFeatures + 4);
+		attributes.add(new Attribute("id", (ArrayList<String>) null));
+		attributes.add(new Attribute("user", (ArrayList<String>) null));
+		attributes.add(new Attribute("source", (ArrayList<String>) null));
+		for (int j = 0; j < numFeatures; j++) {
+			attributes.add(new Attribute("feat_" + (j + 1)));
+		}
+		ArrayList<String> classValues = new ArrayList<String>();
+		classValues.add("0");
+		classValues.add("1");
+		attributes.add(new Attribute("private", classValues));
+		Instances header = new Instances("benchmark", attributes, 0);
+		header.setClassIndex(header.numAttributes() - 1);
+		return header;
+	}
+}
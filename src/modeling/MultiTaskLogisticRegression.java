@@ -0,0 +1,226 @@
+package modeling;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Trains the models of all tasks (e.g. the users of YourAlert) jointly, in a single optimization: the model of
+ * task t is w_t = w_0 + v_t, where w_0 is a generic component shared by all tasks and v_t a task-specific
+ * component, and the objective is
+ *
+ * <pre>
+ * ||w_0||^2 / (2 * a^2) + sum_t 0.5 * ||v_t||^2 + sum_i C * weight_i * log(1 + exp(-y_i * w_task(i) * x_i))
+ * </pre>
+ *
+ * where a (the shared weight) controls how much the tasks share: a larger a makes the generic component
+ * cheaper. Examples without a task only contribute to the generic component. The intercepts are regularized as
+ * LibLinear's bias feature. The problem is that of LibLinear's L2R_LR on examples whose features are augmented
+ * with a copy in the block of their task, and it is solved with {@link TronLogisticRegression}, but the
+ * augmented examples are never built: every product of the solver visits the non-zero features of each example
+ * once for the generic and the task component together, instead of once per task model (and once more for the
+ * generic model) as when the models are trained independently.
+ */
+public class MultiTaskLogisticRegression {
+
+	/**
+	 * The examples as augmented rows: the columns of the generic component (the features and the bias, scaled
+	 * by the shared weight) followed by the columns of each task.
+	 */
+	private static class MultiTaskRows implements TronLogisticRegression.Rows {
+		private final int[] rowStart;
+		private final int[] columns;
+		private final double[] values;
+		private final int[] tasks;
+		private final int blockSize;
+		private final double bias;
+		private final double sharedWeight;
+
+		MultiTaskRows(int[] rowStart, int[] columns, double[] values, int[] tasks, int blockSize, double bias,
+				double sharedWeight) {
+			this.rowStart = rowStart;
+			this.columns = columns;
+			this.values = values;
+			this.tasks = tasks;
+			this.blockSize = blockSize;
+			this.bias = bias;
+			this.sharedWeight = sharedWeight;
+		}
+
+		public int numRows() {
+			return tasks.length;
+		}
+
+		public void Xv(double[] v, double[] Xv) {
+			int biasColumn = blockSize - 1;
+			for (int i = 0; i < tasks.length; i++) {
+				double shared = v[biasColumn] * bias;
+				if (tasks[i] < 0) {
+					for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+						shared += v[columns[k]] * values[k];
+					}
+					Xv[i] = sharedWeight * shared;
+				} else {
+					int offset = (tasks[i] + 1) * blockSize;
+					double task = v[offset + biasColumn] * bias;
+					for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+						shared += v[columns[k]] * values[k];
+						task += v[offset + columns[k]] * values[k];
+					}
+					Xv[i] = sharedWeight * shared + task;
+				}
+			}
+		}
+
+		public void XTv(double[] v, double[] XTv) {
+			for (int j = 0; j < XTv.length; j++) {
+				XTv[j] = 0;
+			}
+			int biasColumn = blockSize - 1;
+			for (int i = 0; i < tasks.length; i++) {
+				double shared = sharedWeight * v[i];
+				XTv[biasColumn] += shared * bias;
+				if (tasks[i] < 0) {
+					for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+						XTv[columns[k]] += shared * values[k];
+					}
+				} else {
+					int offset = (tasks[i] + 1) * blockSize;
+					XTv[offset + biasColumn] += v[i] * bias;
+					for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+						XTv[columns[k]] += shared * values[k];
+						XTv[offset + columns[k]] += v[i] * values[k];
+					}
+				}
+			}
+		}
+	}
+
+	private final double cost;
+	private final double eps;
+	private final double sharedWeight;
+
+	/** The number of Newton iterations of the last training. */
+	private int iterations;
+
+	/**
+	 * @param cost
+	 *            LibLinear's C.
+	 * @param eps
+	 *            LibLinear's tolerance of the termination criterion.
+	 * @param sharedWeight
+	 *            The weight a of the generic component (e.g. 1).
+	 */
+	public MultiTaskLogisticRegression(double cost, double eps, double sharedWeight) {
+		this.cost = cost;
+		this.eps = eps;
+		this.sharedWeight = sharedWeight;
+	}
+
+	public int iterations() {
+		return iterations;
+	}
+
+	/**
+	 * Trains the models of all tasks jointly. The task of each example is the value of a nominal attribute
+	 * (e.g. {@link ConstantsAndUtils#userAttrIndex}); examples with a missing class are skipped.
+	 *
+	 * @param data
+	 *            The examples (the class is the last attribute).
+	 * @param taskAttrIndex
+	 *            The index of the nominal attribute of the tasks.
+	 * @param indicesToIgnore
+	 *            The attributes that are not features, e.g. {@link ConstantsAndUtils#indicesToIgnore}.
+	 * @param bias
+	 *            The value of the bias feature (LibLINEAR's bias, must be non-negative).
+	 * @return The model of each task (in the order of the values of the task attribute) followed by the
+	 *         generic component, oriented towards the private class (without feature names).
+	 * @throws Exception
+	 */
+	public LinearModel[] train(Instances data, int taskAttrIndex, String indicesToIgnore, double bias)
+			throws Exception {
+		if (bias < 0) {
+			throw new IllegalArgumentException("Only problems with a bias feature are supported!");
+		}
+		int[] featureIndices = ConstantsAndUtils.featureIndices(data, indicesToIgnore);
+		int numFeatures = featureIndices.length;
+		int numTasks = data.attribute(taskAttrIndex).numValues();
+		int[] columnOf = new int[data.numAttributes()];
+		for (int i = 0; i < columnOf.length; i++) {
+			columnOf[i] = -1;
+		}
+		for (int j = 0; j < numFeatures; j++) {
+			columnOf[featureIndices[j]] = j;
+		}
+
+		// the non-zero features of the examples with a class, in compressed sparse row format
+		int numRows = 0;
+		int numNonZeros = 0;
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance instance = data.instance(i);
+			if (instance.classIsMissing()) {
+				continue;
+			}
+			numRows++;
+			for (int k = 0; k < instance.numValues(); k++) {
+				double value = instance.valueSparse(k);
+				if (columnOf[instance.index(k)] >= 0 && value != 0 && !Double.isNaN(value)) {
+					numNonZeros++;
+				}
+			}
+		}
+		int[] rowStart = new int[numRows + 1];
+		int[] columns = new int[numNonZeros];
+		double[] values = new double[numNonZeros];
+		int[] tasks = new int[numRows];
+		double[] classValues = new double[numRows];
+		double[] weights = new double[numRows];
+		int row = 0;
+		int position = 0;
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance instance = data.instance(i);
+			if (instance.classIsMissing()) {
+				continue;
+			}
+			for (int k = 0; k < instance.numValues(); k++) {
+				int column = columnOf[instance.index(k)];
+				double value = instance.valueSparse(k);
+				if (column >= 0 && value != 0 && !Double.isNaN(value)) {
+					columns[position] = column;
+					values[position] = value;
+					position++;
+				}
+			}
+			tasks[row] = instance.isMissing(taskAttrIndex) ? -1 : (int) instance.value(taskAttrIndex);
+			classValues[row] = instance.classValue();
+			weights[row] = instance.weight();
+			rowStart[++row] = position;
+		}
+
+		// each block holds the features and the bias
+		int blockSize = numFeatures + 1;
+		double[] w = new double[(numTasks + 1) * blockSize];
+		TronLogisticRegression solver = new TronLogisticRegression(cost, eps);
+		solver.solve(new MultiTaskRows(rowStart, columns, values, tasks, blockSize, bias, sharedWeight),
+				TronLogisticRegression.labels(classValues), weights, w.length, w);
+		iterations = solver.iterations();
+
+		LinearModel[] models = new LinearModel[numTasks + 1];
+		double[] shared = new double[numFeatures];
+		for (int j = 0; j < numFeatures; j++) {
+			shared[j] = sharedWeight * w[j];
+		}
+		double sharedBias = sharedWeight * w[numFeatures] * bias;
+		int[] labels = new int[] { ConstantsAndUtils.privacyIndex, 1 - ConstantsAndUtils.privacyIndex };
+		models[numTasks] = new LinearModel(null, shared, sharedBias, labels, 0);
+		for (int t = 0; t < numTasks; t++) {
+			int offset = (t + 1) * blockSize;
+			double[] taskWeights = new double[numFeatures];
+			for (int j = 0; j < numFeatures; j++) {
+				taskWeights[j] = shared[j] + w[offset + j];
+			}
+			models[t] = new LinearModel(null, taskWeights, sharedBias + w[offset + numFeatures] * bias,
+					labels.clone(), 0);
+		}
+		return models;
+	}
+}
@@ -0,0 +1,395 @@
+package modeling;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A row-major block of features stored outside the heap, either in direct buffers or in memory mappings of a
+ * file (the feature cache of a {@link DenseMatrixDataset}). Each feature takes 8 (double), 4 (float) or 1
+ * (quantized byte) bytes, little-endian. The block is split in chunks of at most {@link #CHUNK_SIZE} bytes
+ * holding whole rows. The block belongs to an {@link ExperimentScope}, which releases its memory (or unmaps
+ * the file) when it is closed. The buffers never leave the block, and every access holds the read lock of the
+ * block while the release holds its write lock, so no access can read released memory: the accesses after
+ * the release throw an IllegalStateException.
+ */
+public class OffHeapFeatureBlock implements Closeable {
+
+	public static final long CHUNK_SIZE = 1L << 30;
+
+	private final int numFeatures;
+	private final int elementSize;
+	private final int rowBytes;
+	private final int rowsPerChunk;
+	/** The file of the block (null for direct buffers). */
+	private final File file;
+	private RandomAccessFile raf;
+	private ByteBuffer[] chunks = new ByteBuffer[0];
+	/** The number of rows that the chunks can hold. */
+	private int capacity;
+	/** Held (read) by the accesses to the buffers and (write) by the changes of the buffers. */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private volatile boolean closed;
+
+	private OffHeapFeatureBlock(int numFeatures, int elementSize, File file) throws IOException {
+		if (elementSize != 8 && elementSize != 4 && elementSize != 1) {
+			throw new IllegalArgumentException("Unsupported element size " + elementSize);
+		}
+		this.numFeatures = numFeatures;
+		this.elementSize = elementSize;
+		this.rowBytes = Math.max(1, numFeatures * elementSize);
+		this.rowsPerChunk = (int) Math.max(1, CHUNK_SIZE / rowBytes);
+		this.file = file;
+	}
+
+	/**
+	 * Creates an empty block in direct buffers, which grows as rows are added.
+	 *
+	 * @param scope
+	 * @param numFeatures
+	 * @param elementSize
+	 *            8 (double), 4 (float) or 1 (byte)
+	 * @return
+	 * @throws IOException
+	 */
+	public static OffHeapFeatureBlock allocate(ExperimentScope scope, int numFeatures, int elementSize)
+			throws IOException {
+		return scope.register(new OffHeapFeatureBlock(numFeatures, elementSize, null));
+	}
+
+	/**
+	 * Creates an empty block in the given file (truncated if it exists), which grows as rows are added. The
+	 * rows are written through writable mappings; {@link #trim(int)} truncates the file to the written rows
+	 * and maps it read-only.
+	 *
+	 * @param scope
+	 * @param file
+	 * @param numFeatures
+	 * @param elementSize
+	 *            8 (double), 4 (float) or 1 (byte)
+	 * @return
+	 * @throws IOException
+	 */
+	public static OffHeapFeatureBlock create(ExperimentScope scope, File file, int numFeatures, int elementSize)
+			throws IOException {
+		OffHeapFeatureBlock block = new OffHeapFeatureBlock(numFeatures, elementSize, file);
+		block.raf = new RandomAccessFile(file, "rw");
+		block.raf.setLength(0);
+		return scope.register(block);
+	}
+
+	/**
+	 * Maps the given rows of a block that was written by {@link #create(ExperimentScope, File, int, int)}
+	 * read-only.
+	 *
+	 * @param scope
+	 * @param file
+	 * @param numRows
+	 * @param numFeatures
+	 * @param elementSize
+	 *            8 (double), 4 (float) or 1 (byte)
+	 * @return
+	 * @throws IOException
+	 */
+	public static OffHeapFeatureBlock map(ExperimentScope scope, File file, int numRows, int numFeatures,
+			int elementSize) throws IOException {
+		OffHeapFeatureBlock block = new OffHeapFeatureBlock(numFeatures, elementSize, file);
+		block.raf = new RandomAccessFile(file, "r");
+		if (block.raf.length() < (long) numRows * block.rowBytes) {
+			block.raf.close();
+			throw new IOException("Feature cache " + file + " is shorter than " + numRows + " rows!");
+		}
+		scope.register(block);
+		block.mapReadOnly(numRows);
+		return block;
+	}
+
+	/**
+	 * Makes sure that the block can hold the given number of rows. The chunks grow by doubling.
+	 *
+	 * @param numRows
+	 * @throws IOException
+	 */
+	public void ensureCapacity(int numRows) throws IOException {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			if (numRows > capacity) {
+				grow(numRows);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void grow(int numRows) throws IOException {
+		int lastChunk = (numRows - 1) / rowsPerChunk;
+		if (lastChunk >= chunks.length) {
+			ByteBuffer[] grown = new ByteBuffer[lastChunk + 1];
+			System.arraycopy(chunks, 0, grown, 0, chunks.length);
+			chunks = grown;
+		}
+		for (int c = 0; c <= lastChunk; c++) {
+			int minRows = c < lastChunk ? rowsPerChunk : numRows - c * rowsPerChunk;
+			int currentRows = chunks[c] == null ? 0 : chunks[c].capacity() / rowBytes;
+			if (currentRows >= minRows) {
+				continue;
+			}
+			int newRows = (int) Math.min(rowsPerChunk, Math.max(minRows, 2L * currentRows));
+			ByteBuffer chunk;
+			if (file != null) {
+				// the rows written so far are in the file
+				ExperimentScope.free(chunks[c]);
+				chunks[c] = null;
+				chunk = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) c * rowsPerChunk * rowBytes,
+						(long) newRows * rowBytes);
+			} else {
+				chunk = ByteBuffer.allocateDirect(newRows * rowBytes);
+				if (chunks[c] != null) {
+					chunks[c].clear();
+					chunk.put(chunks[c]);
+					chunk.clear();
+					ExperimentScope.free(chunks[c]);
+				}
+			}
+			chunks[c] = chunk.order(ByteOrder.LITTLE_ENDIAN);
+			capacity = Math.max(capacity, c * rowsPerChunk + newRows);
+		}
+	}
+
+	/**
+	 * Ends the writing of the block. A file block is truncated to the given number of rows and mapped
+	 * read-only.
+	 *
+	 * @param numRows
+	 * @throws IOException
+	 */
+	public void trim(int numRows) throws IOException {
+		if (file == null) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			for (ByteBuffer chunk : chunks) {
+				if (chunk != null) {
+					((MappedByteBuffer) chunk).force();
+				}
+			}
+			releaseChunks();
+			raf.setLength((long) numRows * rowBytes);
+			mapReadOnly(numRows);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void mapReadOnly(int numRows) throws IOException {
+		int numChunks = (numRows + rowsPerChunk - 1) / rowsPerChunk;
+		chunks = new ByteBuffer[numChunks];
+		for (int c = 0; c < numChunks; c++) {
+			int chunkRows = Math.min(rowsPerChunk, numRows - c * rowsPerChunk);
+			chunks[c] = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, (long) c * rowsPerChunk * rowBytes,
+					(long) chunkRows * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		capacity = numRows;
+	}
+
+	private void releaseChunks() {
+		for (int c = 0; c < chunks.length; c++) {
+			ExperimentScope.free(chunks[c]);
+		}
+		chunks = new ByteBuffer[0];
+		capacity = 0;
+	}
+
+	/**
+	 * Releases the memory (or the mappings) of the block and closes its file, once the running accesses have
+	 * ended. Called by its {@link ExperimentScope}.
+	 */
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			releaseChunks();
+			if (raf != null) {
+				raf.close();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public int numFeatures() {
+		return numFeatures;
+	}
+
+	/**
+	 * Returns the number of off-heap bytes of the block.
+	 *
+	 * @return
+	 */
+	public long bytes() {
+		lock.readLock().lock();
+		try {
+			long bytes = 0;
+			for (ByteBuffer chunk : chunks) {
+				bytes += chunk == null ? 0 : chunk.capacity();
+			}
+			return bytes;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("The experiment scope of the features has been closed!");
+		}
+	}
+
+	/**
+	 * Returns the chunk that holds the given row. The caller holds the read lock until it is done with the
+	 * chunk.
+	 */
+	private ByteBuffer chunk(int row) {
+		checkOpen();
+		return chunks[row / rowsPerChunk];
+	}
+
+	/**
+	 * Returns the position of the given feature in its chunk.
+	 */
+	private int position(int row, int column) {
+		return (row % rowsPerChunk) * rowBytes + column * elementSize;
+	}
+
+	/**
+	 * Returns the stored value of the given feature (the byte of a quantized feature).
+	 *
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public double get(int row, int column) {
+		lock.readLock().lock();
+		try {
+			ByteBuffer chunk = chunk(row);
+			int position = position(row, column);
+			switch (elementSize) {
+			case 8:
+				return chunk.getDouble(position);
+			case 4:
+				return chunk.getFloat(position);
+			default:
+				return chunk.get(position);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Stores the value of the given feature (a byte value for a quantized feature).
+	 *
+	 * @param row
+	 * @param column
+	 * @param value
+	 */
+	public void put(int row, int column, double value) {
+		lock.readLock().lock();
+		try {
+			ByteBuffer chunk = chunk(row);
+			int position = position(row, column);
+			switch (elementSize) {
+			case 8:
+				chunk.putDouble(position, value);
+				break;
+			case 4:
+				chunk.putFloat(position, (float) value);
+				break;
+			default:
+				chunk.put(position, (byte) value);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the dot product of the stored values of the given row with v.
+	 *
+	 * @param row
+	 * @param v
+	 * @return
+	 */
+	public double dot(int row, double[] v) {
+		lock.readLock().lock();
+		try {
+			ByteBuffer chunk = chunk(row);
+			int position = position(row, 0);
+			double sum = 0;
+			switch (elementSize) {
+			case 8:
+				for (int j = 0; j < numFeatures; j++, position += 8) {
+					sum += v[j] * chunk.getDouble(position);
+				}
+				break;
+			case 4:
+				for (int j = 0; j < numFeatures; j++, position += 4) {
+					sum += v[j] * chunk.getFloat(position);
+				}
+				break;
+			default:
+				for (int j = 0; j < numFeatures; j++, position++) {
+					sum += v[j] * chunk.get(position);
+				}
+			}
+			return sum;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds scale times the stored values of the given row to the first numFeatures entries of sum.
+	 *
+	 * @param row
+	 * @param scale
+	 * @param sum
+	 */
+	public void addTo(int row, double scale, double[] sum) {
+		lock.readLock().lock();
+		try {
+			ByteBuffer chunk = chunk(row);
+			int position = position(row, 0);
+			switch (elementSize) {
+			case 8:
+				for (int j = 0; j < numFeatures; j++, position += 8) {
+					sum[j] += scale * chunk.getDouble(position);
+				}
+				break;
+			case 4:
+				for (int j = 0; j < numFeatures; j++, position += 4) {
+					sum[j] += scale * chunk.getFloat(position);
+				}
+				break;
+			default:
+				for (int j = 0; j < numFeatures; j++, position++) {
+					sum[j] += scale * chunk.get(position);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
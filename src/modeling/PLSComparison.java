@@ -0,0 +1,110 @@
+package modeling;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import weka.classifiers.Evaluation;
+import weka.classifiers.meta.FilteredClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils.DataSource;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Remove;
+
+/**
+ * Compares 'liblinear' on the raw features with 'liblinear' on a few partial least squares components (see
+ * {@link PLSProjectionClassifier}) on the PicAlert split of {@link GenericModelEval}: AUC on the PicAlert test
+ * set, training time and score latency. The projections of the different numbers of components are fitted
+ * once (for the largest number, see {@link PLSProjection}), so the training time of the largest number
+ * includes the fitting and the others reuse it; the fitting time is also reported separately. A file
+ * 'results-pls_[featureType].txt' is written per feature type, with the lines:<br>
+ * numComponents (raw for the raw features),auc,training time (ms),score latency (us per example)
+ */
+public class PLSComparison {
+
+	/**
+	 * @param args
+	 *            [0] Full path to the root folder where the PicAlert arffs reside (in the 'picalert' subfolder)
+	 * @param args
+	 *            [1] (optional) Comma-separated list of feature types (default: the
+	 *            {@link GenericModelEval#denseFeatureTypes})
+	 * @param args
+	 *            [2] (optional) Comma-separated list of numbers of components (default "10,20,50,100")
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String datasetFolder = args[0];
+		String[] featureTypes = args.length > 1 ? args[1].split(",") : GenericModelEval.denseFeatureTypes;
+		String[] componentsList = (args.length > 2 ? args[2] : "10,20,50,100").split(",");
+
+		for (String featureType : featureTypes) {
+			File arff = new File(datasetFolder + "picalert/" + featureType + ".arff");
+			if (!arff.exists()) {
+				System.err.println("Skipping " + featureType + ", PicAlert dataset not found");
+				continue;
+			}
+			Instances data = DataSource.read(arff.getPath());
+			data.setClassIndex(data.numAttributes() - 1);
+			data.randomize(new Random(ConstantsAndUtils.seed));
+			InstancesView[] splitted = GenericModelEval.splitInTrainTestViews(data, GenericModelEval.trainPercent);
+			Instances train = splitted[0].toInstances();
+			Instances test = splitted[1].toInstances();
+
+			BufferedWriter outResults = new BufferedWriter(new FileWriter(new File("results-pls_" + featureType
+					+ ".txt")));
+			System.out.println(featureType + ": components,auc,training time (ms),score latency (us)");
+			String result = "raw," + evaluate("liblinear", train, test);
+			outResults.write(result + "\n");
+			System.out.println(result);
+
+			// the largest number first, the projection is fitted once
+			int maxComponents = 0;
+			for (String components : componentsList) {
+				maxComponents = Math.max(maxComponents, Integer.parseInt(components.trim()));
+			}
+			Remove remove = new Remove();
+			remove.setAttributeIndices(ConstantsAndUtils.indicesToIgnore);
+			remove.setInputFormat(train);
+			Instances projectedTrain = Filter.useFilter(train, remove);
+			long start = System.nanoTime();
+			PLSProjection.fit(projectedTrain, maxComponents);
+			System.out.println("PLS fitting time (ms, " + maxComponents + " components): "
+					+ (System.nanoTime() - start) / 1000000);
+
+			for (String components : componentsList) {
+				result = components.trim() + "," + evaluate("liblinear-pls" + components.trim(), train, test);
+				outResults.write(result + "\n");
+				System.out.println(result);
+			}
+			outResults.close();
+		}
+	}
+
+	/**
+	 * Returns "auc,training time (ms),score latency (us per example)" of the given classifier.
+	 */
+	private static String evaluate(String classifierChoice, Instances train, Instances test) throws Exception {
+		FilteredClassifier classifier = ConstantsAndUtils.createFilteredClassifier(
+				ConstantsAndUtils.selectClassifier(classifierChoice), train, ConstantsAndUtils.indicesToIgnore);
+		long start = System.nanoTime();
+		classifier.buildClassifier(train);
+		long trainingTime = System.nanoTime() - start;
+
+		Evaluation eval = new Evaluation(train);
+		eval.evaluateModel(classifier, test);
+		// the best of a few passes over the test set
+		long best = Long.MAX_VALUE;
+		for (int pass = 0; pass < 5; pass++) {
+			start = System.nanoTime();
+			for (int i = 0; i < test.numInstances(); i++) {
+				Instance instance = test.instance(i);
+				classifier.distributionForInstance(instance);
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return eval.areaUnderROC(ConstantsAndUtils.privacyIndex) + "," + trainingTime / 1000000.0 + ","
+				+ best / 1000.0 / test.numInstances();
+	}
+}
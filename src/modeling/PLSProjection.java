@@ -0,0 +1,412 @@
+package modeling;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.SelectedTag;
+import weka.core.matrix.Matrix;
+import weka.filters.Filter;
+import weka.filters.supervised.attribute.PLSFilter;
+
+/**
+ * A partial least squares projection of the features to a few components, fitted with the PLS1 algorithm of
+ * Weka's {@link PLSFilter} (partialLeastSquares package) on the centered features with the private class as
+ * the (0/1) response. PLS1 is used rather than SIMPLS because it never builds the d x d covariance matrix of
+ * the features, which is prohibitive for 'vlad'. The projection is linear: the components of an example x
+ * are (x - mean) * R, with R = W * (P^T * W)^-1 (W and P are the weights and loadings of PLS1), so an example
+ * is projected by visiting only its non-zero features, and a linear model trained on the components can be
+ * folded back into an equivalent model on the raw features (see {@link #toRawModel(LinearModel)}).
+ * <p>
+ * Since the components of PLS1 are computed one after the other, the projection to k components is the first
+ * k components of any projection with more components. The fitted projections are cached, in memory and (if
+ * {@link #diskCache}) in {@link #cacheFolder}, by a fingerprint of the values of the training set, so a
+ * training set is fitted once for any number of components up to the largest one requested.
+ */
+public class PLSProjection implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * When true, the fitted projections are also written in (and read from) {@link #cacheFolder}. Off by default,
+	 * since the folder is created in the working directory.
+	 */
+	public static final boolean diskCache = false;
+	/** The folder of the cached projections (relative to the working directory). */
+	public static final String cacheFolder = "pls-cache";
+	/** The maximum number of projections kept in memory. */
+	public static final int memoryCacheSize = 8;
+
+	static final int VERSION = 1;
+
+	private static final Map<Long, PLSProjection> memoryCache = new LinkedHashMap<Long, PLSProjection>(16,
+			0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, PLSProjection> eldest) {
+			return size() > memoryCacheSize;
+		}
+	};
+
+	/** The PLS1 filter with access to its weights and loadings. */
+	private static class PLS1 extends PLSFilter {
+		private static final long serialVersionUID = 1L;
+
+		PLS1(int numComponents) {
+			setNumComponents(numComponents);
+			setAlgorithm(new SelectedTag(ALGORITHM_PLS1, TAGS_ALGORITHM));
+			// the features are centered before the filter
+			setPreprocessing(new SelectedTag(PREPROCESSING_NONE, TAGS_PREPROCESSING));
+			setReplaceMissing(false);
+		}
+
+		/** Same options as PLSFilter, whose listOptions returns a raw Enumeration. */
+		@Override
+		public Enumeration<Option> listOptions() {
+			Vector<Option> options = new Vector<Option>();
+			Enumeration<?> inherited = super.listOptions();
+			while (inherited.hasMoreElements()) {
+				options.add((Option) inherited.nextElement());
+			}
+			return options.elements();
+		}
+
+		/** Returns R = W * (P^T * W)^-1 (d x k). */
+		Matrix rotation() {
+			return m_PLS1_W.times(m_PLS1_P.transpose().times(m_PLS1_W).inverse());
+		}
+	}
+
+	private final double[] means;
+	/** The columns of R, i.e. rotation[c][j] is the weight of feature j in component c. */
+	private final double[][] rotation;
+	/** mean * R, subtracted from the components. */
+	private final double[] offsets;
+	private final long fingerprint;
+
+	private PLSProjection(double[] means, double[][] rotation, long fingerprint) {
+		this.means = means;
+		this.rotation = rotation;
+		this.fingerprint = fingerprint;
+		offsets = new double[rotation.length];
+		for (int c = 0; c < rotation.length; c++) {
+			for (int j = 0; j < means.length; j++) {
+				offsets[c] += means[j] * rotation[c][j];
+			}
+		}
+	}
+
+	public int numFeatures() {
+		return means.length;
+	}
+
+	public int numComponents() {
+		return rotation.length;
+	}
+
+	/**
+	 * Returns the projection to at most numComponents components of the given training set, fitting it only
+	 * if no cached projection of the same training set has at least as many components.
+	 *
+	 * @param data
+	 *            The features and the class (all attributes except the class must be numeric); examples with a
+	 *            missing class are ignored and missing values are replaced by the mean.
+	 * @param numComponents
+	 * @return
+	 * @throws Exception
+	 */
+	public static PLSProjection fit(Instances data, int numComponents) throws Exception {
+		// there are at most as many components as the rank of the centered features
+		int numRows = 0;
+		for (int i = 0; i < data.numInstances(); i++) {
+			if (!data.instance(i).classIsMissing()) {
+				numRows++;
+			}
+		}
+		numComponents = Math.max(1, Math.min(numComponents, Math.min(data.numAttributes() - 1, numRows - 1)));
+		long fingerprint = fingerprint(data);
+		PLSProjection cached;
+		synchronized (memoryCache) {
+			cached = memoryCache.get(fingerprint);
+		}
+		File cacheFile = new File(cacheFolder, Long.toHexString(fingerprint) + ".pls");
+		if ((cached == null || cached.numComponents() < numComponents) && diskCache && cacheFile.exists()) {
+			try {
+				PLSProjection read = read(cacheFile);
+				if (read.fingerprint == fingerprint
+						&& (cached == null || read.numComponents() > cached.numComponents())) {
+					cached = read;
+				}
+			} catch (IOException e) {
+				// refitted below
+			}
+		}
+		if (cached == null || cached.numComponents() < numComponents) {
+			cached = fitUncached(data, numComponents, fingerprint);
+			if (diskCache) {
+				// written under a temporary name, so that a partial file is never read
+				new File(cacheFolder).mkdirs();
+				File tmpFile = new File(cacheFolder, cacheFile.getName() + ".tmp");
+				cached.write(tmpFile);
+				cacheFile.delete();
+				if (!tmpFile.renameTo(cacheFile)) {
+					tmpFile.delete();
+				}
+			}
+		}
+		synchronized (memoryCache) {
+			memoryCache.put(fingerprint, cached);
+		}
+		return cached.firstComponents(numComponents);
+	}
+
+	private static PLSProjection fitUncached(Instances data, int numComponents, long fingerprint)
+			throws Exception {
+		int classIndex = data.classIndex();
+		int numFeatures = data.numAttributes() - 1;
+		double[] means = new double[numFeatures];
+		int numRows = 0;
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance instance = data.instance(i);
+			if (instance.classIsMissing()) {
+				continue;
+			}
+			numRows++;
+			for (int k = 0; k < instance.numValues(); k++) {
+				int index = instance.index(k);
+				double value = instance.valueSparse(k);
+				if (index != classIndex && !Double.isNaN(value)) {
+					means[index < classIndex ? index : index - 1] += value;
+				}
+			}
+		}
+		for (int j = 0; j < numFeatures; j++) {
+			means[j] /= numRows;
+		}
+
+		// the centered features and the private class as a numeric response
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>(numFeatures + 1);
+		for (int j = 0; j < numFeatures; j++) {
+			attributes.add(new Attribute("f" + (j + 1)));
+		}
+		attributes.add(new Attribute("private"));
+		Instances centered = new Instances("centered", attributes, numRows);
+		centered.setClassIndex(numFeatures);
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance instance = data.instance(i);
+			if (instance.classIsMissing()) {
+				continue;
+			}
+			double[] values = new double[numFeatures + 1];
+			for (int j = 0; j < numFeatures; j++) {
+				double value = instance.value(j < classIndex ? j : j + 1);
+				values[j] = Double.isNaN(value) ? 0 : value - means[j];
+			}
+			values[numFeatures] = instance.classValue() == ConstantsAndUtils.privacyIndex ? 1 : 0;
+			centered.add(new DenseInstance(1, values));
+		}
+
+		PLS1 pls = new PLS1(numComponents);
+		pls.setInputFormat(centered);
+		Filter.useFilter(centered, pls);
+		Matrix r = pls.rotation();
+		double[][] rotation = new double[r.getColumnDimension()][numFeatures];
+		for (int c = 0; c < rotation.length; c++) {
+			for (int j = 0; j < numFeatures; j++) {
+				rotation[c][j] = r.get(j, c);
+			}
+		}
+		return new PLSProjection(means, rotation, fingerprint);
+	}
+
+	/**
+	 * Returns the projection to the first numComponents components (this projection if it has no more).
+	 */
+	private PLSProjection firstComponents(int numComponents) {
+		if (numComponents >= rotation.length) {
+			return this;
+		}
+		double[][] first = new double[numComponents][];
+		System.arraycopy(rotation, 0, first, 0, numComponents);
+		return new PLSProjection(means, first, fingerprint);
+	}
+
+	/**
+	 * Computes the components of the given instance (in the format of the training set) in out. Only its
+	 * non-zero values are visited; missing values count as the mean.
+	 *
+	 * @param instance
+	 * @param classIndex
+	 * @param out
+	 */
+	public void project(Instance instance, int classIndex, double[] out) {
+		for (int c = 0; c < rotation.length; c++) {
+			out[c] = -offsets[c];
+		}
+		for (int k = 0; k < instance.numValues(); k++) {
+			int index = instance.index(k);
+			if (index == classIndex) {
+				continue;
+			}
+			int j = index < classIndex ? index : index - 1;
+			double value = instance.valueSparse(k);
+			if (Double.isNaN(value)) {
+				value = means[j];
+			}
+			for (int c = 0; c < rotation.length; c++) {
+				out[c] += value * rotation[c][j];
+			}
+		}
+	}
+
+	/**
+	 * Returns the empty data set of the components ("pls1", "pls2", ...) and the class of the given format.
+	 *
+	 * @param header
+	 * @return
+	 */
+	public Instances projectedHeader(Instances header) {
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>(rotation.length + 1);
+		for (int c = 0; c < rotation.length; c++) {
+			attributes.add(new Attribute("pls" + (c + 1)));
+		}
+		attributes.add((Attribute) header.classAttribute().copy());
+		Instances projected = new Instances(header.relationName() + "-pls", attributes, 0);
+		projected.setClassIndex(rotation.length);
+		return projected;
+	}
+
+	/**
+	 * Projects the given data set (features and class) to its components (and the class).
+	 *
+	 * @param data
+	 * @return
+	 */
+	public Instances project(Instances data) {
+		Instances projected = projectedHeader(data);
+		projected = new Instances(projected, data.numInstances());
+		int classIndex = data.classIndex();
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance instance = data.instance(i);
+			double[] values = new double[rotation.length + 1];
+			project(instance, classIndex, values);
+			values[rotation.length] = instance.classValue();
+			projected.add(new DenseInstance(instance.weight(), values));
+		}
+		return projected;
+	}
+
+	/**
+	 * Returns the model on the raw features that is equivalent to the given model on the components, i.e. the
+	 * projection followed by the model. Scoring it visits the non-zero features once, instead of once per
+	 * component.
+	 *
+	 * @param projected
+	 *            A model whose columns are the components.
+	 * @return
+	 */
+	public LinearModel toRawModel(LinearModel projected) {
+		double[] w = projected.getWeights();
+		double[] raw = new double[means.length];
+		double bias = projected.getBias();
+		for (int c = 0; c < rotation.length; c++) {
+			for (int j = 0; j < raw.length; j++) {
+				raw[j] += rotation[c][j] * w[c];
+			}
+			bias -= offsets[c] * w[c];
+		}
+		return new LinearModel(null, raw, bias, projected.getLabels(), projected.getFingerprint());
+	}
+
+	/**
+	 * Returns a 64-bit (FNV-1a) fingerprint of the names of the attributes, the non-zero values and the weights
+	 * of the given data set (the PLS projection is fitted on the values, which may be projected without ids).
+	 */
+	private static long fingerprint(Instances data) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < data.numAttributes(); i++) {
+			hash = ConstantsAndUtils.fnv1a(hash, data.attribute(i).name());
+		}
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance instance = data.instance(i);
+			// only the non-zero values, so that sparse and dense instances of the same values are equal
+			for (int k = 0; k < instance.numValues(); k++) {
+				double value = instance.valueSparse(k);
+				if (value != 0) {
+					hash = mix(hash, instance.index(k));
+					hash = mix(hash, Double.doubleToLongBits(value));
+				}
+			}
+			hash = mix(hash, Double.doubleToLongBits(instance.weight()));
+		}
+		return hash;
+	}
+
+	private static long mix(long hash, long value) {
+		for (int b = 0; b < 8; b++) {
+			hash ^= (value >>> (8 * b)) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(VERSION);
+			out.writeLong(fingerprint);
+			out.writeInt(means.length);
+			out.writeInt(rotation.length);
+			for (int j = 0; j < means.length; j++) {
+				out.writeDouble(means[j]);
+			}
+			for (int c = 0; c < rotation.length; c++) {
+				for (int j = 0; j < means.length; j++) {
+					out.writeDouble(rotation[c][j]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static PLSProjection read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != VERSION) {
+				throw new IOException("Unsupported PLS cache version in " + file);
+			}
+			long fingerprint = in.readLong();
+			double[] means = new double[in.readInt()];
+			double[][] rotation = new double[in.readInt()][means.length];
+			for (int j = 0; j < means.length; j++) {
+				means[j] = in.readDouble();
+			}
+			for (int c = 0; c < rotation.length; c++) {
+				for (int j = 0; j < means.length; j++) {
+					rotation[c][j] = in.readDouble();
+				}
+			}
+			return new PLSProjection(means, rotation, fingerprint);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package modeling;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.functions.LibLINEAR;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A Weka classifier that projects the features to a few partial least squares components (see
+ * {@link PLSProjection}, fitted once per training set and cached) and trains its base classifier (e.g.
+ * LibLINEAR) on the components, which is much cheaper than training on high-dimensional features such as
+ * 'vlad'. When the base classifier is a LibLINEAR logistic regression, its model is folded into an equivalent
+ * model on the raw features, so scoring costs the same as a model trained on the raw features; otherwise each
+ * instance is projected before it is classified by the base classifier.
+ * <p>
+ * The classifier expects the features and the class only (e.g. inside a FilteredClassifier, see
+ * {@link ConstantsAndUtils#createFilteredClassifier(Classifier, Instances, String)}).
+ */
+public class PLSProjectionClassifier extends AbstractLinearClassifier {
+
+	private static final long serialVersionUID = 1L;
+
+	private Classifier classifier = new LibLINEAR();
+	private int numComponents = 20;
+
+	/** The projection of the instances, kept (and serialized) only when the model is not folded. */
+	private PLSProjection projection;
+	private Classifier trained;
+	private Instances projectedHeader;
+
+	public Classifier getClassifier() {
+		return classifier;
+	}
+
+	public void setClassifier(Classifier classifier) {
+		this.classifier = classifier;
+	}
+
+	public int getNumComponents() {
+		return numComponents;
+	}
+
+	public void setNumComponents(int numComponents) {
+		this.numComponents = numComponents;
+	}
+
+	/**
+	 * Returns the model on the raw features (without feature names) or null if the base classifier is not a
+	 * LibLINEAR logistic regression.
+	 *
+	 * @return
+	 */
+	@Override
+	public LinearModel getModel() {
+		return model;
+	}
+
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		getCapabilities().testWithFail(data);
+		classIndex = data.classIndex();
+		projection = PLSProjection.fit(data, numComponents);
+		Instances projected = projection.project(data);
+		projectedHeader = new Instances(projected, 0);
+		trained = AbstractClassifier.makeCopy(classifier);
+		trained.buildClassifier(projected);
+		model = null;
+		if (TronLogisticRegression.supports(trained)) {
+			model = projection.toRawModel(ModelExtraction.fromLibLinearModel(((LibLINEAR) trained).getModel()));
+			projection = null;
+		}
+	}
+
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		if (model != null) {
+			return super.distributionForInstance(instance);
+		}
+		double[] values = new double[projectedHeader.numAttributes()];
+		projection.project(instance, classIndex, values);
+		values[values.length - 1] = instance.classValue();
+		Instance projected = new DenseInstance(instance.weight(), values);
+		projected.setDataset(projectedHeader);
+		return trained.distributionForInstance(projected);
+	}
+}
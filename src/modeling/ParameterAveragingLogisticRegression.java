@@ -0,0 +1,385 @@
+package modeling;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A Weka classifier that trains LibLinear's L2-regularized logistic regression model (L2R_LR, with a bias
+ * feature) data-parallel on a single machine: the (shuffled) training examples are split in one shard per
+ * worker JVM ({@link ParameterAveragingWorker}), each worker trains on its shard with
+ * {@link TronLogisticRegression} and the coordinator combines the weights over local sockets, with one of two
+ * modes:
+ * <ul>
+ * <li>"admm" (default): consensus ADMM. In each iteration the workers solve their loss plus the proximal term
+ * rho/2 * ||w - z + u||^2, the coordinator updates the consensus z (which carries the regularization) and the
+ * scaled dual variables u of the workers, until the primal and dual residuals are small (or
+ * {@link #getMaxIterations()} iterations). The result converges to the model that LibLinear trains on all the
+ * examples. rho is adapted so that the two residuals stay balanced.</li>
+ * <li>"average": a single round of parameter averaging: each worker solves the whole objective on its shard
+ * (with the cost multiplied by the number of workers) and the model is the mean of their weights. Since the
+ * local problems are solved exactly, further rounds would not change the result. It is the cheapest mode but
+ * only approximates the full model.</li>
+ * </ul>
+ * The workers run the classpath of this JVM and stand in for the nodes of a cluster; the shards are sent once
+ * and only weight vectors are exchanged afterwards. The classifier expects the features and the class only
+ * (e.g. inside a FilteredClassifier, see
+ * {@link ConstantsAndUtils#createFilteredClassifier(weka.classifiers.Classifier, Instances, String)}). Its model
+ * is oriented towards the private class (see {@link #getModel()}).
+ */
+public class ParameterAveragingLogisticRegression extends AbstractLinearClassifier {
+
+	private static final long serialVersionUID = 1L;
+
+	/** How long the coordinator waits for a worker to connect (ms). */
+	public static final int connectTimeout = 60000;
+	/** The absolute tolerance of the ADMM residuals (per weight). */
+	public static final double absoluteTolerance = 1e-4;
+	/** The relative tolerance of the ADMM residuals. */
+	public static final double relativeTolerance = 1e-3;
+
+	private int numWorkers = 4;
+	private String mode = "admm";
+	private double rho = 1;
+	private int maxIterations = 100;
+	private double cost = 1;
+	private double eps = 0.01;
+	private double bias = 1;
+
+	/** The number of ADMM iterations of the last training. */
+	private int iterations;
+
+	public int getNumWorkers() {
+		return numWorkers;
+	}
+
+	public void setNumWorkers(int numWorkers) {
+		this.numWorkers = numWorkers;
+	}
+
+	/**
+	 * Returns "admm" or "average".
+	 *
+	 * @return
+	 */
+	public String getMode() {
+		return mode;
+	}
+
+	public void setMode(String mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Returns the initial weight of the ADMM proximal term.
+	 *
+	 * @return
+	 */
+	public double getRho() {
+		return rho;
+	}
+
+	public void setRho(double rho) {
+		this.rho = rho;
+	}
+
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * Returns LibLinear's C.
+	 *
+	 * @return
+	 */
+	public double getCost() {
+		return cost;
+	}
+
+	public void setCost(double cost) {
+		this.cost = cost;
+	}
+
+	/**
+	 * Returns LibLinear's tolerance of the termination criterion (of the local problems).
+	 *
+	 * @return
+	 */
+	public double getEps() {
+		return eps;
+	}
+
+	public void setEps(double eps) {
+		this.eps = eps;
+	}
+
+	/**
+	 * Returns the value of the bias feature (as LibLINEAR's bias).
+	 *
+	 * @return
+	 */
+	public double getBias() {
+		return bias;
+	}
+
+	public void setBias(double bias) {
+		this.bias = bias;
+	}
+
+	public int iterations() {
+		return iterations;
+	}
+
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		getCapabilities().testWithFail(data);
+		if (!mode.equals("admm") && !mode.equals("average")) {
+			throw new Exception("Unknown mode " + mode + "!");
+		}
+		if (bias < 0) {
+			throw new IllegalArgumentException("Only problems with a bias feature are supported!");
+		}
+		classIndex = data.classIndex();
+		int numFeatures = data.numAttributes() - 1;
+		// the columns as in CompositeInstances: the features, the unused column of the class and the bias
+		int n = numFeatures + 2;
+
+		int numRows = 0;
+		for (int i = 0; i < data.numInstances(); i++) {
+			if (!data.instance(i).classIsMissing()) {
+				numRows++;
+			}
+		}
+		int[] order = new int[numRows];
+		for (int i = 0, row = 0; i < data.numInstances(); i++) {
+			if (!data.instance(i).classIsMissing()) {
+				order[row++] = i;
+			}
+		}
+		Random random = new Random(ConstantsAndUtils.seed);
+		for (int i = numRows - 1; i > 0; i--) {
+			int k = random.nextInt(i + 1);
+			int tmp = order[i];
+			order[i] = order[k];
+			order[k] = tmp;
+		}
+		int workers = Math.max(1, Math.min(numWorkers, numRows));
+
+		ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress());
+		Process[] processes = new Process[workers];
+		Socket[] sockets = new Socket[workers];
+		DataInputStream[] in = new DataInputStream[workers];
+		DataOutputStream[] out = new DataOutputStream[workers];
+		boolean finished = false;
+		try {
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			for (int t = 0; t < workers; t++) {
+				ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+						ParameterAveragingWorker.class.getName(), String.valueOf(server.getLocalPort()),
+						String.valueOf(t));
+				builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+				builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+				processes[t] = builder.start();
+			}
+			server.setSoTimeout(connectTimeout);
+			for (int connected = 0; connected < workers; connected++) {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				DataInputStream socketIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				int t = socketIn.readInt();
+				sockets[t] = socket;
+				in[t] = socketIn;
+				out[t] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			}
+
+			// the shards, sent once
+			double shardCost = mode.equals("average") ? cost * workers : cost;
+			for (int t = 0; t < workers; t++) {
+				int from = (int) ((long) t * numRows / workers);
+				int to = (int) ((long) (t + 1) * numRows / workers);
+				out[t].writeInt(n);
+				out[t].writeInt(to - from);
+				out[t].writeDouble(shardCost);
+				out[t].writeDouble(eps);
+				for (int r = from; r < to; r++) {
+					writeRow(data.instance(order[r]), out[t]);
+				}
+				out[t].flush();
+			}
+
+			double[] z = mode.equals("average") ? average(in, out, n) : admm(in, out, n);
+			for (int t = 0; t < workers; t++) {
+				out[t].writeInt(ParameterAveragingWorker.STOP);
+				out[t].flush();
+			}
+			for (int t = 0; t < workers; t++) {
+				if (processes[t].waitFor() != 0) {
+					throw new Exception("Worker " + t + " failed!");
+				}
+			}
+			finished = true;
+
+			double[] weights = new double[numFeatures];
+			System.arraycopy(z, 0, weights, 0, numFeatures);
+			model = new LinearModel(null, weights, z[n - 1] * bias,
+					new int[] { ConstantsAndUtils.privacyIndex, 1 - ConstantsAndUtils.privacyIndex }, 0);
+		} finally {
+			for (Socket socket : sockets) {
+				if (socket != null) {
+					socket.close();
+				}
+			}
+			server.close();
+			if (!finished) {
+				for (Process process : processes) {
+					if (process != null) {
+						process.destroy();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes an example in the format of the worker protocol (only its non-zero features).
+	 */
+	private void writeRow(Instance instance, DataOutputStream out) throws IOException {
+		int numValues = 0;
+		for (int k = 0; k < instance.numValues(); k++) {
+			double value = instance.valueSparse(k);
+			if (instance.index(k) != classIndex && value != 0 && !Double.isNaN(value)) {
+				numValues++;
+			}
+		}
+		out.writeDouble(instance.classValue() == ConstantsAndUtils.privacyIndex ? 1 : -1);
+		out.writeDouble(instance.weight());
+		out.writeInt(numValues + (bias > 0 ? 1 : 0));
+		for (int k = 0; k < instance.numValues(); k++) {
+			int index = instance.index(k);
+			double value = instance.valueSparse(k);
+			if (index != classIndex && value != 0 && !Double.isNaN(value)) {
+				out.writeInt((index < classIndex ? index : index - 1) + 1);
+				out.writeDouble(value);
+			}
+		}
+		if (bias > 0) {
+			// the bias column is the last one, after the unused column of the class
+			out.writeInt(instance.numAttributes() + 1);
+			out.writeDouble(bias);
+		}
+	}
+
+	/**
+	 * One round of parameter averaging.
+	 */
+	private double[] average(DataInputStream[] in, DataOutputStream[] out, int n) throws IOException {
+		for (int t = 0; t < out.length; t++) {
+			out[t].writeInt(ParameterAveragingWorker.SOLVE_REGULARIZED);
+			out[t].flush();
+		}
+		double[] z = new double[n];
+		for (int t = 0; t < in.length; t++) {
+			for (int j = 0; j < n; j++) {
+				z[j] += in[t].readDouble() / in.length;
+			}
+		}
+		iterations = 1;
+		return z;
+	}
+
+	/**
+	 * Consensus ADMM (with the scaled dual variables of the workers kept by the coordinator).
+	 */
+	private double[] admm(DataInputStream[] in, DataOutputStream[] out, int n) throws IOException {
+		int workers = in.length;
+		double[] z = new double[n];
+		double[][] w = new double[workers][n];
+		double[][] u = new double[workers][n];
+		double currentRho = rho;
+		for (iterations = 1; iterations <= maxIterations; iterations++) {
+			for (int t = 0; t < workers; t++) {
+				out[t].writeInt(ParameterAveragingWorker.SOLVE);
+				out[t].writeDouble(currentRho);
+				for (int j = 0; j < n; j++) {
+					out[t].writeDouble(z[j] - u[t][j]);
+				}
+				out[t].flush();
+			}
+			// the workers solve their problems concurrently
+			for (int t = 0; t < workers; t++) {
+				for (int j = 0; j < n; j++) {
+					w[t][j] = in[t].readDouble();
+				}
+			}
+
+			// z minimizes 0.5 * ||z||^2 + workers * rho/2 * ||z - mean(w + u)||^2
+			double shrink = workers * currentRho / (1 + workers * currentRho);
+			double dualResidual = 0;
+			for (int j = 0; j < n; j++) {
+				double mean = 0;
+				for (int t = 0; t < workers; t++) {
+					mean += w[t][j] + u[t][j];
+				}
+				double zj = shrink * mean / workers;
+				dualResidual += (zj - z[j]) * (zj - z[j]);
+				z[j] = zj;
+			}
+			dualResidual = currentRho * Math.sqrt(workers * dualResidual);
+			double primalResidual = 0;
+			double wNorm = 0;
+			double uNorm = 0;
+			for (int t = 0; t < workers; t++) {
+				for (int j = 0; j < n; j++) {
+					u[t][j] += w[t][j] - z[j];
+					primalResidual += (w[t][j] - z[j]) * (w[t][j] - z[j]);
+					wNorm += w[t][j] * w[t][j];
+					uNorm += u[t][j] * u[t][j];
+				}
+			}
+			primalResidual = Math.sqrt(primalResidual);
+			double zNorm = 0;
+			for (int j = 0; j < n; j++) {
+				zNorm += z[j] * z[j];
+			}
+			double primalTolerance = Math.sqrt(n * workers) * absoluteTolerance + relativeTolerance
+					* Math.max(Math.sqrt(wNorm), Math.sqrt(workers * zNorm));
+			double dualTolerance = Math.sqrt(n * workers) * absoluteTolerance
+					+ relativeTolerance * currentRho * Math.sqrt(uNorm);
+			if (primalResidual <= primalTolerance && dualResidual <= dualTolerance) {
+				break;
+			}
+
+			// residual balancing, the scaled dual variables are rescaled with rho
+			double scale = 1;
+			if (primalResidual > 10 * dualResidual) {
+				scale = 2;
+			} else if (dualResidual > 10 * primalResidual) {
+				scale = 0.5;
+			}
+			if (scale != 1) {
+				currentRho *= scale;
+				for (int t = 0; t < workers; t++) {
+					for (int j = 0; j < n; j++) {
+						u[t][j] /= scale;
+					}
+				}
+			}
+		}
+		iterations = Math.min(iterations, maxIterations);
+		return z;
+	}
+}
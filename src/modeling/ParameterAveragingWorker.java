@@ -0,0 +1,101 @@
+package modeling;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import de.bwaldvogel.liblinear.Feature;
+import de.bwaldvogel.liblinear.FeatureNode;
+
+/**
+ * A worker process of {@link ParameterAveragingLogisticRegression}: it connects to the coordinator over a local
+ * socket, receives its shard of the training examples once and then solves the local problems that the
+ * coordinator sends until it is told to stop. Each local problem is solved with
+ * {@link TronLogisticRegression}, warm-started from the solution of the previous one. The protocol (big-endian,
+ * as DataInput/DataOutput) is:
+ * <ul>
+ * <li>worker: int id</li>
+ * <li>coordinator: int n (columns), int numRows, double cost, double eps, then for each row: double label (+1
+ * or -1), double weight, int numValues and numValues times (int column (1-based), double value)</li>
+ * <li>coordinator: {@link #SOLVE}, double rho, n doubles center (or {@link #SOLVE_REGULARIZED}), worker: n
+ * doubles w; repeated</li>
+ * <li>coordinator: {@link #STOP}</li>
+ * </ul>
+ */
+public class ParameterAveragingWorker {
+
+	/** Ends the work of the worker. */
+	public static final int STOP = 0;
+	/** Solves the local problem with the proximal term rho/2 * ||w - center||^2. */
+	public static final int SOLVE = 1;
+	/** Solves the local problem with the usual regularization term 0.5 * ||w||^2. */
+	public static final int SOLVE_REGULARIZED = 2;
+
+	/**
+	 * @param args
+	 *            [0] The port of the coordinator (on the loopback address)
+	 * @param args
+	 *            [1] The id of the worker
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = Integer.parseInt(args[0]);
+		int id = Integer.parseInt(args[1]);
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeInt(id);
+			out.flush();
+			work(in, out);
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static void work(DataInputStream in, DataOutputStream out) throws IOException {
+		int n = in.readInt();
+		int numRows = in.readInt();
+		double cost = in.readDouble();
+		double eps = in.readDouble();
+		Feature[][] x = new Feature[numRows][];
+		double[] y = new double[numRows];
+		double[] weights = new double[numRows];
+		for (int i = 0; i < numRows; i++) {
+			y[i] = in.readDouble();
+			weights[i] = in.readDouble();
+			x[i] = new Feature[in.readInt()];
+			for (int k = 0; k < x[i].length; k++) {
+				int column = in.readInt();
+				x[i][k] = new FeatureNode(column, in.readDouble());
+			}
+		}
+
+		TronLogisticRegression solver = new TronLogisticRegression(cost, eps);
+		double[] w = new double[n];
+		double[] center = new double[n];
+		int command;
+		while ((command = in.readInt()) != STOP) {
+			if (command == SOLVE) {
+				double rho = in.readDouble();
+				for (int j = 0; j < n; j++) {
+					center[j] = in.readDouble();
+				}
+				solver.solveProximal(x, y, weights, n, w, rho, center);
+			} else if (command == SOLVE_REGULARIZED) {
+				solver.solve(x, y, weights, n, w);
+			} else {
+				throw new IOException("Unknown command " + command);
+			}
+			for (int j = 0; j < n; j++) {
+				out.writeDouble(w[j]);
+			}
+			out.flush();
+		}
+	}
+}
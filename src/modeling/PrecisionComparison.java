@@ -0,0 +1,90 @@
+package modeling;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.LinkedHashMap;
+
+/**
+ * Runs {@link GenericModelEval} on the same split with the features stored in each
+ * {@link DenseMatrixDataset.Precision} (with the "tron" backend, which trains on the stored features) and
+ * reports the AUC differences of the reduced precisions from full precision, for every data set of the results (PicAlert test, YourAlert and each YourAlert user). A file
+ * 'results-precision_[featureType]_[classifier].txt' is written per feature type, with the lines:<br>
+ * numTrainExamples,user,dataset,auc (double),auc (float),delta (float),auc (int8),delta (int8)
+ */
+public class PrecisionComparison {
+
+	/**
+	 * @param args
+	 *            [0] Full path to the root folder where the PicAlert and YourAlert arffs reside (as in
+	 *            {@link GenericModelEval}).
+	 * @param args
+	 *            [1] (optional) Comma-separated list of feature types (default: the
+	 *            {@link GenericModelEval#denseFeatureTypes})
+	 * @param args
+	 *            [2] (optional) Classifier selection (default "liblinear"), one that the "tron" backend supports
+	 *            (see {@link TronLogisticRegression#supports(Object)})
+	 * @param args
+	 *            [3] (optional) Comma-separated list of training set sizes (default "50,100,500,1000,5000,-1")
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String datasetFolder = args[0];
+		String[] featureTypes = args.length > 1 ? args[1].split(",") : GenericModelEval.denseFeatureTypes;
+		String classifierChoice = args.length > 2 ? args[2] : "liblinear";
+		String numTrainExamplesList = args.length > 3 ? args[3] : "50,100,500,1000,5000,-1";
+		DenseMatrixDataset.Precision[] precisions = DenseMatrixDataset.Precision.values();
+
+		for (String featureType : featureTypes) {
+			if (!new File(datasetFolder + "picalert/" + featureType + ".arff").exists()) {
+				System.err.println("Skipping " + featureType + ", PicAlert dataset not found");
+				continue;
+			}
+			for (DenseMatrixDataset.Precision precision : precisions) {
+				GenericModelEval.main(new String[] { datasetFolder, featureType, classifierChoice,
+						numTrainExamplesList, precision.name().toLowerCase(), "tron" });
+			}
+
+			String resultsFilename = "results-precision_" + featureType + "_" + classifierChoice + ".txt";
+			BufferedWriter outResults = new BufferedWriter(new FileWriter(new File(resultsFilename)));
+			System.out.println("AUC differences from full precision (" + featureType + "):");
+			for (String numTrainExamples : numTrainExamplesList.split(",")) {
+				numTrainExamples = numTrainExamples.trim();
+				// the AUCs of each data set (user,dataset) in each precision
+				LinkedHashMap<String, double[]> aucs = new LinkedHashMap<String, double[]>();
+				for (int p = 0; p < precisions.length; p++) {
+					// the backend is given, so its suffix follows that of the precision
+					String suffix = (precisions[p] != DenseMatrixDataset.Precision.DOUBLE
+							? "_" + precisions[p].name().toLowerCase() : "") + "_tron";
+					BufferedReader reader = new BufferedReader(new FileReader("results-generic_" + numTrainExamples
+							+ "_" + featureType + "_" + classifierChoice + suffix + ".txt"));
+					String line;
+					while ((line = reader.readLine()) != null) {
+						// featureType,numTrainExamples,classifier,numTrainExamples,user,dataset,auc
+						String[] parts = line.split(",");
+						String key = parts[4] + "," + parts[5];
+						if (!aucs.containsKey(key)) {
+							aucs.put(key, new double[precisions.length]);
+						}
+						aucs.get(key)[p] = Double.parseDouble(parts[6]);
+					}
+					reader.close();
+				}
+				for (String key : aucs.keySet()) {
+					double[] auc = aucs.get(key);
+					StringBuilder result = new StringBuilder(numTrainExamples + "," + key + "," + auc[0]);
+					for (int p = 1; p < precisions.length; p++) {
+						result.append("," + auc[p] + "," + (auc[p] - auc[0]));
+					}
+					outResults.write(result + "\n");
+					if (key.startsWith("all,")) {
+						System.out.println(result);
+					}
+				}
+			}
+			outResults.close();
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package modeling;
+
+import weka.core.Instance;
+
+/**
+ * A dense instance that exposes some attributes of another instance (e.g. the feature columns and the class of
+ * an instance of the original arff files) through index remapping, without copying its values (see
+ * {@link AbstractViewInstance}). Being dense, it suits dense instances: a view of a sparse instance would make
+ * every classifier visit all its attributes (see {@link ColumnProjectionClassifier}).
+ */
+public class ProjectedInstance extends AbstractViewInstance {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Instance source;
+	/** The attribute of the viewed instance at each attribute of this instance. */
+	private final int[] columns;
+
+	/**
+	 * @param source
+	 *            The viewed instance.
+	 * @param columns
+	 *            The index of the attribute of the viewed instance at each attribute of this instance (not
+	 *            copied).
+	 */
+	public ProjectedInstance(Instance source, int[] columns) {
+		super(source.weight());
+		this.source = source;
+		this.columns = columns;
+	}
+
+	@Override
+	protected double viewedValue(int attIndex) {
+		return source.value(columns[attIndex]);
+	}
+
+	@Override
+	protected int numViewedAttributes() {
+		return columns.length;
+	}
+
+	@Override
+	protected AbstractViewInstance newView() {
+		return new ProjectedInstance(source, columns);
+	}
+}
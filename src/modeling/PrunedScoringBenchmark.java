@@ -0,0 +1,151 @@
+package modeling;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import weka.classifiers.Evaluation;
+import weka.classifiers.meta.FilteredClassifier;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * Compares dense and pruned models on the PicAlert train/test split of {@link GenericModelEval}: the L2
+ * ('liblinear') and the L1-regularized ('liblinear-l1') logistic regression models are scored with all their
+ * weights and with only their non-zero weights ({@link SparseLinearModel}). The L2 model is also pruned by
+ * magnitude to the number of non-zero weights of the L1 model. For each model the number of non-zero weights,
+ * the AUC on the PicAlert test set and the scoring time per example (best of a few repetitions) of both dense
+ * feature vectors and dense Weka instances ({@link LinearModelClassifier}) are reported.
+ */
+public class PrunedScoringBenchmark {
+
+	/** Keeps the JIT from discarding the computed scores. */
+	static double sink;
+
+	/**
+	 * @param args
+	 *            [0] Full path to the root folder where the PicAlert arffs reside (in the 'picalert' subfolder)
+	 * @param args
+	 *            [1] (optional) Name of the features to use (default "semfeat")
+	 * @param args
+	 *            [2] (optional) The number of repetitions of each measurement (default 200)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String datasetFolder = args[0];
+		String featureType = args.length > 1 ? args[1] : "semfeat";
+		int numRepetitions = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+		Instances data = DataSource.read(datasetFolder + "picalert/" + featureType + ".arff");
+		data.setClassIndex(data.numAttributes() - 1);
+		data.randomize(new Random(ConstantsAndUtils.seed));
+		InstancesView[] splitted = GenericModelEval.splitInTrainTestViews(data, GenericModelEval.trainPercent);
+		Instances train = splitted[0].toInstances();
+		Instances test = splitted[1].toInstances();
+		System.out.println("Train examples " + train.numInstances() + ", test examples " + test.numInstances());
+
+		// the test examples as dense Weka instances (the arffs are sparse) and as dense feature vectors (in the
+		// order of the columns of the models)
+		Instance[] instances = new Instance[test.numInstances()];
+		for (int i = 0; i < instances.length; i++) {
+			instances[i] = new DenseInstance(test.instance(i));
+			instances[i].setDataset(test);
+		}
+		int[] featureIndices = ConstantsAndUtils.featureIndices(test, ConstantsAndUtils.indicesToIgnore);
+		double[][] vectors = new double[test.numInstances()][featureIndices.length];
+		for (int i = 0; i < vectors.length; i++) {
+			for (int j = 0; j < featureIndices.length; j++) {
+				double value = test.instance(i).value(featureIndices[j]);
+				vectors[i][j] = Double.isNaN(value) ? 0 : value;
+			}
+		}
+
+		LinearModel l2 = train("liblinear", train);
+		LinearModel l1 = train("liblinear-l1", train);
+		SparseLinearModel l1Pruned = SparseLinearModel.prune(l1, 0);
+
+		SparseLinearModel l2Pruned = SparseLinearModel.prune(l2, 0);
+		SparseLinearModel l2MagnitudePruned = SparseLinearModel.prune(l2, magnitudeThreshold(l2, l1Pruned.nnz()));
+		// the first round warms up the JIT and is not printed
+		for (int round = 0; round < 2; round++) {
+			boolean print = round == 1;
+			if (print) {
+				System.out.println("model,non-zero weights,sparsity,auc,vector scoring (ns/example),"
+						+ "instance scoring (ns/example)");
+			}
+			report("liblinear dense", l2, null, train, test, instances, vectors, numRepetitions, print);
+			report("liblinear pruned", l2, l2Pruned, train, test, instances, vectors, numRepetitions, print);
+			report("liblinear pruned to " + l1Pruned.nnz(), l2, l2MagnitudePruned, train, test, instances,
+					vectors, numRepetitions, print);
+			report("liblinear-l1 dense", l1, null, train, test, instances, vectors, numRepetitions, print);
+			report("liblinear-l1 pruned", l1, l1Pruned, train, test, instances, vectors, numRepetitions, print);
+		}
+	}
+
+	/**
+	 * Trains the given classifier (see {@link ConstantsAndUtils#selectClassifier(String)}) on the training set
+	 * and returns its linear model.
+	 */
+	private static LinearModel train(String classifierChoice, Instances train) throws Exception {
+		FilteredClassifier filtered = ConstantsAndUtils.createFilteredClassifier(
+				ConstantsAndUtils.selectClassifier(classifierChoice), train, ConstantsAndUtils.indicesToIgnore);
+		filtered.buildClassifier(train);
+		return ModelExtraction.extractLinearModel(filtered);
+	}
+
+	/**
+	 * Returns the threshold that keeps (up to ties) the given number of weights of largest magnitude.
+	 */
+	private static double magnitudeThreshold(LinearModel model, int numKept) {
+		double[] magnitudes = new double[model.getWeights().length];
+		for (int i = 0; i < magnitudes.length; i++) {
+			magnitudes[i] = Math.abs(model.getWeights()[i]);
+		}
+		Arrays.sort(magnitudes);
+		return numKept >= magnitudes.length ? 0 : magnitudes[magnitudes.length - numKept - 1];
+	}
+
+	/**
+	 * Measures the given model and prints its line (if print is set): the dense model is scored when pruned is
+	 * null.
+	 */
+	private static void report(String name, LinearModel dense, SparseLinearModel pruned, Instances train,
+			Instances test, Instance[] instances, double[][] vectors, int numRepetitions, boolean print)
+			throws Exception {
+		LinearModelClassifier classifier = pruned == null
+				? new LinearModelClassifier(dense, test, ConstantsAndUtils.indicesToIgnore)
+				: new LinearModelClassifier(pruned, test, ConstantsAndUtils.indicesToIgnore);
+		Evaluation eval = new Evaluation(train);
+		eval.evaluateModel(classifier, test);
+
+		double checksum = 0;
+		long vectorTime = Long.MAX_VALUE;
+		long instanceTime = Long.MAX_VALUE;
+		for (int rep = 0; rep < numRepetitions; rep++) { // the best repetition is reported
+			long start = System.nanoTime();
+			if (pruned == null) {
+				for (int i = 0; i < vectors.length; i++) {
+					checksum += dense.margin(vectors[i]);
+				}
+			} else {
+				for (int i = 0; i < vectors.length; i++) {
+					checksum += pruned.margin(vectors[i]);
+				}
+			}
+			vectorTime = Math.min(vectorTime, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < instances.length; i++) {
+				checksum += classifier.margin(instances[i]);
+			}
+			instanceTime = Math.min(instanceTime, System.nanoTime() - start);
+		}
+		sink += checksum;
+		if (!print) {
+			return;
+		}
+		System.out.println(name + "," + (pruned == null ? dense.getWeights().length : pruned.nnz()) + ","
+				+ (pruned == null ? 0 : pruned.sparsity()) + "," + eval.areaUnderROC(ConstantsAndUtils.privacyIndex)
+				+ "," + vectorTime / vectors.length + "," + instanceTime / instances.length);
+	}
+}
@@ -0,0 +1,59 @@
+package modeling;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import weka.core.Instances;
+
+/**
+ * A sequential source of training rows that are read in blocks of a fixed size, so that the memory needed to
+ * go through a data set does not depend on its number of rows (see {@link StreamingLogisticRegression}).
+ */
+public interface RowStream extends Closeable {
+
+	/**
+	 * Returns the format of the examples (without examples).
+	 *
+	 * @return
+	 */
+	Instances header();
+
+	/**
+	 * Returns the number of features of a row, i.e. the attributes given by
+	 * {@link ConstantsAndUtils#featureIndices(Instances, String)}.
+	 *
+	 * @return
+	 */
+	int numFeatures();
+
+	/**
+	 * Reads the next rows. Rows with a missing class are skipped.
+	 *
+	 * @param x
+	 *            Receives the features of the rows, row by row.
+	 * @param y
+	 *            Receives the class value of each row.
+	 * @param weights
+	 *            Receives the weight of each row.
+	 * @param maxRows
+	 *            The maximum number of rows to read.
+	 * @return The number of rows read, 0 at the end of the data.
+	 * @throws IOException
+	 */
+	int read(double[] x, double[] y, double[] weights, int maxRows) throws IOException;
+
+	/**
+	 * Goes back to the first row.
+	 *
+	 * @throws IOException
+	 */
+	void rewind() throws IOException;
+
+	/**
+	 * Returns the fingerprint of the data (see {@link ConstantsAndUtils#fingerprint(Instances)}) once all rows
+	 * have been read, 0 if it is not known.
+	 *
+	 * @return
+	 */
+	long fingerprint();
+}
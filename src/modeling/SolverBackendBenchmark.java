@@ -0,0 +1,94 @@
+package modeling;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import de.bwaldvogel.liblinear.Linear;
+import de.bwaldvogel.liblinear.Problem;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.functions.LibLINEAR;
+import weka.classifiers.meta.FilteredClassifier;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * Compares the training time of the {@link LinearSolver} backends with that of Weka's LibLINEAR wrapper on
+ * nested training sets of the PicAlert split of {@link GenericModelEval}. The wrapper converts the Instances
+ * to a LibLinear problem on every training, while the backends train on the rows of a problem that is
+ * converted once (the conversion time is reported separately). For each training set size and backend, the
+ * best training time of a few repetitions and the AUC on the PicAlert test set are reported; the difference
+ * between 'weka' and 'liblinear' is the overhead of the wrapper, since both train the same model.
+ */
+public class SolverBackendBenchmark {
+
+	/**
+	 * @param args
+	 *            [0] Full path to the root folder where the PicAlert arffs reside (in the 'picalert' subfolder)
+	 * @param args
+	 *            [1] (optional) Name of the features to use (default "semfeat")
+	 * @param args
+	 *            [2] (optional) Comma-separated list of training set sizes (default "100,500,1000,5000,-1")
+	 * @param args
+	 *            [3] (optional) The number of repetitions of each measurement (default 3)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		// the debug output of LibLinear is global (see LibLinearTrainer#RANDOM_LOCK)
+		Linear.disableDebugOutput();
+		String datasetFolder = args[0];
+		String featureType = args.length > 1 ? args[1] : "semfeat";
+		String[] sizes = (args.length > 2 ? args[2] : "100,500,1000,5000,-1").split(",");
+		int numRepetitions = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+		String[] backends = { "weka", "liblinear", "tron" };
+
+		Instances data = DataSource.read(datasetFolder + "picalert/" + featureType + ".arff");
+		data.setClassIndex(data.numAttributes() - 1);
+		data.randomize(new Random(ConstantsAndUtils.seed));
+		InstancesView[] splitted = GenericModelEval.splitInTrainTestViews(data, GenericModelEval.trainPercent);
+		Instances test = splitted[1].toInstances();
+		LibLINEAR settings = (LibLINEAR) ConstantsAndUtils.selectClassifier("liblinear");
+
+		long start = System.nanoTime();
+		Problem problem = CompositeInstances
+				.of(splitted[0].toInstances(), ConstantsAndUtils.indicesToIgnore, settings.getBias()).toProblem();
+		System.out.println("Problem conversion time (ms, once): " + (System.nanoTime() - start) / 1000000);
+
+		System.out.println("size,backend,training time (ms),auc");
+		for (String sizeString : sizes) {
+			InstancesView trainView = GenericModelEval.truncate(splitted[0], Integer.parseInt(sizeString.trim()));
+			Instances train = trainView.toInstances();
+			int size = train.numInstances();
+			Problem sizeProblem = new Problem();
+			sizeProblem.l = size;
+			sizeProblem.n = problem.n;
+			sizeProblem.bias = problem.bias;
+			sizeProblem.x = Arrays.copyOfRange(problem.x, problem.l - size, problem.l);
+			sizeProblem.y = Arrays.copyOfRange(problem.y, problem.l - size, problem.l);
+
+			for (String backend : backends) {
+				LinearSolver solver = ConstantsAndUtils.selectSolver(backend, settings);
+				long best = Long.MAX_VALUE;
+				Classifier trained = null;
+				for (int rep = 0; rep < numRepetitions; rep++) {
+					start = System.nanoTime();
+					if (solver == null) {
+						FilteredClassifier classifier = ConstantsAndUtils.createFilteredClassifier(
+								ConstantsAndUtils.selectClassifier("liblinear"), train,
+								ConstantsAndUtils.indicesToIgnore);
+						classifier.buildClassifier(train);
+						trained = classifier;
+					} else {
+						trained = new LinearModelClassifier(solver.train(sizeProblem, null), data,
+								ConstantsAndUtils.indicesToIgnore);
+					}
+					best = Math.min(best, System.nanoTime() - start);
+				}
+				Evaluation eval = new Evaluation(train);
+				eval.evaluateModel(trained, test);
+				System.out.println(size + "," + backend + "," + best / 1000000.0 + ","
+						+ eval.areaUnderROC(ConstantsAndUtils.privacyIndex));
+			}
+		}
+	}
+}
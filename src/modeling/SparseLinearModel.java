@@ -0,0 +1,179 @@
+package modeling;
+
+import java.util.Arrays;
+
+/**
+ * A linear model that stores only its non-zero weights in compact index/value arrays. It is used for pruned
+ * models and for the deltas of {@link DeltaLinearModel}.
+ */
+public class SparseLinearModel {
+
+	private final int numFeatures;
+	/** Indices of the non-zero weights, in ascending order. */
+	private final int[] indices;
+	private final double[] values;
+	private final double bias;
+	private long fingerprint;
+
+	public SparseLinearModel(int numFeatures, int[] indices, double[] values, double bias) {
+		if (indices.length != values.length) {
+			throw new IllegalArgumentException("indices and values must have the same length");
+		}
+		this.numFeatures = numFeatures;
+		this.indices = indices;
+		this.values = values;
+		this.bias = bias;
+	}
+
+	/**
+	 * Keeps the weights of the given model whose magnitude is larger than the given threshold.
+	 *
+	 * @param model
+	 * @param threshold
+	 *            0 keeps all non-zero weights.
+	 * @return
+	 */
+	public static SparseLinearModel prune(LinearModel model, double threshold) {
+		return difference(model.getWeights(), new double[model.getWeights().length], model.getBias(), 0,
+				threshold);
+	}
+
+	/**
+	 * Returns the sparse delta (model - base), keeping only the differences whose magnitude is larger than the
+	 * given threshold. The difference of the biases is always kept.
+	 *
+	 * @param model
+	 * @param base
+	 * @param threshold
+	 * @return
+	 */
+	public static SparseLinearModel difference(LinearModel model, LinearModel base, double threshold) {
+		return difference(model.getWeights(), base.getWeights(), model.getBias(), base.getBias(), threshold);
+	}
+
+	private static SparseLinearModel difference(double[] weights, double[] baseWeights, double bias,
+			double baseBias, double threshold) {
+		if (weights.length != baseWeights.length) {
+			throw new IllegalArgumentException("Models have different dimensionality!");
+		}
+		int nnz = 0;
+		for (int i = 0; i < weights.length; i++) {
+			double delta = weights[i] - baseWeights[i];
+			if (delta != 0 && Math.abs(delta) > threshold) {
+				nnz++;
+			}
+		}
+		int[] indices = new int[nnz];
+		double[] values = new double[nnz];
+		int k = 0;
+		for (int i = 0; i < weights.length; i++) {
+			double delta = weights[i] - baseWeights[i];
+			if (delta != 0 && Math.abs(delta) > threshold) {
+				indices[k] = i;
+				values[k] = delta;
+				k++;
+			}
+		}
+		return new SparseLinearModel(weights.length, indices, values, bias - baseBias);
+	}
+
+	public int numFeatures() {
+		return numFeatures;
+	}
+
+	public int nnz() {
+		return indices.length;
+	}
+
+	public int[] indices() {
+		return indices;
+	}
+
+	public double[] values() {
+		return values;
+	}
+
+	public double bias() {
+		return bias;
+	}
+
+	public long fingerprint() {
+		return fingerprint;
+	}
+
+	public void setFingerprint(long fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Returns the fraction of zero weights.
+	 *
+	 * @return
+	 */
+	public double sparsity() {
+		return numFeatures == 0 ? 0 : 1 - (double) indices.length / numFeatures;
+	}
+
+	/**
+	 * Returns w*x + bias for a dense feature vector x.
+	 *
+	 * @param x
+	 * @return
+	 */
+	public double margin(double[] x) {
+		double sum = bias;
+		for (int k = 0; k < indices.length; k++) {
+			sum += values[k] * x[indices[k]];
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns w*x (without the bias) for a dense feature vector x.
+	 *
+	 * @param x
+	 * @return
+	 */
+	public double dot(double[] x) {
+		double sum = 0;
+		for (int k = 0; k < indices.length; k++) {
+			sum += values[k] * x[indices[k]];
+		}
+		return sum;
+	}
+
+	/**
+	 * Adds the weights of this model to the given dense vector.
+	 *
+	 * @param weights
+	 */
+	public void addTo(double[] weights) {
+		for (int k = 0; k < indices.length; k++) {
+			weights[indices[k]] += values[k];
+		}
+	}
+
+	/**
+	 * Returns the weight of the given feature (binary search over the non-zero indices).
+	 *
+	 * @param feature
+	 * @return
+	 */
+	public double weight(int feature) {
+		int k = Arrays.binarySearch(indices, feature);
+		return k >= 0 ? values[k] : 0;
+	}
+
+	/**
+	 * Returns a dense copy of this model.
+	 *
+	 * @param features
+	 *            The feature names of the dense model (may be null).
+	 * @return
+	 */
+	public LinearModel toLinearModel(String[] features) {
+		double[] weights = new double[numFeatures];
+		addTo(weights);
+		return new LinearModel(features, weights, bias, new int[0], fingerprint);
+	}
+}
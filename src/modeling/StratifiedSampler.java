@@ -0,0 +1,249 @@
+package modeling;
+
+import java.util.Random;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Draws random samples without replacement from a data set so that every class that occurs in the data is
+ * represented in the sample. The number of examples taken from each class is proportional to its frequency
+ * (with at least one example per class), and the examples of each class are drawn with a partial
+ * Fisher-Yates shuffle of a per-class index pool. The pools are kept between calls, so after an O(n)
+ * construction each sample costs O(k). Examples of a given group (e.g. a user) can be excluded from a sample;
+ * they are moved to the end of the pools when they are drawn.
+ */
+public class StratifiedSampler {
+
+	private final Instances data;
+	private final Random random;
+	/** The group of each example (-1 if the example belongs to no group). */
+	private final int[] groupOf;
+	/**
+	 * The indices of the examples of each class; the last pool holds the examples with a missing class value.
+	 */
+	private final int[][] pools;
+	/** The number of examples of each group in each pool. */
+	private final int[][] groupCounts;
+
+	/**
+	 * @param data
+	 * @param groupAttrIndex
+	 *            The index of a nominal attribute that defines the groups that can be excluded from a sample
+	 *            (e.g. {@link ConstantsAndUtils#userAttrIndex}), or -1 if no groups are needed.
+	 * @param random
+	 */
+	public StratifiedSampler(Instances data, int groupAttrIndex, Random random) {
+		this(data, null, groupAttrIndex, random);
+	}
+
+	/**
+	 * Samples the examples of the data set with the given indices (all examples if null), in that order.
+	 */
+	private StratifiedSampler(Instances data, int[] indices, int groupAttrIndex, Random random) {
+		this.data = data;
+		this.random = random;
+		int n = indices == null ? data.numInstances() : indices.length;
+		int numPools = data.numClasses() + 1;
+		int numGroups = groupAttrIndex >= 0 ? data.attribute(groupAttrIndex).numValues() : 0;
+		groupOf = new int[data.numInstances()];
+		int[] stratumOf = new int[n];
+		int[] sizes = new int[numPools];
+		groupCounts = new int[numGroups][numPools];
+		for (int i = 0; i < n; i++) {
+			int e = indices == null ? i : indices[i];
+			Instance instance = data.instance(e);
+			stratumOf[i] = instance.classIsMissing() ? numPools - 1 : (int) instance.classValue();
+			sizes[stratumOf[i]]++;
+			groupOf[e] = -1;
+			if (groupAttrIndex >= 0 && !instance.isMissing(groupAttrIndex)) {
+				groupOf[e] = (int) instance.value(groupAttrIndex);
+				groupCounts[groupOf[e]][stratumOf[i]]++;
+			}
+		}
+		pools = new int[numPools][];
+		for (int c = 0; c < numPools; c++) {
+			pools[c] = new int[sizes[c]];
+			sizes[c] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			pools[stratumOf[i]][sizes[stratumOf[i]]++] = indices == null ? i : indices[i];
+		}
+	}
+
+	/**
+	 * Draws a sample of the given size (see {@link #sample(int)}) from the given data set with a new sampler.
+	 *
+	 * @param data
+	 * @param numberToSelect
+	 * @param random
+	 * @return
+	 * @throws Exception
+	 */
+	public static InstancesView sampleFrom(Instances data, int numberToSelect, Random random)
+			throws Exception {
+		return new StratifiedSampler(data, -1, random).sample(numberToSelect);
+	}
+
+	/**
+	 * Same as {@link #sampleFrom(Instances, int, Random)} for the examples of a view, without copying them: the
+	 * sample is the same as that drawn from a copy of the view, and it is a view of the base data set of the
+	 * given view.
+	 *
+	 * @param data
+	 * @param numberToSelect
+	 * @param random
+	 * @return
+	 * @throws Exception
+	 */
+	public static InstancesView sampleFrom(InstancesView data, int numberToSelect, Random random)
+			throws Exception {
+		int[] indices = new int[data.numInstances()];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = data.baseIndex(i);
+		}
+		return new StratifiedSampler(data.base(), indices, -1, random).sample(numberToSelect);
+	}
+
+	/**
+	 * Returns the number of examples that do not belong to the given group.
+	 *
+	 * @param group
+	 * @return
+	 */
+	public int numInstancesExcluding(int group) {
+		int count = 0;
+		for (int c = 0; c < pools.length; c++) {
+			count += eligible(c, group);
+		}
+		return count;
+	}
+
+	/**
+	 * Draws a stratified sample of the given size from all examples.
+	 *
+	 * @param numberToSelect
+	 * @return
+	 * @throws Exception
+	 *             If there are not enough examples or the examples do not belong to at least two classes.
+	 */
+	public InstancesView sample(int numberToSelect) throws Exception {
+		return sampleExcluding(-1, numberToSelect);
+	}
+
+	/**
+	 * Draws a stratified sample of the given size from the examples that do not belong to the given group.
+	 *
+	 * @param group
+	 *            The excluded group (-1 excludes nothing).
+	 * @param numberToSelect
+	 * @return
+	 * @throws Exception
+	 *             If there are not enough examples or the examples do not belong to at least two classes.
+	 */
+	public InstancesView sampleExcluding(int group, int numberToSelect) throws Exception {
+		int numPools = pools.length;
+		int[] available = new int[numPools];
+		int total = 0;
+		int numClasses = 0;
+		int numStrata = 0;
+		for (int c = 0; c < numPools; c++) {
+			available[c] = eligible(c, group);
+			total += available[c];
+			if (available[c] > 0) {
+				numStrata++;
+				if (c < numPools - 1) {
+					numClasses++;
+				}
+			}
+		}
+		if (numberToSelect > total) {
+			throw new Exception("Not enough instances!");
+		}
+		// check that both classes are represented
+		if (numClasses < 2) {
+			throw new Exception("All examples belong to the same class!");
+		}
+		if (numberToSelect < numStrata) {
+			throw new Exception("At least " + numStrata + " instances are needed to represent all classes!");
+		}
+
+		int[] quotas = allocate(available, total, numberToSelect);
+		int[] selected = new int[numberToSelect];
+		int filled = 0;
+		for (int c = 0; c < numPools; c++) {
+			int[] pool = pools[c];
+			int end = pool.length;
+			int taken = 0;
+			while (taken < quotas[c]) {
+				int j = taken + random.nextInt(end - taken);
+				int e = pool[j];
+				if (group >= 0 && groupOf[e] == group) {
+					// move the excluded example out of the range that is drawn from
+					end--;
+					pool[j] = pool[end];
+					pool[end] = e;
+					continue;
+				}
+				pool[j] = pool[taken];
+				pool[taken] = e;
+				selected[filled++] = e;
+				taken++;
+			}
+		}
+		// mix the classes
+		for (int i = numberToSelect - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = selected[i];
+			selected[i] = selected[j];
+			selected[j] = tmp;
+		}
+		return new InstancesView(data, selected, 0, numberToSelect);
+	}
+
+	private int eligible(int pool, int group) {
+		return pools[pool].length - (group >= 0 ? groupCounts[group][pool] : 0);
+	}
+
+	/**
+	 * Allocates numberToSelect examples to the strata in proportion to their sizes (largest remainder
+	 * method), giving at least one example to every non-empty stratum.
+	 */
+	private static int[] allocate(int[] available, int total, int numberToSelect) {
+		int numPools = available.length;
+		int[] quotas = new int[numPools];
+		int sum = 0;
+		for (int c = 0; c < numPools; c++) {
+			if (available[c] > 0) {
+				quotas[c] = Math.max(1, (int) ((long) numberToSelect * available[c] / total));
+				sum += quotas[c];
+			}
+		}
+		while (sum > numberToSelect) { // caused by the minimum of one example per stratum
+			int largest = -1;
+			for (int c = 0; c < numPools; c++) {
+				if (quotas[c] > 1 && (largest < 0 || quotas[c] > quotas[largest])) {
+					largest = c;
+				}
+			}
+			quotas[largest]--;
+			sum--;
+		}
+		while (sum < numberToSelect) {
+			int best = -1;
+			double bestRemainder = 0;
+			for (int c = 0; c < numPools; c++) {
+				if (quotas[c] < available[c]) {
+					double remainder = (double) numberToSelect * available[c] / total - quotas[c];
+					if (best < 0 || remainder > bestRemainder) {
+						best = c;
+						bestRemainder = remainder;
+					}
+				}
+			}
+			quotas[best]++;
+			sum++;
+		}
+		return quotas;
+	}
+}
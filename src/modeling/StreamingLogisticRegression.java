@@ -0,0 +1,208 @@
+package modeling;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Trains an L2-regularized logistic regression model with AdaGrad (stochastic gradient descent with a
+ * per-feature learning rate) in several passes (epochs) over a {@link RowStream}, so that the training set
+ * never needs to fit in memory: only a buffer of about {@link #bufferBytes} bytes of rows and the model are kept,
+ * whatever the number of rows (and of features). The rows of each buffer are visited in a random order.
+ * <p>
+ * The objective is that of LibLinear's L2R_LR divided by C times the number of rows n, i.e. the mean weighted
+ * logistic loss plus ||w||^2 / (2 C n), with the intercept regularized as LibLinear's bias feature (with value
+ * 1). During the first epoch n is the number of rows seen so far. The model is oriented towards the private
+ * class, as those of {@link TronLogisticRegression}, and can be used by the extraction and scoring code (e.g.
+ * written with {@link LinearModelFile}).
+ */
+public class StreamingLogisticRegression {
+
+	/** The size of the rows read from the stream at a time (at least one row is read). */
+	public static final long bufferBytes = 32L << 20;
+
+	private final double cost;
+	private final double learningRate;
+	private final int numEpochs;
+
+	/** The mean weighted logistic loss of each epoch of the last training. */
+	private double[] epochLosses;
+	/** The number of rows of the last training. */
+	private long numRows;
+
+	/**
+	 * @param cost
+	 *            LibLinear's C.
+	 * @param learningRate
+	 *            The base learning rate of AdaGrad.
+	 * @param numEpochs
+	 *            The number of passes over the data.
+	 */
+	public StreamingLogisticRegression(double cost, double learningRate, int numEpochs) {
+		this.cost = cost;
+		this.learningRate = learningRate;
+		this.numEpochs = numEpochs;
+	}
+
+	/**
+	 * Returns the mean weighted logistic loss (during each epoch) of the last training.
+	 *
+	 * @return
+	 */
+	public double[] epochLosses() {
+		return epochLosses;
+	}
+
+	public long numRows() {
+		return numRows;
+	}
+
+	/**
+	 * Trains a model on the rows of the given stream, which is rewound before each epoch.
+	 *
+	 * @param stream
+	 * @return The model, oriented towards the private class, with the names of the feature attributes and the
+	 *         fingerprint of the stream.
+	 * @throws IOException
+	 */
+	public LinearModel train(RowStream stream) throws IOException {
+		int d = stream.numFeatures();
+		double[] w = new double[d];
+		double b = 0;
+		// the sums of the squared gradients
+		double[] sumSquares = new double[d];
+		double sumSquaresB = 0;
+
+		// the rows are read in doubles, whatever the precision of the stream
+		int bufferRows = (int) Math.max(1, bufferBytes / (8L * Math.max(1, d)));
+		double[] x = new double[bufferRows * d];
+		double[] y = new double[bufferRows];
+		double[] rowWeights = new double[bufferRows];
+		int[] order = new int[bufferRows];
+		Random random = new Random(ConstantsAndUtils.seed);
+		epochLosses = new double[numEpochs];
+		long seen = 0;
+
+		for (int epoch = 0; epoch < numEpochs; epoch++) {
+			stream.rewind();
+			double loss = 0;
+			double sumWeights = 0;
+			int numRead;
+			while ((numRead = stream.read(x, y, rowWeights, bufferRows)) > 0) {
+				for (int i = 0; i < numRead; i++) {
+					order[i] = i;
+				}
+				for (int i = numRead - 1; i > 0; i--) {
+					int k = random.nextInt(i + 1);
+					int tmp = order[i];
+					order[i] = order[k];
+					order[k] = tmp;
+				}
+				for (int k = 0; k < numRead; k++) {
+					int i = order[k];
+					int offset = i * d;
+					if (epoch == 0) {
+						seen++;
+					}
+					double regularization = 1 / (cost * seen);
+
+					double margin = b;
+					for (int j = 0; j < d; j++) {
+						margin += w[j] * x[offset + j];
+					}
+					double label = y[i] == ConstantsAndUtils.privacyIndex ? 1 : -1;
+					double labelMargin = label * margin;
+					loss += rowWeights[i] * (labelMargin > 0 ? Math.log1p(Math.exp(-labelMargin))
+							: -labelMargin + Math.log1p(Math.exp(labelMargin)));
+					sumWeights += rowWeights[i];
+					// the derivative of the weighted loss with respect to the margin
+					double dLoss = -label * rowWeights[i] / (1 + Math.exp(labelMargin));
+
+					for (int j = 0; j < d; j++) {
+						double g = dLoss * x[offset + j] + regularization * w[j];
+						if (g != 0) {
+							sumSquares[j] += g * g;
+							w[j] -= learningRate * g / Math.sqrt(sumSquares[j]);
+						}
+					}
+					double g = dLoss + regularization * b;
+					if (g != 0) {
+						sumSquaresB += g * g;
+						b -= learningRate * g / Math.sqrt(sumSquaresB);
+					}
+				}
+			}
+			epochLosses[epoch] = sumWeights > 0 ? loss / sumWeights : 0;
+		}
+		numRows = seen;
+
+		int[] featureIndices = ConstantsAndUtils.featureIndices(stream.header(), ConstantsAndUtils.indicesToIgnore);
+		String[] features = new String[d];
+		for (int j = 0; j < d; j++) {
+			features[j] = featureIndices.length == d ? stream.header().attribute(featureIndices[j]).name()
+					: "f" + (j + 1);
+		}
+		return new LinearModel(features, w, b,
+				new int[] { ConstantsAndUtils.privacyIndex, 1 - ConstantsAndUtils.privacyIndex },
+				stream.fingerprint());
+	}
+
+	/**
+	 * Trains a model on an arff file (or on its binary cache) without loading it and writes it in the format
+	 * of {@link LinearModelFile} (with feature names).
+	 *
+	 * @param args
+	 *            [0] Full path to the arff file (the class is the last attribute)
+	 * @param args
+	 *            [1] Full path to the model file to write
+	 * @param args
+	 *            [2] (optional) Number of epochs (default 5)
+	 * @param args
+	 *            [3] (optional) Base learning rate (default 0.1)
+	 * @param args
+	 *            [4] (optional) LibLinear's C (default 1, as the 'liblinear' classifier)
+	 * @param args
+	 *            [5] (optional) "double", "float" or "int8" to read the rows from the binary cache of the arff in
+	 *            that precision (see
+	 *            {@link DenseMatrixDataset#loadOffHeap(String, String, DenseMatrixDataset.Precision, ExperimentScope)},
+	 *            which first writes the cache if there is no valid one) instead of parsing the arff
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String arffPath = args[0];
+		File modelFile = new File(args[1]);
+		int numEpochs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		double learningRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.1;
+		double cost = args.length > 4 ? Double.parseDouble(args[4]) : 1;
+
+		RowStream stream;
+		if (args.length > 5) {
+			DenseMatrixDataset.Precision precision = DenseMatrixDataset.Precision.valueOf(args[5].toUpperCase());
+			// writes the cache if it does not exist or is out of date; its mappings are released right away
+			ExperimentScope scope = new ExperimentScope();
+			try {
+				DenseMatrixDataset.loadOffHeap(arffPath, ConstantsAndUtils.indicesToIgnore, precision, scope);
+			} finally {
+				scope.close();
+			}
+			stream = new CacheRowStream(arffPath, ConstantsAndUtils.indicesToIgnore, precision);
+		} else {
+			stream = new ArffRowStream(arffPath, ConstantsAndUtils.indicesToIgnore);
+		}
+		StreamingLogisticRegression trainer = new StreamingLogisticRegression(cost, learningRate, numEpochs);
+		long start = System.nanoTime();
+		LinearModel model;
+		try {
+			model = trainer.train(stream);
+		} finally {
+			stream.close();
+		}
+		System.out.println("Training time (ms): " + (System.nanoTime() - start) / 1000000);
+		System.out.println("Rows: " + trainer.numRows());
+		for (int epoch = 0; epoch < numEpochs; epoch++) {
+			System.out.println("Epoch " + (epoch + 1) + " mean log loss: " + trainer.epochLosses()[epoch]);
+		}
+		LinearModelFile.write(model, modelFile, true);
+		System.out.println("Model written to " + modelFile);
+	}
+}
@@ -0,0 +1,232 @@
+package modeling;
+
+import java.util.Arrays;
+
+import weka.core.Utils;
+
+/**
+ * Selects the indices of the k smallest or largest values of an array with bounded primitive heaps, in
+ * O(d log k) time instead of the O(d log d) of a full sort. The returned orders are exactly those obtained by
+ * taking the first (respectively, last) k entries of {@link Utils#stableSort(double[])}, including its
+ * treatment of ties: values that are {@link Utils#eq(double, double)} to the first value of their run are
+ * ordered by index, and missing values are treated as {@link Double#MAX_VALUE}.
+ */
+public class TopK {
+
+	/**
+	 * Returns the indices of the k smallest values, in the order of the first k entries of
+	 * Utils.stableSort(values).
+	 *
+	 * @param values
+	 * @param k
+	 * @return
+	 */
+	public static int[] smallest(double[] values, int k) {
+		checkK(values, k);
+		int[] result = new int[k];
+		if (k == 0) {
+			return result;
+		}
+		int[] candidates = sortedExtremes(values, k, false);
+		int filled = 0;
+		int i = 0;
+		while (i < k) {
+			double groupStart = key(values, candidates[i]);
+			int j = i + 1;
+			while (j < k && Utils.eq(key(values, candidates[j]), groupStart)) {
+				j++;
+			}
+			if (j < k) {
+				// the whole group is among the candidates
+				Arrays.sort(candidates, i, j);
+				System.arraycopy(candidates, i, result, filled, j - i);
+				filled += j - i;
+			} else {
+				// the last group may continue beyond the candidates
+				int[] group = groupStartingAt(values, groupStart);
+				System.arraycopy(group, 0, result, filled, k - filled);
+				filled = k;
+			}
+			i = j;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the indices of the k largest values, in the order of the last k entries of
+	 * Utils.stableSort(values) read from the end.
+	 *
+	 * @param values
+	 * @param k
+	 * @return
+	 */
+	public static int[] largest(double[] values, int k) {
+		checkK(values, k);
+		int[] result = new int[k];
+		if (k == 0) {
+			return result;
+		}
+		// Runs of ties are formed from the smallest value upwards, so the runs near the top are only known
+		// after a gap (two consecutive values that are not eq) below the top k. Enough candidates are selected
+		// to contain such a gap.
+		int m = Math.min(values.length, k + Math.max(k, 16));
+		while (true) {
+			int[] candidates = sortedExtremes(values, m, true);
+			int start = -1;
+			if (m == values.length) {
+				start = 0;
+			} else {
+				for (int p = m - k; p >= 1; p--) {
+					if (!Utils.eq(key(values, candidates[p]), key(values, candidates[p - 1]))) {
+						start = p;
+						break;
+					}
+				}
+			}
+			if (start >= 0) {
+				int i = start;
+				while (i < m) {
+					double groupStart = key(values, candidates[i]);
+					int j = i + 1;
+					while (j < m && Utils.eq(key(values, candidates[j]), groupStart)) {
+						j++;
+					}
+					Arrays.sort(candidates, i, j);
+					i = j;
+				}
+				for (int r = 0; r < k; r++) {
+					result[r] = candidates[m - 1 - r];
+				}
+				return result;
+			}
+			m = (int) Math.min(values.length, 2L * m);
+		}
+	}
+
+	/**
+	 * Returns the m smallest (or largest) values' indices, sorted by value and then by index (ascending).
+	 * A bounded heap keeps the current selection: a max-heap for the smallest values and a min-heap for the
+	 * largest ones, so that the root is always the element to be evicted.
+	 *
+	 * @param values
+	 * @param m
+	 * @param largest
+	 * @return
+	 */
+	private static int[] sortedExtremes(double[] values, int m, boolean largest) {
+		int[] heap = new int[m];
+		int size = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (size < m) {
+				heap[size] = i;
+				siftUp(values, heap, size, largest);
+				size++;
+			} else if (precedes(values, heap[0], i, largest)) {
+				heap[0] = i;
+				siftDown(values, heap, 0, size, largest);
+			}
+		}
+		// heap sort in place: repeatedly move the root to the end
+		for (int end = size - 1; end > 0; end--) {
+			int tmp = heap[0];
+			heap[0] = heap[end];
+			heap[end] = tmp;
+			siftDown(values, heap, 0, end, largest);
+		}
+		if (largest) {
+			// the min-heap yields a descending order
+			for (int i = 0, j = size - 1; i < j; i++, j--) {
+				int tmp = heap[i];
+				heap[i] = heap[j];
+				heap[j] = tmp;
+			}
+		}
+		return heap;
+	}
+
+	/**
+	 * Returns true if element a should be closer to the root than element b: for a max-heap (smallest values
+	 * are kept) this is when a is greater than b, for a min-heap when a is smaller.
+	 */
+	private static boolean precedes(double[] values, int a, int b, boolean minHeap) {
+		int c = compare(values, a, b);
+		return minHeap ? c < 0 : c > 0;
+	}
+
+	private static void siftUp(double[] values, int[] heap, int pos, boolean minHeap) {
+		int element = heap[pos];
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (!precedes(values, element, heap[parent], minHeap)) {
+				break;
+			}
+			heap[pos] = heap[parent];
+			pos = parent;
+		}
+		heap[pos] = element;
+	}
+
+	private static void siftDown(double[] values, int[] heap, int pos, int size, boolean minHeap) {
+		int element = heap[pos];
+		while (true) {
+			int child = 2 * pos + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && precedes(values, heap[child + 1], heap[child], minHeap)) {
+				child++;
+			}
+			if (!precedes(values, heap[child], element, minHeap)) {
+				break;
+			}
+			heap[pos] = heap[child];
+			pos = child;
+		}
+		heap[pos] = element;
+	}
+
+	/**
+	 * Compares two elements by value and then by index.
+	 */
+	private static int compare(double[] values, int a, int b) {
+		int c = Double.compare(key(values, a), key(values, b));
+		if (c != 0) {
+			return c;
+		}
+		return a < b ? -1 : (a == b ? 0 : 1);
+	}
+
+	/**
+	 * Returns the indices of all values that belong to the run of ties that starts at the given value,
+	 * sorted by index.
+	 */
+	private static int[] groupStartingAt(double[] values, double groupStart) {
+		int size = 0;
+		for (int i = 0; i < values.length; i++) {
+			double v = key(values, i);
+			if (v >= groupStart && Utils.eq(v, groupStart)) {
+				size++;
+			}
+		}
+		int[] group = new int[size];
+		size = 0;
+		for (int i = 0; i < values.length; i++) {
+			double v = key(values, i);
+			if (v >= groupStart && Utils.eq(v, groupStart)) {
+				group[size++] = i;
+			}
+		}
+		return group;
+	}
+
+	private static double key(double[] values, int i) {
+		double v = values[i];
+		return Double.isNaN(v) ? Double.MAX_VALUE : v;
+	}
+
+	private static void checkK(double[] values, int k) {
+		if (k < 0 || k > values.length) {
+			throw new IllegalArgumentException("k must be between 0 and " + values.length + ", " + k + " found!");
+		}
+	}
+}
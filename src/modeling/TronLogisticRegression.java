@@ -0,0 +1,514 @@
+package modeling;
+
+import de.bwaldvogel.liblinear.Feature;
+import de.bwaldvogel.liblinear.Problem;
+import de.bwaldvogel.liblinear.SolverType;
+import weka.classifiers.functions.LibLINEAR;
+
+/**
+ * L2-regularized logistic regression solved with the trust region Newton method of LibLinear (the L2R_LR
+ * solver), with two additions that LibLinear's implementation lacks: the optimization can start from a given
+ * weight vector (warm start), and every example has its own cost, so that an example with an integer weight
+ * does not need to be repeated. The objective is
+ *
+ * <pre>
+ * 0.5 * ||w||^2 + sum_i C * weight_i * log(1 + exp(-y_i * w * x_i))
+ * </pre>
+ *
+ * and the stopping criterion is the same as LibLinear's (a gradient norm relative to the gradient norm at
+ * w = 0), so that a warm-started and a cold-started solution are equally accurate. Labels are oriented
+ * towards the private class. It is the in-project {@link LinearSolver} backend.
+ */
+public class TronLogisticRegression implements LinearSolver {
+
+	/**
+	 * The examples of a problem as seen by the solver: a matrix whose columns are laid out as those of
+	 * {@link CompositeInstances} (the feature columns, the unused column of the class attribute and the bias
+	 * column).
+	 */
+	interface Rows {
+
+		int numRows();
+
+		/** Computes Xv = X * v. */
+		void Xv(double[] v, double[] Xv);
+
+		/** Computes XTv = X^T * v. */
+		void XTv(double[] v, double[] XTv);
+	}
+
+	/** Sparse LibLinear rows (1-based column indices). */
+	private static class SparseRows implements Rows {
+		private final Feature[][] x;
+
+		SparseRows(Feature[][] x) {
+			this.x = x;
+		}
+
+		public int numRows() {
+			return x.length;
+		}
+
+		public void Xv(double[] v, double[] Xv) {
+			for (int i = 0; i < x.length; i++) {
+				double sum = 0;
+				for (Feature feature : x[i]) {
+					sum += v[feature.getIndex() - 1] * feature.getValue();
+				}
+				Xv[i] = sum;
+			}
+		}
+
+		public void XTv(double[] v, double[] XTv) {
+			for (int j = 0; j < XTv.length; j++) {
+				XTv[j] = 0;
+			}
+			for (int i = 0; i < x.length; i++) {
+				for (Feature feature : x[i]) {
+					XTv[feature.getIndex() - 1] += v[i] * feature.getValue();
+				}
+			}
+		}
+	}
+
+	/** The maximum number of Newton iterations (LibLinear's TRON uses the same value). */
+	public static final int maxIterations = 1000;
+
+	private final double cost;
+	private final double eps;
+
+	/** The number of Newton iterations of the last call to solve. */
+	private int iterations;
+	/** The number of conjugate gradient iterations of the last call to solve. */
+	private int cgIterations;
+
+	// the proximal term of the current problem, rho/2 * ||w - center||^2 instead of 0.5 * ||w||^2 (if center is
+	// not null)
+	private double rho = 1;
+	private double[] center;
+	// per-example buffers of the current problem
+	private double[] z;
+	private double[] d;
+	private double[] c;
+	private double[] tmp;
+
+	/**
+	 * @param cost
+	 *            LibLinear's C.
+	 * @param eps
+	 *            LibLinear's tolerance of the termination criterion.
+	 */
+	public TronLogisticRegression(double cost, double eps) {
+		this.cost = cost;
+		this.eps = eps;
+	}
+
+	/**
+	 * Returns true if the given classifier is a LibLINEAR classifier whose models can be trained by this class
+	 * (see also {@link LibLinearTrainer#supports(Object)}).
+	 *
+	 * @param classifier
+	 * @return
+	 */
+	public static boolean supports(Object classifier) {
+		return LibLinearTrainer.supports(classifier) && SolverType.getById(
+				((LibLINEAR) classifier).getSVMType().getSelectedTag().getID()) == SolverType.L2R_LR;
+	}
+
+	/**
+	 * Returns a solver with the cost and tolerance of the given LibLINEAR classifier, which must use the L2R_LR
+	 * solver.
+	 *
+	 * @param liblinear
+	 * @return
+	 * @throws Exception
+	 */
+	public static TronLogisticRegression of(LibLINEAR liblinear) throws Exception {
+		if (SolverType.getById(liblinear.getSVMType().getSelectedTag().getID()) != SolverType.L2R_LR) {
+			throw new Exception("Only L2-regularized logistic regression (primal) is supported!");
+		}
+		return new TronLogisticRegression(liblinear.getCost(), liblinear.getEps());
+	}
+
+	public int iterations() {
+		return iterations;
+	}
+
+	public int cgIterations() {
+		return cgIterations;
+	}
+
+	/**
+	 * Trains a model on the given examples, starting from the given model.
+	 *
+	 * @param data
+	 * @param initial
+	 *            The starting point (e.g. a model trained on the base examples alone) or null to start from
+	 *            w = 0.
+	 * @return The model, oriented towards the private class (without feature names).
+	 * @throws Exception
+	 */
+	public LinearModel train(CompositeInstances data, LinearModel initial) throws Exception {
+		Problem problem = data.toWeightedProblem();
+		return train(problem.x, labels(problem.y), data.rowWeights(), data.numFeatures(), initial);
+	}
+
+	/**
+	 * Trains a model on the given problem (every row has weight 1), starting from the given model.
+	 *
+	 * @param problem
+	 *            The rows, laid out as those of {@link CompositeInstances}, and their class values.
+	 * @param initial
+	 *            The starting point or null to start from w = 0.
+	 * @return The model, oriented towards the private class (without feature names).
+	 * @throws Exception
+	 */
+	public LinearModel train(Problem problem, LinearModel initial) throws Exception {
+		double[] weights = new double[problem.l];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = 1;
+		}
+		return train(problem.x, labels(problem.y), weights, problem.n - 2, initial);
+	}
+
+	public boolean warmStarts() {
+		return true;
+	}
+
+	/**
+	 * Trains a model on the given rows, which are laid out as those of {@link CompositeInstances}: numFeatures
+	 * feature columns, the (unused) column of the class attribute and the bias column.
+	 *
+	 * @param x
+	 * @param y
+	 *            The labels (+1 for the private class, -1 otherwise, see {@link #labels(double[])}).
+	 * @param weights
+	 *            The weight of each row.
+	 * @param numFeatures
+	 * @param initial
+	 *            The starting point or null to start from w = 0.
+	 * @return The model, oriented towards the private class (without feature names).
+	 * @throws Exception
+	 */
+	public LinearModel train(Feature[][] x, double[] y, double[] weights, int numFeatures, LinearModel initial)
+			throws Exception {
+		return train(new SparseRows(x), y, weights, numFeatures, initial);
+	}
+
+	/**
+	 * Trains a model on the given rows of a {@link DenseMatrixDataset}, directly on its contiguous block of
+	 * features. Every row has weight 1.
+	 *
+	 * @param data
+	 * @param rows
+	 *            The indices of the training examples.
+	 * @param bias
+	 *            The value of the bias feature (LibLINEAR's bias, must be non-negative).
+	 * @param initial
+	 *            The starting point or null to start from w = 0.
+	 * @return The model, oriented towards the private class (without feature names).
+	 * @throws Exception
+	 */
+	public LinearModel train(DenseMatrixDataset data, int[] rows, double bias, LinearModel initial)
+			throws Exception {
+		if (bias < 0) {
+			throw new IllegalArgumentException("Only problems with a bias feature are supported!");
+		}
+		double[] classValues = new double[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			classValues[i] = data.label(rows[i]);
+			if (Double.isNaN(classValues[i])) {
+				throw new Exception("Examples with a missing class are not supported!");
+			}
+		}
+		double[] weights = new double[rows.length];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = 1;
+		}
+		return train(data.rows(rows, bias), labels(classValues), weights, data.numFeatures(), initial);
+	}
+
+	private LinearModel train(Rows x, double[] y, double[] weights, int numFeatures, LinearModel initial)
+			throws Exception {
+		int n = numFeatures + 2;
+		double[] w = new double[n];
+		if (initial != null) {
+			if (initial.getWeights().length != numFeatures) {
+				throw new Exception("Expected initial weight vector length = " + numFeatures + ". "
+						+ initial.getWeights().length + " found!");
+			}
+			System.arraycopy(initial.getWeights(), 0, w, 0, numFeatures);
+			w[n - 1] = initial.getBias();
+		}
+		solve(x, y, weights, n, w);
+		double[] modelWeights = new double[numFeatures];
+		System.arraycopy(w, 0, modelWeights, 0, numFeatures);
+		return new LinearModel(null, modelWeights, w[n - 1],
+				new int[] { ConstantsAndUtils.privacyIndex, 1 - ConstantsAndUtils.privacyIndex }, 0);
+	}
+
+	/**
+	 * Converts class values to the labels of the solver: +1 for the private class and -1 otherwise.
+	 *
+	 * @param classValues
+	 * @return
+	 */
+	public static double[] labels(double[] classValues) {
+		double[] y = new double[classValues.length];
+		for (int i = 0; i < y.length; i++) {
+			y[i] = classValues[i] == ConstantsAndUtils.privacyIndex ? 1 : -1;
+		}
+		return y;
+	}
+
+	/**
+	 * Minimizes the objective starting from the given w, which is overwritten with the solution.
+	 *
+	 * @param x
+	 *            The sparse examples (1-based column indices).
+	 * @param y
+	 *            The labels (+1 or -1).
+	 * @param weights
+	 *            The weight of each example.
+	 * @param n
+	 *            The number of columns.
+	 * @param w
+	 *            The starting point and the solution.
+	 */
+	public void solve(Feature[][] x, double[] y, double[] weights, int n, double[] w) {
+		solve(new SparseRows(x), y, weights, n, w);
+	}
+
+	/**
+	 * Same as {@link #solve(Feature[][], double[], double[], int, double[])} but with the regularization term
+	 * replaced by the proximal term rho/2 * ||w - center||^2, i.e. the local step of consensus ADMM (see
+	 * {@link ParameterAveragingLogisticRegression}).
+	 *
+	 * @param x
+	 * @param y
+	 * @param weights
+	 * @param n
+	 * @param w
+	 *            The starting point and the solution.
+	 * @param rho
+	 *            The weight of the proximal term (positive).
+	 * @param center
+	 *            The center of the proximal term (n values).
+	 */
+	public void solveProximal(Feature[][] x, double[] y, double[] weights, int n, double[] w, double rho,
+			double[] center) {
+		this.rho = rho;
+		this.center = center;
+		try {
+			solve(new SparseRows(x), y, weights, n, w);
+		} finally {
+			this.rho = 1;
+			this.center = null;
+		}
+	}
+
+	/**
+	 * Minimizes the objective on the given rows (e.g. those of {@link MultiTaskLogisticRegression}) starting
+	 * from the given w, which is overwritten with the solution.
+	 */
+	void solve(Rows x, double[] y, double[] weights, int n, double[] w) {
+		int l = x.numRows();
+		z = new double[l];
+		d = new double[l];
+		c = new double[l];
+		tmp = new double[l];
+		double total = 0;
+		double pos = 0;
+		for (int i = 0; i < l; i++) {
+			c[i] = cost * weights[i];
+			total += weights[i];
+			if (y[i] > 0) {
+				pos += weights[i];
+			}
+		}
+		// same tolerance as LibLinear on the problem where each example is repeated weight times
+		double tol = eps * Math.max(Math.min(pos, total - pos), 1) / total;
+
+		double eta0 = 1e-4, eta1 = 0.25, eta2 = 0.75;
+		double sigma1 = 0.25, sigma2 = 0.5, sigma3 = 4;
+		double[] s = new double[n];
+		double[] r = new double[n];
+		double[] wNew = new double[n];
+		double[] g = new double[n];
+
+		// the gradient at w = 0 is -0.5 * sum_i c_i * y_i * x_i
+		for (int i = 0; i < l; i++) {
+			tmp[i] = -0.5 * c[i] * y[i];
+		}
+		x.XTv(tmp, g);
+		if (center != null) {
+			// plus the gradient of the proximal term at w = 0
+			daxpy(-rho, center, g);
+		}
+		double gnorm0 = euclideanNorm(g);
+
+		double f = fun(x, y, w);
+		grad(x, y, w, g);
+		double gnorm = euclideanNorm(g);
+		double delta = gnorm;
+		iterations = 0;
+		cgIterations = 0;
+		boolean search = gnorm > tol * gnorm0;
+		int iter = 1;
+		while (iter <= maxIterations && search) {
+			cgIterations += trcg(x, delta, g, s, r, n);
+			System.arraycopy(w, 0, wNew, 0, n);
+			daxpy(1, s, wNew);
+			double gs = dot(g, s);
+			double prered = -0.5 * (gs - dot(s, r));
+			double fnew = fun(x, y, wNew);
+			double actred = f - fnew;
+			double snorm = euclideanNorm(s);
+			if (iter == 1) {
+				delta = Math.min(delta, snorm);
+			}
+			double alpha = fnew - f - gs <= 0 ? sigma3 : Math.max(sigma1, -0.5 * (gs / (fnew - f - gs)));
+			if (actred < eta0 * prered) {
+				delta = Math.min(Math.max(alpha, sigma1) * snorm, sigma2 * delta);
+			} else if (actred < eta1 * prered) {
+				delta = Math.max(sigma1 * delta, Math.min(alpha * snorm, sigma2 * delta));
+			} else if (actred < eta2 * prered) {
+				delta = Math.max(sigma1 * delta, Math.min(alpha * snorm, sigma3 * delta));
+			} else {
+				delta = Math.max(delta, Math.min(alpha * snorm, sigma3 * delta));
+			}
+			if (actred > eta0 * prered) {
+				iter++;
+				iterations++;
+				System.arraycopy(wNew, 0, w, 0, n);
+				f = fnew;
+				grad(x, y, w, g);
+				gnorm = euclideanNorm(g);
+				if (gnorm <= tol * gnorm0) {
+					break;
+				}
+			}
+			if (f < -1.0e+32) {
+				break;
+			}
+			if (Math.abs(actred) <= 0 && prered <= 0) {
+				break;
+			}
+			if (Math.abs(actred) <= 1.0e-12 * Math.abs(f) && Math.abs(prered) <= 1.0e-12 * Math.abs(f)) {
+				break;
+			}
+		}
+		z = d = c = tmp = null;
+	}
+
+	private double fun(Rows x, double[] y, double[] w) {
+		x.Xv(w, z);
+		double f;
+		if (center == null) {
+			f = dot(w, w) / 2;
+		} else {
+			f = 0;
+			for (int j = 0; j < w.length; j++) {
+				f += (w[j] - center[j]) * (w[j] - center[j]);
+			}
+			f *= rho / 2;
+		}
+		for (int i = 0; i < z.length; i++) {
+			double yz = y[i] * z[i];
+			if (yz >= 0) {
+				f += c[i] * Math.log(1 + Math.exp(-yz));
+			} else {
+				f += c[i] * (-yz + Math.log(1 + Math.exp(yz)));
+			}
+		}
+		return f;
+	}
+
+	/** Computes the gradient at the w of the last call to fun (whose margins are in z). */
+	private void grad(Rows x, double[] y, double[] w, double[] g) {
+		for (int i = 0; i < z.length; i++) {
+			double sigma = 1 / (1 + Math.exp(-y[i] * z[i]));
+			d[i] = sigma * (1 - sigma);
+			tmp[i] = c[i] * (sigma - 1) * y[i];
+		}
+		x.XTv(tmp, g);
+		if (center == null) {
+			for (int j = 0; j < w.length; j++) {
+				g[j] += w[j];
+			}
+		} else {
+			for (int j = 0; j < w.length; j++) {
+				g[j] += rho * (w[j] - center[j]);
+			}
+		}
+	}
+
+	private void Hv(Rows x, double[] s, double[] Hs) {
+		x.Xv(s, tmp);
+		for (int i = 0; i < tmp.length; i++) {
+			tmp[i] = c[i] * d[i] * tmp[i];
+		}
+		x.XTv(tmp, Hs);
+		for (int j = 0; j < s.length; j++) {
+			Hs[j] += rho * s[j];
+		}
+	}
+
+	private int trcg(Rows x, double delta, double[] g, double[] s, double[] r, int n) {
+		double[] dir = new double[n];
+		double[] Hd = new double[n];
+		for (int i = 0; i < n; i++) {
+			s[i] = 0;
+			r[i] = -g[i];
+			dir[i] = r[i];
+		}
+		double cgtol = 0.1 * euclideanNorm(g);
+		int cgIter = 0;
+		double rTr = dot(r, r);
+		while (euclideanNorm(r) > cgtol) {
+			cgIter++;
+			Hv(x, dir, Hd);
+			double alpha = rTr / dot(dir, Hd);
+			daxpy(alpha, dir, s);
+			if (euclideanNorm(s) > delta) {
+				// the step reaches the trust region boundary
+				daxpy(-alpha, dir, s);
+				double std = dot(s, dir);
+				double sts = dot(s, s);
+				double dtd = dot(dir, dir);
+				double dsq = delta * delta;
+				double rad = Math.sqrt(std * std + dtd * (dsq - sts));
+				alpha = std >= 0 ? (dsq - sts) / (std + rad) : (rad - std) / dtd;
+				daxpy(alpha, dir, s);
+				daxpy(-alpha, Hd, r);
+				break;
+			}
+			daxpy(-alpha, Hd, r);
+			double rnewTrnew = dot(r, r);
+			double beta = rnewTrnew / rTr;
+			for (int i = 0; i < n; i++) {
+				dir[i] = r[i] + beta * dir[i];
+			}
+			rTr = rnewTrnew;
+		}
+		return cgIter;
+	}
+
+	private static void daxpy(double constant, double[] vector1, double[] vector2) {
+		for (int i = 0; i < vector1.length; i++) {
+			vector2[i] += constant * vector1[i];
+		}
+	}
+
+	private static double dot(double[] vector1, double[] vector2) {
+		double product = 0;
+		for (int i = 0; i < vector1.length; i++) {
+			product += vector1[i] * vector2[i];
+		}
+		return product;
+	}
+
+	private static double euclideanNorm(double[] vector) {
+		return Math.sqrt(dot(vector, vector));
+	}
+}
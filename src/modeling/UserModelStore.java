@@ -0,0 +1,415 @@
+package modeling;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A single file that packs the (personalized) models of many users. The file is an append-only log of
+ * records, each holding a user id and a model encoded in the {@link LinearModelFile} format (without feature
+ * names, which are shared by all users and can be kept e.g. in the generic model's file). The file is read
+ * through memory mappings, so model weights live in the page cache rather than in the heap; only the user id
+ * &rarr; offset index is kept in memory, giving O(1) lookups.
+ * <p>
+ * Appending or replacing the model of a user is atomic: the record is written and forced to disk before the
+ * committed length in the file header is advanced. A record that was not committed (e.g. because of a crash)
+ * is ignored when the store is opened and overwritten by the next append. Replaced records become garbage
+ * that can be reclaimed with {@link #compact(File, int)}.
+ * <p>
+ * Personal models can alternatively be stored as sparse deltas over a generic model (see
+ * {@link DeltaLinearModel}), which shrinks each record to the size of the non-zero corrections.
+ * <p>
+ * The file is mapped in chunks of {@link #CHUNK_SIZE} bytes and records never cross a chunk boundary.
+ */
+public class UserModelStore implements Closeable {
+
+	public static final int MAGIC = 0x554D5331;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 64;
+	public static final long CHUNK_SIZE = 1L << 30;
+
+	/** Offset of the committed length in the header. */
+	private static final int COMMITTED_OFFSET = 16;
+	/** User id length that marks a padding record. */
+	private static final int PADDING = -1;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final int numFeatures;
+	private final ConcurrentHashMap<String, Long> index = new ConcurrentHashMap<String, Long>();
+	private long committed;
+	/** Updated by the appends, under the lock of the store. */
+	private long garbage;
+	private MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+	private UserModelStore(File file, int numFeatures) throws IOException {
+		this.file = file;
+		boolean exists = file.exists() && file.length() > 0;
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		if (exists) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(header, 0);
+			if (header.getInt(0) != MAGIC) {
+				raf.close();
+				throw new IOException("Not a user model store: " + file);
+			}
+			if (header.getInt(4) != VERSION) {
+				raf.close();
+				throw new IOException("Unsupported user model store version " + header.getInt(4) + " (version "
+						+ VERSION + " expected): " + file);
+			}
+			if (header.getInt(8) != numFeatures) {
+				raf.close();
+				throw new IOException("Store has " + header.getInt(8) + " features, " + numFeatures
+						+ " expected!");
+			}
+			committed = header.getLong(COMMITTED_OFFSET);
+			loadIndex();
+		} else {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(0, MAGIC);
+			header.putInt(4, VERSION);
+			header.putInt(8, numFeatures);
+			header.putLong(COMMITTED_OFFSET, HEADER_SIZE);
+			writeFully(header, 0);
+			channel.force(true);
+			committed = HEADER_SIZE;
+		}
+		this.numFeatures = numFeatures;
+	}
+
+	/**
+	 * Opens the store at the given file, creating it if it does not exist.
+	 *
+	 * @param file
+	 * @param numFeatures
+	 *            The dimensionality of all models in the store.
+	 * @return
+	 * @throws IOException
+	 */
+	public static UserModelStore open(File file, int numFeatures) throws IOException {
+		return new UserModelStore(file, numFeatures);
+	}
+
+	public int numFeatures() {
+		return numFeatures;
+	}
+
+	public int numUsers() {
+		return index.size();
+	}
+
+	public Set<String> users() {
+		return Collections.unmodifiableSet(index.keySet());
+	}
+
+	public boolean contains(String user) {
+		return index.containsKey(user);
+	}
+
+	/**
+	 * Returns the number of bytes occupied by replaced models.
+	 *
+	 * @return
+	 */
+	public synchronized long garbageBytes() {
+		return garbage;
+	}
+
+	/**
+	 * Appends the model of the given user, replacing any previous model of that user.
+	 *
+	 * @param user
+	 * @param model
+	 * @throws IOException
+	 */
+	public void put(String user, LinearModel model) throws IOException {
+		if (model.getWeights().length != numFeatures) {
+			throw new IllegalArgumentException("Expected " + numFeatures + " weights, "
+					+ model.getWeights().length + " found!");
+		}
+		byte[] userBytes = user.getBytes(LinearModelFile.UTF8);
+		int payloadOffset = align8(8 + userBytes.length);
+		ByteBuffer record = ByteBuffer
+				.allocate(align8(payloadOffset + LinearModelFile.encodedSize(model, false)));
+		record.position(payloadOffset);
+		LinearModelFile.encode(model, false, record);
+		append(user, userBytes, record);
+	}
+
+	/**
+	 * Appends the model of the given user as a sparse delta over a generic model, replacing any previous model
+	 * of that user.
+	 *
+	 * @param user
+	 * @param delta
+	 * @throws IOException
+	 */
+	public void putDelta(String user, SparseLinearModel delta) throws IOException {
+		if (delta.numFeatures() != numFeatures) {
+			throw new IllegalArgumentException("Expected " + numFeatures + " features, "
+					+ delta.numFeatures() + " found!");
+		}
+		byte[] userBytes = user.getBytes(LinearModelFile.UTF8);
+		int payloadOffset = align8(8 + userBytes.length);
+		ByteBuffer record = ByteBuffer.allocate(align8(payloadOffset + LinearModelFile.encodedSize(delta)));
+		record.position(payloadOffset);
+		LinearModelFile.encode(delta, record);
+		append(user, userBytes, record);
+	}
+
+	/**
+	 * Appends a record whose payload has already been written in the given buffer.
+	 *
+	 * @param user
+	 * @param userBytes
+	 * @param record
+	 * @throws IOException
+	 */
+	private synchronized void append(String user, byte[] userBytes, ByteBuffer record) throws IOException {
+		int recordLength = record.capacity();
+		if (recordLength > CHUNK_SIZE) {
+			throw new IllegalArgumentException("Model too large for the store!");
+		}
+		long position = committed;
+		if (position / CHUNK_SIZE != (position + recordLength - 1) / CHUNK_SIZE) {
+			// pad until the next chunk so that the record does not cross a chunk boundary
+			long paddingLength = CHUNK_SIZE - position % CHUNK_SIZE;
+			ByteBuffer padding = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			padding.putInt(0, (int) paddingLength);
+			padding.putInt(4, PADDING);
+			writeFully(padding, position);
+			position += paddingLength;
+		}
+		record.order(ByteOrder.LITTLE_ENDIAN);
+		record.putInt(0, recordLength);
+		record.putInt(4, userBytes.length);
+		record.position(8);
+		record.put(userBytes);
+		record.clear();
+		writeFully(record, position);
+		channel.force(false);
+		// commit
+		ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		header.putLong(0, position + recordLength);
+		writeFully(header, COMMITTED_OFFSET);
+		channel.force(false);
+		committed = position + recordLength;
+
+		Long previous = index.put(user, position);
+		if (previous != null) {
+			garbage += recordAt(previous).getInt(0);
+		}
+	}
+
+	/**
+	 * Returns the model of the given user or null if the store does not contain a model for that user. The
+	 * returned model reads its weights from the mapping.
+	 *
+	 * @param user
+	 * @return
+	 * @throws IOException
+	 */
+	public MappedLinearModel get(String user) throws IOException {
+		ByteBuffer payload = payload(user);
+		if (payload == null) {
+			return null;
+		}
+		if (LinearModelFile.magicOf(payload) != LinearModelFile.MAGIC) {
+			throw new IllegalStateException("The model of user " + user + " is stored as a delta!");
+		}
+		return new MappedLinearModel(payload);
+	}
+
+	/**
+	 * Returns the delta of the given user or null if the store does not contain a model for that user.
+	 *
+	 * @param user
+	 * @return
+	 * @throws IOException
+	 */
+	public SparseLinearModel getDelta(String user) throws IOException {
+		ByteBuffer payload = payload(user);
+		if (payload == null) {
+			return null;
+		}
+		if (LinearModelFile.magicOf(payload) != LinearModelFile.SPARSE_MAGIC) {
+			throw new IllegalStateException("The model of user " + user + " is not stored as a delta!");
+		}
+		return LinearModelFile.decodeSparse(payload);
+	}
+
+	/**
+	 * Returns whether the model of the given user is stored as a delta.
+	 *
+	 * @param user
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean isDelta(String user) throws IOException {
+		ByteBuffer payload = payload(user);
+		return payload != null && LinearModelFile.magicOf(payload) == LinearModelFile.SPARSE_MAGIC;
+	}
+
+	private ByteBuffer payload(String user) throws IOException {
+		Long position = index.get(user);
+		if (position == null) {
+			return null;
+		}
+		ByteBuffer record = recordAt(position);
+		int userLength = record.getInt(4);
+		record.position(align8(8 + userLength));
+		return record;
+	}
+
+	/**
+	 * Rewrites the store at the given file keeping only the latest model of each user, and atomically
+	 * replaces the file with the compacted one. The store must not be open while it is compacted.
+	 *
+	 * @param file
+	 * @param numFeatures
+	 * @throws IOException
+	 */
+	public static void compact(File file, int numFeatures) throws IOException {
+		File tmp = new File(file.getPath() + ".compact");
+		tmp.delete();
+		UserModelStore store = open(file, numFeatures);
+		UserModelStore compacted = open(tmp, numFeatures);
+		try {
+			for (String user : store.users()) {
+				if (store.isDelta(user)) {
+					compacted.putDelta(user, store.getDelta(user));
+				} else {
+					compacted.put(user, store.get(user).toLinearModel());
+				}
+			}
+		} finally {
+			compacted.close();
+			store.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	public synchronized void close() throws IOException {
+		chunks = new MappedByteBuffer[0];
+		raf.close();
+	}
+
+	/**
+	 * Scans the record headers up to the committed length and rebuilds the user id &rarr; offset index.
+	 *
+	 * @throws IOException
+	 */
+	private void loadIndex() throws IOException {
+		long position = HEADER_SIZE;
+		while (position < committed) {
+			// a corrupted length would make the scan loop or read (and map) past the committed records
+			int recordLength = lengthAt(position);
+			if (recordLength < 8 || position + recordLength > committed) {
+				throw new IOException("Corrupted record at offset " + position + " of " + file);
+			}
+			ByteBuffer record = recordAt(position);
+			int userLength = record.getInt(4);
+			if (userLength != PADDING && (userLength < 0 || 8L + userLength > recordLength)) {
+				throw new IOException("Corrupted record at offset " + position + " of " + file);
+			}
+			if (userLength != PADDING) {
+				byte[] userBytes = new byte[userLength];
+				record.position(8);
+				record.get(userBytes);
+				Long previous = index.put(new String(userBytes, LinearModelFile.UTF8), position);
+				if (previous != null) {
+					garbage += recordAt(previous).getInt(0);
+				}
+			}
+			position += recordLength;
+		}
+	}
+
+	/**
+	 * Returns the length of the record at the given position.
+	 *
+	 * @param position
+	 * @return
+	 * @throws IOException
+	 */
+	private int lengthAt(long position) throws IOException {
+		MappedByteBuffer chunk = chunk((int) (position / CHUNK_SIZE), position % CHUNK_SIZE + 8);
+		return chunk.getInt((int) (position % CHUNK_SIZE));
+	}
+
+	/**
+	 * Returns a little-endian buffer that starts at the given record.
+	 *
+	 * @param position
+	 * @return
+	 * @throws IOException
+	 */
+	private ByteBuffer recordAt(long position) throws IOException {
+		int chunkIndex = (int) (position / CHUNK_SIZE);
+		int offset = (int) (position % CHUNK_SIZE);
+		int recordLength = lengthAt(position);
+		MappedByteBuffer chunk = chunk(chunkIndex, offset + (long) recordLength);
+		ByteBuffer record = chunk.duplicate();
+		record.position(offset);
+		record.limit(offset + recordLength);
+		return record.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Returns the mapping of the given chunk, (re)mapping it if it does not cover the given number of bytes.
+	 *
+	 * @param chunkIndex
+	 * @param minLength
+	 * @return
+	 * @throws IOException
+	 */
+	private synchronized MappedByteBuffer chunk(int chunkIndex, long minLength) throws IOException {
+		if (chunkIndex >= chunks.length) {
+			MappedByteBuffer[] grown = new MappedByteBuffer[chunkIndex + 1];
+			System.arraycopy(chunks, 0, grown, 0, chunks.length);
+			chunks = grown;
+		}
+		MappedByteBuffer chunk = chunks[chunkIndex];
+		if (chunk == null || chunk.capacity() < minLength) {
+			long start = chunkIndex * CHUNK_SIZE;
+			long length = Math.min(CHUNK_SIZE, committed - start);
+			chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			chunk.order(ByteOrder.LITTLE_ENDIAN);
+			chunks[chunkIndex] = chunk;
+		}
+		return chunk;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of file: " + file);
+			}
+		}
+		buffer.clear();
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+
+	private static int align8(int n) {
+		return (n + 7) & ~7;
+	}
+}